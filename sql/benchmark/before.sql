@@ -0,0 +1,17 @@
+-- Turns a schema created with create-tables.sql back into the schema before
+-- update-0_0_3.sql moved the game tables to InnoDB, so that run.sh can measure
+-- both. Everything the part of update-0_0_3.sql that run.sh replays creates
+-- (from "all game tables move to InnoDB" on) is removed here.
+
+ALTER TABLE TagEntry
+    DROP KEY game_gametime, DROP KEY game_owner, DROP KEY owner_creationDate,
+    DROP KEY normalizedTag_creationDate, DROP KEY creationDate_owner,
+    DROP KEY creationDate_normalizedTag, DROP KEY matchingTagEntry,
+    DROP KEY game_id,
+    ENGINE=MyISAM, CONVERT TO CHARACTER SET latin1 COLLATE latin1_swedish_ci;
+ALTER TABLE Game
+    DROP KEY video_start, DROP KEY video_queueSlot, DROP COLUMN queueSlot,
+    ENGINE=MyISAM;
+ALTER TABLE Participant DROP KEY game_user, DROP KEY user_game, ENGINE=MyISAM;
+ALTER TABLE User DROP KEY name, ENGINE=MyISAM;
+DROP TABLE EuropeanaImportJob, EuropeanaImportRecord;
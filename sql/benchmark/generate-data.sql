@@ -0,0 +1,80 @@
+-- Fills an empty waisda schema with a synthetic data set for benchmarks:
+-- 2,000 videos, 100,000 users, 500,000 games of 2 players each and
+-- 10,000,000 tag entries (20 per game) spread over the last two years.
+-- Tags follow a skewed distribution over 50,000 words, about a third of the
+-- tag entries have a match and a tenth are pioneers.
+--
+-- Usage: mysql waisda_benchmark < sql/benchmark/generate-data.sql
+
+SET unique_checks = 0, foreign_key_checks = 0;
+SET @t0 = NOW();
+
+DROP TABLE IF EXISTS bench_seq;
+CREATE TABLE bench_seq (n int(11) NOT NULL, PRIMARY KEY (n)) ENGINE=InnoDB;
+INSERT INTO bench_seq (n)
+SELECT a.d + 10 * b.d + 100 * c.d + 1000 * e.d
+FROM (SELECT 0 d UNION ALL SELECT 1 UNION ALL SELECT 2 UNION ALL SELECT 3 UNION ALL SELECT 4
+      UNION ALL SELECT 5 UNION ALL SELECT 6 UNION ALL SELECT 7 UNION ALL SELECT 8 UNION ALL SELECT 9) a,
+     (SELECT 0 d UNION ALL SELECT 1 UNION ALL SELECT 2 UNION ALL SELECT 3 UNION ALL SELECT 4
+      UNION ALL SELECT 5 UNION ALL SELECT 6 UNION ALL SELECT 7 UNION ALL SELECT 8 UNION ALL SELECT 9) b,
+     (SELECT 0 d UNION ALL SELECT 1 UNION ALL SELECT 2 UNION ALL SELECT 3 UNION ALL SELECT 4
+      UNION ALL SELECT 5 UNION ALL SELECT 6 UNION ALL SELECT 7 UNION ALL SELECT 8 UNION ALL SELECT 9) c,
+     (SELECT 0 d UNION ALL SELECT 1 UNION ALL SELECT 2 UNION ALL SELECT 3 UNION ALL SELECT 4
+      UNION ALL SELECT 5 UNION ALL SELECT 6 UNION ALL SELECT 7 UNION ALL SELECT 8 UNION ALL SELECT 9) e;
+
+-- ids start at 1 in an empty schema, so row n gets id n + 1
+INSERT INTO Video (title, duration, enabled, playerType, sourceUrl)
+SELECT CONCAT('Video ', n), 600000, 1, 'JW', CONCAT('http://example.org/video/', n, '.mp4')
+FROM bench_seq WHERE n < 2000;
+
+INSERT INTO User (creationDate, email, name, password)
+SELECT @t0 - INTERVAL 2 YEAR, CONCAT('player', s.n, '@example.org'), CONCAT('player', s.n), 'x'
+FROM (SELECT a.n * 10000 + b.n AS n FROM bench_seq a, bench_seq b WHERE a.n < 10) s;
+
+-- game g starts g * 126 seconds before @t0, i.e. two years for the oldest game
+INSERT INTO Game (start, initiator_id, video_id, countExistingVideoTags)
+SELECT @t0 - INTERVAL (s.n * 126) SECOND, 1 + (s.n * 7) % 100000, 1 + s.n % 2000, 0
+FROM (SELECT a.n * 10000 + b.n AS n FROM bench_seq a, bench_seq b WHERE a.n < 50) s
+ORDER BY s.n;
+
+INSERT INTO Participant (user_id, game_id, joinedOn)
+SELECT 1 + (s.n * 7 + s.p * 13) % 100000, 1 + s.n, @t0 - INTERVAL (s.n * 126) SECOND
+FROM (SELECT a.n * 10000 + b.n AS n, p.n AS p FROM bench_seq a, bench_seq b, bench_seq p
+      WHERE a.n < 50 AND p.n < 2) s;
+
+-- tag entry n belongs to game n / 20 and alternates between its two players;
+-- inserted in chunks of 1,000,000 rows to keep transactions manageable
+DROP PROCEDURE IF EXISTS bench_tag_entries;
+DELIMITER //
+CREATE PROCEDURE bench_tag_entries()
+BEGIN
+    DECLARE chunk int DEFAULT 0;
+    WHILE chunk < 10 DO
+        INSERT INTO TagEntry (dictionary, normalizedTag, score, tag, gametime, typingDuration,
+            game_id, owner_id, matchingTagEntry_id, pioneer, creationDate)
+        SELECT NULL, s.tag, IF(s.matched, 50, 5), s.tag, s.gametime, 1500,
+            1 + s.g, 1 + (s.g * 7 + (s.n % 2) * 13) % 100000,
+            IF(s.matched, s.n, NULL), s.pioneer,
+            @t0 - INTERVAL (s.g * 126) SECOND + INTERVAL (s.gametime DIV 1000) SECOND
+        FROM (SELECT t.n, t.n DIV 20 AS g, (t.n % 20) * 30000 + FLOOR(RAND() * 30000) AS gametime,
+                  CONCAT('tag', FLOOR(POW(RAND(), 3) * 50000)) AS tag,
+                  t.n % 20 > 0 AND RAND() < 0.35 AS matched, RAND() < 0.1 AS pioneer
+              FROM (SELECT a.n * 10000 + b.n AS n FROM bench_seq a, bench_seq b
+                    WHERE a.n >= chunk * 100 AND a.n < (chunk + 1) * 100) t) s
+        ORDER BY s.n;
+        COMMIT;
+        SET chunk = chunk + 1;
+    END WHILE;
+END //
+DELIMITER ;
+CALL bench_tag_entries();
+DROP PROCEDURE bench_tag_entries;
+DROP TABLE bench_seq;
+
+UPDATE User u LEFT JOIN (
+    SELECT owner_id, SUM(score) AS score, COUNT(*) AS tags, COUNT(matchingTagEntry_id) AS matches
+    FROM TagEntry GROUP BY owner_id
+) t ON t.owner_id = u.id
+SET u.totalScore = IFNULL(t.score, 0), u.totalTags = IFNULL(t.tags, 0), u.totalMatches = IFNULL(t.matches, 0);
+
+ANALYZE TABLE TagEntry, Game, Participant, User, Video;
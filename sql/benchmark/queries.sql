@@ -0,0 +1,84 @@
+-- The hot TagEntry queries of the game and the statistics pages, in SQL as
+-- issued by the repositories (JPQL queries translated by hand). Each query is
+-- explained and then run; run.sh collects the plans and timings.
+--
+-- Usage: mysql --comments -vvv waisda_benchmark < sql/benchmark/queries.sql
+
+SET @game = 250000, @owner = 1 + (249999 * 7) % 100000, @video = 1000,
+    @time = 300000, @tag = 'tag10';
+
+-- getRecentEntries
+EXPLAIN SELECT * FROM TagEntry t WHERE t.game_id = @game AND t.gametime BETWEEN @time - 10000 AND @time + 10000;
+SELECT SQL_NO_CACHE * FROM TagEntry t WHERE t.game_id = @game AND t.gametime BETWEEN @time - 10000 AND @time + 10000;
+
+-- getEntries(gameId,ownerId)
+EXPLAIN SELECT * FROM TagEntry t WHERE t.game_id = @game AND t.owner_id = @owner;
+SELECT SQL_NO_CACHE * FROM TagEntry t WHERE t.game_id = @game AND t.owner_id = @owner;
+
+-- getParticipants
+EXPLAIN SELECT p.user_id, u.name, u.email FROM Participant p INNER JOIN User u ON p.user_id = u.id WHERE p.game_id = @game;
+SELECT SQL_NO_CACHE p.user_id, u.name, u.email FROM Participant p INNER JOIN User u ON p.user_id = u.id WHERE p.game_id = @game;
+
+-- getScoredEntries
+EXPLAIN SELECT t.id, t.owner_id, t.score, t.matchingTagEntry_id FROM TagEntry t WHERE t.game_id = @game;
+SELECT SQL_NO_CACHE t.id, t.owner_id, t.score, t.matchingTagEntry_id FROM TagEntry t WHERE t.game_id = @game;
+
+-- getIndexedEntries
+EXPLAIN SELECT t.id, t.game_id, o.id, o.name, t.tag, t.normalizedTag, t.gametime, t.dictionary, t.pioneer, t.matchingTagEntry_id, t.score
+FROM TagEntry t INNER JOIN Game g ON t.game_id = g.id INNER JOIN User o ON t.owner_id = o.id
+WHERE g.video_id = @video;
+SELECT SQL_NO_CACHE COUNT(*) FROM (SELECT t.id, t.game_id, o.id AS owner_id, o.name, t.tag, t.normalizedTag, t.gametime, t.dictionary, t.pioneer, t.matchingTagEntry_id, t.score
+FROM TagEntry t INNER JOIN Game g ON t.game_id = g.id INNER JOIN User o ON t.owner_id = o.id
+WHERE g.video_id = @video) x;
+
+-- getLastIdBefore (the tag match indexes read the tag entries of their video after this id every second)
+EXPLAIN SELECT t.id FROM TagEntry t WHERE t.creationDate < NOW() - INTERVAL 1 MINUTE ORDER BY t.creationDate DESC LIMIT 1;
+SELECT SQL_NO_CACHE t.id FROM TagEntry t WHERE t.creationDate < NOW() - INTERVAL 1 MINUTE ORDER BY t.creationDate DESC LIMIT 1;
+
+-- getTopTags
+EXPLAIN SELECT t.normalizedTag FROM TagEntry t INNER JOIN Game g ON t.game_id = g.id
+WHERE g.video_id = @video GROUP BY t.normalizedTag ORDER BY COUNT(*) DESC LIMIT 10;
+SELECT SQL_NO_CACHE t.normalizedTag FROM TagEntry t INNER JOIN Game g ON t.game_id = g.id
+WHERE g.video_id = @video GROUP BY t.normalizedTag ORDER BY COUNT(*) DESC LIMIT 10;
+
+-- getRecentGames
+EXPLAIN SELECT g.id, SUM(t.score), COUNT(t.id) FROM TagEntry t INNER JOIN Game g ON t.game_id = g.id
+WHERE t.owner_id = @owner GROUP BY g.id ORDER BY g.start DESC LIMIT 10;
+SELECT SQL_NO_CACHE g.id, SUM(t.score), COUNT(t.id) FROM TagEntry t INNER JOIN Game g ON t.game_id = g.id
+WHERE t.owner_id = @owner GROUP BY g.id ORDER BY g.start DESC LIMIT 10;
+
+-- getLastPioneerMatches
+EXPLAIN SELECT t.* FROM TagEntry t INNER JOIN TagEntry t2 ON t.matchingTagEntry_id = t2.id
+WHERE t.owner_id = @owner AND t.pioneer = 1 ORDER BY t.creationDate DESC LIMIT 5;
+SELECT SQL_NO_CACHE t.* FROM TagEntry t INNER JOIN TagEntry t2 ON t.matchingTagEntry_id = t2.id
+WHERE t.owner_id = @owner AND t.pioneer = 1 ORDER BY t.creationDate DESC LIMIT 5;
+
+-- getFirstEntry
+EXPLAIN SELECT * FROM TagEntry t WHERE t.normalizedTag = @tag ORDER BY t.creationDate ASC LIMIT 1;
+SELECT SQL_NO_CACHE * FROM TagEntry t WHERE t.normalizedTag = @tag ORDER BY t.creationDate ASC LIMIT 1;
+
+-- getDailyScores (at startup)
+EXPLAIN SELECT u.id, u.email, u.name, DATE(t.creationDate), SUM(t.score) FROM User u INNER JOIN TagEntry t ON t.owner_id = u.id
+WHERE t.creationDate >= DATE(NOW() - INTERVAL 6 DAY)
+GROUP BY u.id, DATE(t.creationDate);
+SELECT SQL_NO_CACHE COUNT(*) FROM (SELECT u.id, u.email, u.name, DATE(t.creationDate), SUM(t.score) FROM User u INNER JOIN TagEntry t ON t.owner_id = u.id
+WHERE t.creationDate >= DATE(NOW() - INTERVAL 6 DAY)
+GROUP BY u.id, DATE(t.creationDate)) x;
+
+-- getTagCounts (one day, at startup)
+EXPLAIN SELECT t.normalizedTag, COUNT(*) FROM TagEntry t WHERE t.creationDate >= CURDATE() AND t.creationDate < CURDATE() + INTERVAL 1 DAY
+GROUP BY t.normalizedTag ORDER BY COUNT(*) DESC LIMIT 1000;
+SELECT SQL_NO_CACHE COUNT(*) FROM (SELECT t.normalizedTag, COUNT(*) FROM TagEntry t WHERE t.creationDate >= CURDATE() AND t.creationDate < CURDATE() + INTERVAL 1 DAY
+GROUP BY t.normalizedTag ORDER BY COUNT(*) DESC LIMIT 1000) x;
+
+-- countMatches
+EXPLAIN SELECT COUNT(*) FROM TagEntry WHERE matchingTagEntry_id IS NOT NULL;
+SELECT SQL_NO_CACHE COUNT(*) FROM TagEntry WHERE matchingTagEntry_id IS NOT NULL;
+
+-- countCurrentlyPlaying
+EXPLAIN SELECT COUNT(DISTINCT p.user_id) FROM Participant p INNER JOIN Game g ON p.game_id = g.id
+INNER JOIN Video v ON g.video_id = v.id
+WHERE g.start - INTERVAL 60 SECOND <= NOW() AND NOW() <= g.start + INTERVAL (v.duration / 1000) SECOND;
+SELECT SQL_NO_CACHE COUNT(DISTINCT p.user_id) FROM Participant p INNER JOIN Game g ON p.game_id = g.id
+INNER JOIN Video v ON g.video_id = v.id
+WHERE g.start - INTERVAL 60 SECOND <= NOW() AND NOW() <= g.start + INTERVAL (v.duration / 1000) SECOND;
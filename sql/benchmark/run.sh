@@ -0,0 +1,66 @@
+#!/bin/sh
+#
+# Measures the hot TagEntry queries before and after the schema changes of
+# update-0_0_3.sql on a generated data set of 10,000,000 tag entries.
+#
+# Usage (from the root of the source tree):
+#
+#   sh sql/benchmark/run.sh [mysql options, e.g. -u root -pSECRET]
+#
+# Creates (and drops first!) the database waisda_benchmark. Query plans and
+# timings are written to sql/benchmark/results/before.txt and after.txt; a
+# summary of the timings is printed at the end. Generating the data takes a
+# while; set KEEP_DATA=1 to reuse the data of a previous run.
+
+set -e
+
+DB=waisda_benchmark
+DIR=sql/benchmark
+RESULTS=$DIR/results
+
+mkdir -p $RESULTS
+
+if [ -z "$KEEP_DATA" ]; then
+    echo "Creating $DB with the schema before update-0_0_3.sql"
+    mysql "$@" -e "DROP DATABASE IF EXISTS $DB; CREATE DATABASE $DB CHARSET utf8 COLLATE utf8_general_ci"
+    mysql "$@" $DB < sql/create-tables.sql
+    mysql "$@" $DB < $DIR/before.sql
+    echo "Generating data"
+    time mysql "$@" $DB < $DIR/generate-data.sql
+    mysqldump "$@" --no-create-info $DB > $RESULTS/data.sql
+else
+    echo "Restoring the schema before update-0_0_3.sql"
+    mysql "$@" -e "DROP DATABASE IF EXISTS $DB; CREATE DATABASE $DB CHARSET utf8 COLLATE utf8_general_ci"
+    mysql "$@" $DB < sql/create-tables.sql
+    mysql "$@" $DB < $DIR/before.sql
+    mysql "$@" $DB < $RESULTS/data.sql
+    mysql "$@" $DB -e "ANALYZE TABLE TagEntry, Game, Participant, User, Video"
+fi
+
+echo "Running queries before migration"
+mysql "$@" --comments -vvv $DB < $DIR/queries.sql > $RESULTS/before.txt
+
+echo "Migrating"
+# From the engine change on; the User columns added earlier in the script are
+# already part of create-tables.sql, and before.sql removes everything after.
+time sed -n '/^-- all game tables move to InnoDB/,$p' sql/update-0_0_3.sql | mysql "$@" $DB
+mysql "$@" $DB -e "ANALYZE TABLE TagEntry, Game, Participant, User"
+
+echo "Running queries after migration"
+mysql "$@" --comments -vvv $DB < $DIR/queries.sql > $RESULTS/after.txt
+
+# Prints "<query> <seconds>" for every timed (non-EXPLAIN) query of a result file.
+timings() {
+    awk '/^-- / { name = $2 }
+         /^EXPLAIN/ { explain = 1 }
+         /^SELECT SQL_NO_CACHE/ { explain = 0 }
+         / set \(/ && !explain { sub(/.*\(/, ""); sub(/ sec\)/, ""); print name, $0 }' "$1"
+}
+
+echo
+printf "%-24s %10s %10s\n" query before after
+timings $RESULTS/before.txt > $RESULTS/before.times
+timings $RESULTS/after.txt > $RESULTS/after.times
+paste -d ' ' $RESULTS/before.times $RESULTS/after.times | while read name before _ after; do
+    printf "%-24s %10s %10s\n" $name $before $after
+done
@@ -81,13 +81,16 @@ CREATE TABLE `Game` (
   `initiator_id` int(11) DEFAULT NULL COMMENT 'User who created this session',
   `video_id` int(11) NOT NULL COMMENT 'Video played',
   `countExistingVideoTags` int(11) NOT NULL DEFAULT '0' COMMENT 'Number of existing tags at creation time',
+  `queueSlot` bigint(20) DEFAULT NULL COMMENT 'Start in units of the queue time; NULL for games before 0.0.3',
   PRIMARY KEY (`id`),
+  UNIQUE KEY `video_queueSlot` (`video_id`,`queueSlot`) COMMENT 'At most one game per video per queue slot, also across nodes (createGame)',
   KEY `FK21C012337EBE01` (`video_id`),
   KEY `FK21C0122F5F75EF` (`initiator_id`),
   KEY `FK21C0123B4EF296` (`video_id`),
   KEY `FK21C0121F1BDABA` (`initiator_id`),
-  KEY `start` (`start`)
-) ENGINE=MyISAM DEFAULT CHARSET=utf8 COMMENT='A session in which a specific video is played';
+  KEY `start` (`start`),
+  KEY `video_start` (`video_id`,`start`) COMMENT 'Games of a video, by start (getQueuesFor, and the per-video tag queries via game_owner)'
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='A session in which a specific video is played';
 /*!40101 SET character_set_client = @saved_cs_client */;
 
 --
@@ -110,8 +113,16 @@ CREATE TABLE `TagEntry` (
   `matchingTagEntry_id` int(11) DEFAULT NULL COMMENT 'Matching tag, if any (may be set later; awards extra points)',
   `pioneer` tinyint(1) NOT NULL COMMENT 'Whether there was no match when tag was entered',
   `creationDate` datetime NOT NULL COMMENT 'Date at which tag was entered',
-  PRIMARY KEY (`id`)
-) ENGINE=MyISAM DEFAULT CHARSET=latin1;
+  PRIMARY KEY (`id`),
+  KEY `game_gametime` (`game_id`,`gametime`) COMMENT 'Tags of a game around a moment (getRecentEntries)',
+  KEY `game_owner` (`game_id`,`owner_id`,`score`,`matchingTagEntry_id`) COMMENT 'Tags of a player in a game; covers the scoreboard (getEntries, getScoredEntries)',
+  KEY `owner_creationDate` (`owner_id`,`creationDate`) COMMENT 'Tags of a player; newest first (getRecentGames, getLastPioneerMatches, moveTagEntries)',
+  KEY `normalizedTag_creationDate` (`normalizedTag`,`creationDate`) COMMENT 'First use of a tag (getFirstEntry)',
+  KEY `creationDate_owner` (`creationDate`,`owner_id`,`score`) COMMENT 'Covers the daily scores read at startup (getDailyScores)',
+  KEY `creationDate_normalizedTag` (`creationDate`,`normalizedTag`) COMMENT 'Covers the daily tag counts read at startup (getTagCounts)',
+  KEY `matchingTagEntry` (`matchingTagEntry_id`) COMMENT 'Match lookups and countMatches',
+  KEY `game_id` (`game_id`,`id`) COMMENT 'Tags of a game in export order (getExportPage)'
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 /*!40101 SET character_set_client = @saved_cs_client */;
 
 --
@@ -133,9 +144,14 @@ CREATE TABLE `User` (
   `usernameTwitter` varchar(255) DEFAULT NULL COMMENT 'Twitter username',
   `gender` varchar(15) DEFAULT NULL COMMENT 'Either ''MALE'' or ''FEMALE''',
   `isAdmin` tinyint(1) DEFAULT 0 COMMENT 'Is admin flag',
+  `totalScore` int(11) NOT NULL DEFAULT 0 COMMENT 'Sum of the scores of all tag entries of user',
+  `totalTags` int(11) NOT NULL DEFAULT 0 COMMENT 'Number of tag entries of user',
+  `totalMatches` int(11) NOT NULL DEFAULT 0 COMMENT 'Number of tag entries of user that have a match',
+  `countNewPioneerMatches` int(11) NOT NULL DEFAULT 0 COMMENT 'Number of pioneer tags of user matched since user last finished a game',
   PRIMARY KEY (`id`),
-  UNIQUE KEY `email` (`email`)
-) ENGINE=MyISAM DEFAULT CHARSET=utf8 COMMENT='Users who participated in one or more games';
+  UNIQUE KEY `email` (`email`),
+  KEY `name` (`name`) COMMENT 'Lookups by name (getUserByName)'
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='Users who participated in one or more games';
 /*!40101 SET character_set_client = @saved_cs_client */;
 
 --
@@ -168,8 +184,54 @@ CREATE TABLE `Participant` (
   `user_id` int(11) NOT NULL COMMENT 'Player joining',
   `game_id` int(11) NOT NULL COMMENT 'Game joined',
   `joinedOn` datetime NOT NULL COMMENT 'Time at which player joined the game',
+  PRIMARY KEY (`id`),
+  KEY `game_user` (`game_id`,`user_id`) COMMENT 'Players of a game (getParticipants, countCurrentlyPlaying)',
+  KEY `user_game` (`user_id`,`game_id`) COMMENT 'Games of a player (getParticipant, moveParticipants)'
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='A participating User in a Game; used to show player list';
+/*!40101 SET character_set_client = @saved_cs_client */;
+
+--
+-- Table structure for table `EuropeanaImportJob`
+--
+
+DROP TABLE IF EXISTS `EuropeanaImportJob`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!40101 SET character_set_client = utf8 */;
+CREATE TABLE `EuropeanaImportJob` (
+  `id` int(11) NOT NULL AUTO_INCREMENT,
+  `searchQuery` varchar(1024) NOT NULL COMMENT 'Europeana search query being imported',
+  `status` varchar(16) NOT NULL COMMENT 'RUNNING, STOPPED, FAILED or FINISHED',
+  `nextStart` int(11) NOT NULL COMMENT 'Offset of the first search result not yet imported',
+  `totalResults` int(11) NOT NULL,
+  `countImported` int(11) NOT NULL,
+  `countUpdated` int(11) NOT NULL,
+  `countUnchanged` int(11) NOT NULL,
+  `countFailed` int(11) NOT NULL,
+  `creationDate` datetime NOT NULL,
+  `checkpointDate` datetime NOT NULL COMMENT 'Time of the last stored page',
   PRIMARY KEY (`id`)
-) ENGINE=MyISAM DEFAULT CHARSET=utf8 COMMENT='A participating User in a Game; used to show player list';
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='A (resumable) run of the Europeana import';
+/*!40101 SET character_set_client = @saved_cs_client */;
+
+--
+-- Table structure for table `EuropeanaImportRecord`
+--
+
+DROP TABLE IF EXISTS `EuropeanaImportRecord`;
+/*!40101 SET @saved_cs_client     = @@character_set_client */;
+/*!40101 SET character_set_client = utf8 */;
+CREATE TABLE `EuropeanaImportRecord` (
+  `id` int(11) NOT NULL AUTO_INCREMENT,
+  `europeanaId` varchar(255) NOT NULL,
+  `contentHash` varchar(32) NOT NULL COMMENT 'MD5 of the search result the record was imported from',
+  `outcome` varchar(16) NOT NULL COMMENT 'IMPORTED, UPDATED, UNCHANGED, SKIPPED or FAILED',
+  `message` varchar(1024) DEFAULT NULL COMMENT 'Why the record was skipped or failed',
+  `videoId` int(11) NOT NULL COMMENT 'Video the record was stored as, or 0',
+  `jobId` int(11) NOT NULL COMMENT 'Last EuropeanaImportJob that saw the record',
+  `importDate` datetime NOT NULL,
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `europeanaId` (`europeanaId`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='Outcome of the last import of each Europeana record';
 /*!40101 SET character_set_client = @saved_cs_client */;
 /*!40103 SET TIME_ZONE=@OLD_TIME_ZONE */;
 
@@ -0,0 +1,67 @@
+-- user totals are stored with the user instead of being computed from TagEntry on every load
+alter table User add column totalScore int(11) NOT NULL DEFAULT 0 COMMENT 'Sum of the scores of all tag entries of user';
+alter table User add column totalTags int(11) NOT NULL DEFAULT 0 COMMENT 'Number of tag entries of user';
+alter table User add column totalMatches int(11) NOT NULL DEFAULT 0 COMMENT 'Number of tag entries of user that have a match';
+update User u left join (
+    select owner_id, sum(score) as score, count(*) as tags, count(matchingTagEntry_id) as matches
+    from TagEntry group by owner_id
+) t on t.owner_id = u.id
+set u.totalScore = ifnull(t.score, 0), u.totalTags = ifnull(t.tags, 0), u.totalMatches = ifnull(t.matches, 0);
+-- pioneer match notifications are counted as they happen; existing users start without notifications
+alter table User add column countNewPioneerMatches int(11) NOT NULL DEFAULT 0 COMMENT 'Number of pioneer tags of user matched since user last finished a game';
+-- all game tables move to InnoDB (row locks instead of table locks while tagging; utf8 throughout)
+-- (CONVERT also converts the existing columns, not just the table default)
+ALTER TABLE TagEntry ENGINE=InnoDB, CONVERT TO CHARACTER SET utf8 COLLATE utf8_general_ci;
+ALTER TABLE Game ENGINE=InnoDB;
+ALTER TABLE Participant ENGINE=InnoDB;
+ALTER TABLE User ENGINE=InnoDB;
+-- indexes for the TagEntry queries of the game and the statistics pages
+ALTER TABLE TagEntry
+    ADD KEY game_gametime (game_id, gametime) COMMENT 'Tags of a game around a moment (getRecentEntries)',
+    ADD KEY game_owner (game_id, owner_id, score, matchingTagEntry_id) COMMENT 'Tags of a player in a game; covers the scoreboard (getEntries, getScoredEntries)',
+    ADD KEY owner_creationDate (owner_id, creationDate) COMMENT 'Tags of a player; newest first (getRecentGames, getLastPioneerMatches, moveTagEntries)',
+    ADD KEY normalizedTag_creationDate (normalizedTag, creationDate) COMMENT 'First use of a tag (getFirstEntry)',
+    ADD KEY creationDate_owner (creationDate, owner_id, score) COMMENT 'Covers the daily scores read at startup (getDailyScores)',
+    ADD KEY creationDate_normalizedTag (creationDate, normalizedTag) COMMENT 'Covers the daily tag counts read at startup (getTagCounts)',
+    ADD KEY matchingTagEntry (matchingTagEntry_id) COMMENT 'Match lookups and countMatches';
+ALTER TABLE Game
+    ADD KEY video_start (video_id, start) COMMENT 'Games of a video, by start (getQueuesFor, and the per-video tag queries via game_owner)';
+ALTER TABLE Participant
+    ADD KEY game_user (game_id, user_id) COMMENT 'Players of a game (getParticipants, countCurrentlyPlaying)',
+    ADD KEY user_game (user_id, game_id) COMMENT 'Games of a player (getParticipant, moveParticipants)';
+ALTER TABLE User
+    ADD KEY name (name) COMMENT 'Lookups by name (getUserByName)';
+-- the tag export pages through the tags of a video by id
+ALTER TABLE TagEntry
+    ADD KEY game_id (game_id, id) COMMENT 'Tags of a game in export order (getExportPage)';
+-- resumable Europeana import jobs and the outcome of each imported record
+CREATE TABLE EuropeanaImportJob (
+  `id` int(11) NOT NULL AUTO_INCREMENT,
+  `searchQuery` varchar(1024) NOT NULL COMMENT 'Europeana search query being imported',
+  `status` varchar(16) NOT NULL COMMENT 'RUNNING, STOPPED, FAILED or FINISHED',
+  `nextStart` int(11) NOT NULL COMMENT 'Offset of the first search result not yet imported',
+  `totalResults` int(11) NOT NULL,
+  `countImported` int(11) NOT NULL,
+  `countUpdated` int(11) NOT NULL,
+  `countUnchanged` int(11) NOT NULL,
+  `countFailed` int(11) NOT NULL,
+  `creationDate` datetime NOT NULL,
+  `checkpointDate` datetime NOT NULL COMMENT 'Time of the last stored page',
+  PRIMARY KEY (`id`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='A (resumable) run of the Europeana import';
+CREATE TABLE EuropeanaImportRecord (
+  `id` int(11) NOT NULL AUTO_INCREMENT,
+  `europeanaId` varchar(255) NOT NULL,
+  `contentHash` varchar(32) NOT NULL COMMENT 'MD5 of the search result the record was imported from',
+  `outcome` varchar(16) NOT NULL COMMENT 'IMPORTED, UPDATED, UNCHANGED, SKIPPED or FAILED',
+  `message` varchar(1024) DEFAULT NULL COMMENT 'Why the record was skipped or failed',
+  `videoId` int(11) NOT NULL COMMENT 'Video the record was stored as, or 0',
+  `jobId` int(11) NOT NULL COMMENT 'Last EuropeanaImportJob that saw the record',
+  `importDate` datetime NOT NULL,
+  PRIMARY KEY (`id`),
+  UNIQUE KEY `europeanaId` (`europeanaId`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8 COMMENT='Outcome of the last import of each Europeana record';
+-- at most one game per video per queue slot, so nodes can't create concurrent games for a video
+ALTER TABLE Game
+    ADD COLUMN queueSlot bigint(20) DEFAULT NULL COMMENT 'Start in units of the queue time; NULL for games before 0.0.3',
+    ADD UNIQUE KEY video_queueSlot (video_id, queueSlot) COMMENT 'At most one game per video per queue slot, also across nodes (createGame)';
@@ -0,0 +1,102 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package nl.waisda.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nl.waisda.domain.TagEntry;
+import nl.waisda.domain.User;
+import nl.waisda.domain.UserSummary;
+import nl.waisda.model.GameUpdate;
+import nl.waisda.model.ShallowTagEntry;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serializing the game update every player polls for, as the JSON message
+ * converter does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GameUpdateBenchmark {
+
+	/** Tag entries of the player so far. */
+	@Param({ "10", "60" })
+	public int tagEntries;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream(16384);
+
+	private GameUpdate update;
+
+	@Setup
+	public void setUp() {
+		List<TagEntry> entries = TagCorpus.createTagEntries(tagEntries, 4, 4L);
+		List<ShallowTagEntry> shallow = new ArrayList<ShallowTagEntry>();
+		int gameScore = 0;
+		for (TagEntry entry : entries) {
+			shallow.add(ShallowTagEntry.fromTagEntry(entry));
+			gameScore += entry.getScore();
+		}
+		List<UserSummary> students = new ArrayList<UserSummary>();
+		for (int i = 1; i <= 4; i++) {
+			User user = TagCorpus.createUser(i);
+			students.add(new UserSummary(user.getId(), user.getName(),
+					gameScore / i, user.getSmallAvatarUrl()));
+		}
+
+		update = new GameUpdate();
+		update.setVersion(System.currentTimeMillis());
+		update.setOwnId(1);
+		update.setTotalScore(gameScore * 10);
+		update.setGameScore(gameScore);
+		update.setTagEntries(shallow);
+		update.setStudents(students);
+	}
+
+	@Benchmark
+	public int serialize() throws IOException {
+		out.reset();
+		mapper.writeValue(out, update);
+		return out.size();
+	}
+
+}
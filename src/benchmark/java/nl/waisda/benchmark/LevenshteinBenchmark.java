@@ -0,0 +1,125 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package nl.waisda.benchmark;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import nl.waisda.model.BKTree;
+import nl.waisda.model.Levenshtein;
+import nl.waisda.model.Match;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Edit distances between normalized tags and their typos, and finding the
+ * closest tag of the corpus for a typo: by a linear scan, and with a BK-tree
+ * as the fuzzy matcher does.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LevenshteinBenchmark {
+
+	private List<String> words;
+
+	private String[] tags;
+
+	private String[] typos;
+
+	private BKTree tree;
+
+	private int next;
+
+	@Setup
+	public void setUp() {
+		words = TagCorpus.getNormalizedTags();
+		tags = words.toArray(new String[words.size()]);
+		typos = new String[tags.length];
+		Random random = new Random(3L);
+		for (int i = 0; i < tags.length; i++) {
+			typos[i] = typo(tags[i], random);
+		}
+		tree = new BKTree();
+		for (String word : words) {
+			tree.add(word);
+		}
+	}
+
+	/** Drops, doubles or swaps a character, as hurried players do. */
+	private static String typo(String tag, Random random) {
+		if (tag.length() < 2) {
+			return tag + tag;
+		}
+		int i = random.nextInt(tag.length() - 1);
+		switch (random.nextInt(3)) {
+		case 0:
+			return tag.substring(0, i) + tag.substring(i + 1);
+		case 1:
+			return tag.substring(0, i + 1) + tag.substring(i);
+		default:
+			return tag.substring(0, i) + tag.charAt(i + 1) + tag.charAt(i)
+					+ tag.substring(i + 2);
+		}
+	}
+
+	private int nextIndex() {
+		int i = next;
+		next = next + 1 == tags.length ? 0 : next + 1;
+		return i;
+	}
+
+	@Benchmark
+	public int distance() {
+		int i = nextIndex();
+		return Levenshtein.distance(tags[i], typos[i]);
+	}
+
+	@Benchmark
+	public int distanceBounded() {
+		int i = nextIndex();
+		return Levenshtein.distance(tags[i], typos[i], 2);
+	}
+
+	@Benchmark
+	public List<String> bkTreeSearch() {
+		return tree.search(typos[nextIndex()], 2);
+	}
+
+	@Benchmark
+	public Match getBestMatch() {
+		return Levenshtein.getBestMatch(words, typos[nextIndex()]);
+	}
+
+}
@@ -0,0 +1,89 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package nl.waisda.benchmark;
+
+import java.text.Normalizer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import nl.waisda.domain.TagEntry;
+import nl.waisda.validators.RegisterValidator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Normalization of a single tag, as done for every tag entry and dictionary
+ * lookup. Each invocation takes the next tag of the corpus.
+ * <code>normalizeRegex</code> is the regular expression based implementation
+ * TagEntry.normalize used to have, for comparison.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NormalizeBenchmark {
+
+	private String[] tags;
+
+	private int next;
+
+	@Setup
+	public void setUp() {
+		List<String> corpus = TagCorpus.getTags();
+		tags = corpus.toArray(new String[corpus.size()]);
+	}
+
+	private String nextTag() {
+		String tag = tags[next];
+		next = next + 1 == tags.length ? 0 : next + 1;
+		return tag;
+	}
+
+	@Benchmark
+	public String normalize() {
+		return TagEntry.normalize(nextTag());
+	}
+
+	@Benchmark
+	public String normalizeRegex() {
+		String name = nextTag().toLowerCase();
+		name = name.replaceAll("\\([^\\)]*\\)", "");
+		return Normalizer.normalize(name, Normalizer.Form.NFD).replaceAll(
+				"[^a-z0-9]+", "");
+	}
+
+	@Benchmark
+	public String normalizeWhitespace() {
+		return RegisterValidator.normalizeWhitespace(nextTag());
+	}
+
+}
@@ -0,0 +1,128 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package nl.waisda.benchmark;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import nl.waisda.domain.TagEntry;
+import nl.waisda.domain.User;
+import nl.waisda.domain.UserScore;
+import nl.waisda.model.TagEntrySummary;
+import nl.waisda.model.TopScores;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scoring a tag entry, summarizing a player's game for the recap and
+ * keeping the top scores of the statistics pages.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScoringBenchmark {
+
+	private TagEntry[] entries;
+
+	private int next;
+
+	/** The tag entries of one player in one game; 60 is a busy game. */
+	@State(Scope.Benchmark)
+	public static class PlayerGame {
+
+		@Param({ "20", "60" })
+		public int tagsPerGame;
+
+		List<TagEntry> entries;
+
+		@Setup
+		public void setUp() {
+			entries = TagCorpus.createTagEntries(tagsPerGame, 4, 1L);
+		}
+	}
+
+	/** The weekly scores, one per player that played this week. */
+	@State(Scope.Thread)
+	public static class WeeklyScores {
+
+		@Param({ "100", "5000" })
+		public int players;
+
+		TopScores scores;
+
+		User[] users;
+
+		Random random;
+
+		@Setup
+		public void setUp() {
+			random = new Random(2L);
+			scores = new TopScores(TopScores.DAYS);
+			users = new User[players];
+			for (int i = 0; i < players; i++) {
+				users[i] = TagCorpus.createUser(i + 1);
+				for (int day = 1; day <= TopScores.DAYS; day++) {
+					scores.add(users[i], day, random.nextInt(200));
+				}
+			}
+		}
+	}
+
+	@Setup
+	public void setUp() {
+		List<TagEntry> all = TagCorpus.createTagEntries(1000, 4, 1L);
+		entries = all.toArray(new TagEntry[all.size()]);
+	}
+
+	@Benchmark
+	public int recomputeScore() {
+		TagEntry entry = entries[next];
+		next = next + 1 == entries.length ? 0 : next + 1;
+		return entry.recomputeScore();
+	}
+
+	@Benchmark
+	public TagEntrySummary summary(PlayerGame game) {
+		return TagEntrySummary.fromEntries(game.entries);
+	}
+
+	@Benchmark
+	public List<UserScore> topScores(WeeklyScores weekly) {
+		User user = weekly.users[weekly.random.nextInt(weekly.players)];
+		weekly.scores.add(user, TopScores.DAYS, 50);
+		return weekly.scores.getContext(user);
+	}
+
+}
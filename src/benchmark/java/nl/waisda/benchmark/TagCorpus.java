@@ -0,0 +1,132 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package nl.waisda.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import nl.waisda.domain.Game;
+import nl.waisda.domain.TagEntry;
+import nl.waisda.domain.User;
+
+/**
+ * Realistic input for the benchmarks: tags as typed by Dutch players, and
+ * games full of scored tag entries built from them.
+ */
+public final class TagCorpus {
+
+	private static final String TAGS_RESOURCE = "tags-nl.txt";
+
+	private TagCorpus() {
+	}
+
+	/** Returns the Dutch tag corpus, as typed by players. */
+	public static List<String> getTags() {
+		InputStream in = TagCorpus.class.getResourceAsStream(TAGS_RESOURCE);
+		if (in == null) {
+			throw new IllegalStateException("Missing resource " + TAGS_RESOURCE);
+		}
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					in, "UTF-8"));
+			List<String> tags = new ArrayList<String>();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().length() > 0 && !line.startsWith("#")) {
+					tags.add(line);
+				}
+			}
+			return tags;
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot read " + TAGS_RESOURCE, e);
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// Ignore.
+			}
+		}
+	}
+
+	/** Returns the corpus normalized, as stored with the tag entries. */
+	public static List<String> getNormalizedTags() {
+		List<String> normalized = new ArrayList<String>();
+		for (String tag : getTags()) {
+			normalized.add(TagEntry.normalize(tag));
+		}
+		return normalized;
+	}
+
+	public static User createUser(int id) {
+		User user = new User();
+		user.setId(id);
+		user.setName("speler" + id);
+		user.setEmail("speler" + id + "@example.org");
+		return user;
+	}
+
+	/**
+	 * Creates <code>count</code> scored tag entries of <code>players</code>
+	 * players in one game, with roughly the proportions of matches, pioneers
+	 * and dictionary hits of real games.
+	 */
+	public static List<TagEntry> createTagEntries(int count, int players,
+			long seed) {
+		Random random = new Random(seed);
+		List<String> tags = getTags();
+		Game game = new Game();
+		game.setId(1);
+		User[] owners = new User[players];
+		for (int i = 0; i < players; i++) {
+			owners[i] = createUser(i + 1);
+		}
+
+		List<TagEntry> entries = new ArrayList<TagEntry>(count);
+		for (int i = 0; i < count; i++) {
+			TagEntry entry = new TagEntry();
+			entry.setId(i + 1);
+			entry.setGame(game);
+			entry.setOwner(owners[random.nextInt(players)]);
+			entry.setTag(tags.get(random.nextInt(tags.size())));
+			entry.setNormalizedTag();
+			entry.setGameTime(i * 5000 + random.nextInt(5000));
+			entry.setTypingDuration(1000 + random.nextInt(2000));
+			if (random.nextInt(4) == 0) {
+				entry.setDictionary("GeografischeNamen");
+			}
+			if (!entries.isEmpty() && random.nextInt(3) == 0) {
+				entry.setMatchingTagEntry(entries.get(random.nextInt(entries
+						.size())));
+			} else {
+				entry.setPioneer(random.nextInt(10) == 0);
+			}
+			entry.updateScore();
+			entries.add(entry);
+		}
+		return entries;
+	}
+
+}
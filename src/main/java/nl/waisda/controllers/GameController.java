@@ -38,15 +38,20 @@ import nl.waisda.domain.*;
 import nl.waisda.exceptions.Forbidden;
 import nl.waisda.exceptions.NotFoundException;
 import nl.waisda.model.CurrentGames;
+import nl.waisda.model.GameScore;
 import nl.waisda.model.GameUpdate;
 import nl.waisda.model.Recap;
 import nl.waisda.model.ShallowTagEntry;
+import nl.waisda.repositories.GameRepository;
 import nl.waisda.repositories.ParticipantRepository;
 import nl.waisda.repositories.TagEntryRepository;
 import nl.waisda.repositories.UserRepository;
 import nl.waisda.repositories.VideoRepository;
+import nl.waisda.services.GameEventService;
+import nl.waisda.services.GameScoreboardService;
 import nl.waisda.services.GameService;
 import nl.waisda.services.ScoringServiceIF;
+import nl.waisda.services.TagMatchIndexService;
 import nl.waisda.services.UserSessionService;
 import nl.waisda.validators.RegisterValidator;
 
@@ -54,6 +59,9 @@ import nl.waisda.validators.RegisterValidator;
 @Controller
 @SessionAttributes("userSession")
 public class GameController {
+
+	/** Maximum time an update request waits for the game to change. */
+	public static final long UPDATE_TIMEOUT_MS = 20000;
 	
 	private Logger log = Logger.getLogger(GameController.class);
 
@@ -71,12 +79,24 @@ public class GameController {
 	
 	@Autowired
 	private TagEntryRepository tagEntryRepo;
+
+	@Autowired
+	private GameRepository gameRepo;
 	
 	@Autowired
 	private ParticipantRepository participantRepo;
 
 	@Autowired
 	private ScoringServiceIF scoringService;
+
+	@Autowired
+	private TagMatchIndexService matchIndex;
+
+	@Autowired
+	private GameEventService gameEvents;
+
+	@Autowired
+	private GameScoreboardService scoreboards;
 	
 	@RequestMapping("/start-game/{videoId}")
 	public String startGame(@PathVariable int videoId, ModelMap model, HttpSession session)
@@ -104,6 +124,8 @@ public class GameController {
 
 		if (participantRepo.get(user.getId(), game.getId()) == null) {
 			participantRepo.store(new Participant(user, game));
+			scoreboards.join(game, user);
+			gameEvents.publish(game.getId());
 			log.info(String.format("%s joins game %d", user.getShortDescription(), gameId));
 		}
 
@@ -113,9 +135,15 @@ public class GameController {
 		return "game";
 	}
 	
+	/**
+	 * Returns the state of the game. If the client passes the version of the
+	 * state it already has, the request waits until the game changes or
+	 * {@link #UPDATE_TIMEOUT_MS} has passed.
+	 */
 	@RequestMapping("/game/{gameId}/update/{time}")
 	@ResponseBody
 	public GameUpdate update(@PathVariable int gameId, @PathVariable int time,
+			@RequestParam(value = "version", required = false) Long version,
 			ModelMap model, HttpSession session) throws NotFoundException {
 		// Fetch data
 		User user = userSessionService.requireCurrentUser(session);
@@ -125,12 +153,26 @@ public class GameController {
 			throw new NotFoundException("Unknown game " + gameId);
 		}
 
-		List<UserScore> participants = tagEntryRepo.getParticipants(game
-				.getId());
+		long currentVersion;
+		if (version == null || game.hasEnded()) {
+			currentVersion = gameEvents.getVersion(gameId);
+		} else {
+			currentVersion = gameEvents.await(gameId, version,
+					UPDATE_TIMEOUT_MS);
+			if (currentVersion == version) {
+				GameUpdate update = new GameUpdate();
+				update.setVersion(currentVersion);
+				update.setModified(false);
+				return update;
+			}
+		}
+
+		List<UserScore> participants = scoreboards.getScores(game);
 		List<TagEntry> myEntries = tagEntryRepo.getEntries(
 				game.getId(), user.getId());
 		
 		GameUpdate update = new GameUpdate();
+		update.setVersion(currentVersion);
 		update.setOwnId(user.getId());
 
 		int gameScore = 0;
@@ -145,8 +187,7 @@ public class GameController {
 
 		List<UserSummary> summaries = new ArrayList<UserSummary>();
 		for (UserScore sgs : participants) {
-			User s = sgs.getUser();
-			summaries.add(new UserSummary(s.getId(), s.getName(), sgs.getScore(), s.getSmallAvatarUrl()));
+			summaries.add(new UserSummary(sgs.getUser(), sgs.getScore()));
 		}
 		Collections.sort(summaries, UserSummary.COMPARE_BY_GAME_SCORE);
 
@@ -188,9 +229,9 @@ public class GameController {
 		tagEntry.setGame(game);
 
 		if (game.acceptsNewTagEntryAt(tagEntry.getGameTime()) && tagEntry.getNormalizedTag().length() < 40) {
-			if (tagEntryRepo.alreadyEntered(tagEntry.getGame().getId(),
-					tagEntry.getNormalizedTag(), tagEntry.getGameTime(),
-					user.getId())) {
+			if (matchIndex.alreadyEntered(game.getVideo().getId(),
+					game.getId(), tagEntry.getNormalizedTag(),
+					tagEntry.getGameTime(), user.getId())) {
 				log.info(String
 						.format("Ignoring duplicate entry %s for game %d, user %d, time %d",
 								tagEntry.getNormalizedTag(), tagEntry.getGame()
@@ -243,11 +284,30 @@ public class GameController {
 					ownerId, request.getHeader("Referer")));
 			return "redirect:/";
 		} else {
+			if (owner.getCountNewPioneerMatches() > 0
+					&& isLastEndedGame(game, owner)) {
+				// The user finished a game, so the pioneer matches made since
+				// their previous game are no longer new.
+				userRepo.resetNewPioneerMatches(owner.getId());
+				owner.setCountNewPioneerMatches(0);
+			}
 			model.put("recap", recap);
 			return "recap";
 		}
 	}
 
+	/**
+	 * Checks whether <code>game</code> has ended and is the last game
+	 * <code>user</code> played, as opposed to e.g. a game in their history.
+	 */
+	private boolean isLastEndedGame(Game game, User user) {
+		if (!game.hasEnded()) {
+			return false;
+		}
+		List<GameScore> last = gameRepo.getRecentGames(user.getId(), 1);
+		return !last.isEmpty() && last.get(0).getGame().getId() == game.getId();
+	}
+
 	@RequestMapping("/error")
 	public void error() {
 		throw new RuntimeException();
@@ -20,7 +20,7 @@
 package nl.waisda.controllers;
 
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.PrintWriter;
 import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
@@ -48,6 +48,9 @@ public class HomeController {
 	
 	@Autowired
 	private VideoService videoService;
+
+	@Autowired
+	private ObjectMapper objectMapper;
 	
 	@RequestMapping(value = { "/", "/index.html" })
 	public String home(@RequestParam(defaultValue = "1", required = false) int page, ModelMap model, HttpSession session) {
@@ -63,10 +66,10 @@ public class HomeController {
 		res.setContentType("text/javascript");
 		
 		User currentUser = userSessionService.getCurrentUser(req.getSession());
-		ObjectMapper om = new ObjectMapper();
-		StringWriter sw = new StringWriter();
-		om.writeValue(sw, currentUser);
-		res.getWriter().write("var CurrentUser = " + sw.toString() + ";");
+		PrintWriter out = res.getWriter();
+		out.write("var CurrentUser = ");
+		objectMapper.writeValue(out, currentUser);
+		out.write(";");
 	}
 
 }
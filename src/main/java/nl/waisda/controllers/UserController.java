@@ -28,6 +28,7 @@ import nl.waisda.exceptions.NotFoundException;
 import nl.waisda.forms.ProfileForm;
 import nl.waisda.model.Profile;
 import nl.waisda.repositories.UserRepository;
+import nl.waisda.services.LeaderboardService;
 import nl.waisda.services.UserService;
 import nl.waisda.services.UserSessionService;
 import nl.waisda.validators.UberValidator;
@@ -59,6 +60,9 @@ public class UserController {
 	@Autowired
 	private UserSessionService userSessionService;
 
+	@Autowired
+	private LeaderboardService leaderboard;
+
 	@InitBinder
 	protected void initBinder(WebDataBinder binder) {
 		binder.setValidator(validator);
@@ -108,6 +112,7 @@ public class UserController {
 		else {
 			form.applyTo(currentUser);
 			userRepo.store(currentUser);
+			leaderboard.updateUser(currentUser);
 			return new ModelAndView("redirect:/profiel/" + form.getId());
 		}
 	}
@@ -12,6 +12,7 @@ import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
@@ -19,15 +20,16 @@ import java.util.Map;
 
 /**
  * Abstract base controller from which other concrete REST API controllers can inherit. It provides methods that perform
- * authorization, validation, to-string-serialization, and error handling.
+ * authorization, validation, JSON serialization, and error handling.
  */
 abstract public class AbstractAPIController {
 
-    private static final ObjectMapper MAPPER = new ObjectMapper();
-
     @Autowired
     private UserSessionService userSessionService;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
     /**
      * Checks if authenticated user is admin.
      * @throws AuthenticationException if user is not authenticated
@@ -65,12 +67,30 @@ abstract public class AbstractAPIController {
      */
     protected String serialize(Object object){
         try {
-            return MAPPER.writeValueAsString(object);
+            return objectMapper.writeValueAsString(object);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Serializes provided object as json directly to the response body, without building an intermediate string.
+     * @param response to write to
+     * @param object to be serialized
+     * @throws IOException if writing to the response fails
+     */
+    protected void write(HttpServletResponse response, Object object) throws IOException {
+        response.setContentType("application/json;charset=UTF-8");
+        objectMapper.writeValue(response.getOutputStream(), object);
+    }
+
+    /**
+     * @return the shared ObjectMapper, for controllers that stream their output
+     */
+    protected ObjectMapper getObjectMapper() {
+        return objectMapper;
+    }
+
 
     @ExceptionHandler(AuthenticationException.class)
     @ResponseStatus(HttpStatus.UNAUTHORIZED)
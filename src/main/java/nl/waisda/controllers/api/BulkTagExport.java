@@ -0,0 +1,206 @@
+package nl.waisda.controllers.api;
+
+import nl.waisda.domain.Video;
+import nl.waisda.repositories.TagEntryRepository;
+import org.apache.log4j.Logger;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports the tags of several videos as one response. The videos are divided over a number of workers running on a
+ * shared, bounded executor; each worker fetches the tags of one video at a time, a page at a time, and hands the
+ * pages to the request thread, which writes them out in the order they arrive. The pages of different videos are
+ * therefore interleaved: every line of the response is a JSON object with the fragmentID it belongs to, and either
+ * a page of its tags or, after the last page of a video, its continuation token.
+ * <p>
+ * At most a few pages per worker are held in memory; workers wait while the client is reading slower than the
+ * database delivers.
+ */
+final class BulkTagExport {
+
+    private static final Logger LOG = Logger.getLogger(BulkTagExport.class);
+
+    /** Pages that may be waiting to be written, per worker. */
+    private static final int PAGES_PER_WORKER = 2;
+
+    private final TagEntryRepository tagEntryRepository;
+    private final Date timestamp;
+    private final int pageSize;
+    private final ConcurrentLinkedQueue<Video> videos;
+    private final int workers;
+    private final BlockingQueue<Chunk> chunks;
+    private volatile boolean cancelled;
+
+    /**
+     * @param videos to export
+     * @param timestamp if not null, only tags entered at or after this time are exported
+     * @param parallelism maximum number of videos fetched at the same time
+     */
+    BulkTagExport(TagEntryRepository tagEntryRepository, Collection<Video> videos, Date timestamp, int pageSize,
+                  int parallelism) {
+        this.tagEntryRepository = tagEntryRepository;
+        this.timestamp = timestamp;
+        this.pageSize = pageSize;
+        this.videos = new ConcurrentLinkedQueue<Video>(videos);
+        this.workers = Math.max(1, Math.min(parallelism, videos.size()));
+        this.chunks = new ArrayBlockingQueue<Chunk>(workers * PAGES_PER_WORKER);
+    }
+
+    /**
+     * Runs the export, writing to the given writer until all videos are exported. If writing fails the workers are
+     * stopped.
+     * @param mapper used to write the tags
+     * @param writer to write to; not flushed or closed
+     * @throws IOException if writing fails
+     * @throws InterruptedException if interrupted while waiting for the workers
+     */
+    void run(Executor executor, ObjectMapper mapper, Writer writer) throws IOException, InterruptedException {
+        LineWriter lines = new LineWriter(mapper.getJsonFactory(), writer);
+        try {
+            int running = 0;
+            for (int i = 0; i < workers; i++) {
+                executor.execute(new Worker());
+                running++;
+            }
+            while (running > 0) {
+                Chunk chunk = chunks.take();
+                if (chunk == Chunk.WORKER_DONE) {
+                    running--;
+                } else {
+                    chunk.writeTo(mapper, lines);
+                }
+            }
+        } finally {
+            cancelled = true;
+            chunks.clear();
+        }
+    }
+
+    private void put(Chunk chunk) throws InterruptedException {
+        while (!cancelled && !chunks.offer(chunk, 1, TimeUnit.SECONDS)) {
+            // wait for the request thread to catch up, unless the export was cancelled
+        }
+    }
+
+    /**
+     * Tells the request thread a worker has finished. The request thread counts these, so unlike the other chunks
+     * this one is delivered even if the worker is interrupted.
+     */
+    private void putWorkerDone() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                put(Chunk.WORKER_DONE);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private final class Worker implements Runnable {
+
+        public void run() {
+            try {
+                Video video;
+                while (!cancelled && (video = videos.poll()) != null) {
+                    export(video);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                putWorkerDone();
+            }
+        }
+
+        private void export(Video video) throws InterruptedException {
+            ExportCursor cursor = null;
+            try {
+                boolean complete = false;
+                while (!complete && !cancelled) {
+                    List<Object[]> rows = tagEntryRepository.getExportPage(video.getId(), timestamp,
+                            cursor == null ? 0 : cursor.getId(), pageSize);
+                    if (!rows.isEmpty()) {
+                        List<TagDTO> tags = new ArrayList<TagDTO>(rows.size());
+                        for (Object[] row : rows)
+                            tags.add(TagDTO.fromRow(row));
+                        cursor = ExportCursor.after(rows.get(rows.size() - 1));
+                        put(Chunk.page(video.getFragmentID(), tags));
+                    }
+                    complete = rows.size() < pageSize;
+                }
+                put(Chunk.end(video.getFragmentID(), cursor == null ? null : cursor.toString()));
+            } catch (RuntimeException e) {
+                LOG.error(String.format("Bulk export of video %s failed", video.getFragmentID()), e);
+                put(Chunk.error(video.getFragmentID(), e.toString()));
+            }
+        }
+    }
+
+    /**
+     * One line of the response.
+     */
+    private static final class Chunk {
+
+        static final Chunk WORKER_DONE = new Chunk(null, null, null, null);
+
+        private final String fragmentID;
+        private final List<TagDTO> tags;
+        private final String continuation;
+        private final String error;
+
+        private Chunk(String fragmentID, List<TagDTO> tags, String continuation, String error) {
+            this.fragmentID = fragmentID;
+            this.tags = tags;
+            this.continuation = continuation;
+            this.error = error;
+        }
+
+        static Chunk page(String fragmentID, List<TagDTO> tags) {
+            return new Chunk(fragmentID, tags, null, null);
+        }
+
+        static Chunk end(String fragmentID, String continuation) {
+            return new Chunk(fragmentID, null, continuation, null);
+        }
+
+        static Chunk error(String fragmentID, String error) {
+            return new Chunk(fragmentID, null, null, error);
+        }
+
+        void writeTo(ObjectMapper mapper, LineWriter lines) throws IOException {
+            JsonGenerator generator = lines.begin();
+            generator.writeStartObject();
+            generator.writeStringField("fragmentID", fragmentID);
+            if (tags != null) {
+                generator.writeFieldName("tags");
+                generator.writeStartArray();
+                for (TagDTO tag : tags)
+                    mapper.writeValue(generator, tag);
+                generator.writeEndArray();
+            } else if (error != null) {
+                generator.writeStringField("error", error);
+            } else {
+                generator.writeStringField("continuation", continuation);
+                generator.writeBooleanField("complete", true);
+            }
+            generator.writeEndObject();
+            lines.end(generator);
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+package nl.waisda.controllers.api;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import nl.waisda.model.DictionaryIndex;
+import nl.waisda.services.DictionaryService;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+/**
+ * Controller for the in-memory copy of the dictionaries used to award dictionary points.
+ */
+@Controller
+public class DictionaryController extends AbstractAPIController {
+
+    @Autowired
+    private DictionaryService dictionaryService;
+
+    /**
+     * Returns the size and memory footprint of the loaded dictionaries. Only admin users can run this operation.
+     * @param response to which the JSON representation of the dictionary statistics is written
+     */
+    @RequestMapping(value = "/api/dictionaries", method = RequestMethod.GET)
+    public void dictionaries(HttpServletResponse response) throws IOException {
+        checkIfAdmin();
+        write(response, getStats(dictionaryService.getIndex()));
+    }
+
+    /**
+     * Reloads the dictionaries from the DictionaryEntry table, e.g. after importing a new dictionary. Only admin
+     * users can run this operation.
+     * @param response to which the JSON representation of the statistics of the reloaded dictionaries is written
+     */
+    @RequestMapping(value = "/api/dictionaries/reload", method = RequestMethod.POST)
+    public void reload(HttpServletResponse response) throws IOException {
+        checkIfAdmin();
+        write(response, getStats(dictionaryService.reload()));
+    }
+
+    private Map<String, Object> getStats(DictionaryIndex index) {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("dictionaries", index.getDictionaryNames());
+        stats.put("tags", index.size());
+        stats.put("bytes", index.getMemoryFootprint());
+        stats.put("lastLoadMs", dictionaryService.getLastLoadMs());
+        return stats;
+    }
+
+}
@@ -0,0 +1,49 @@
+package nl.waisda.controllers.api;
+
+/**
+ * Position in a tag export: the id of the last tag exported. Its string form is the continuation token handed to
+ * clients.
+ */
+final class ExportCursor {
+
+    private final int id;
+
+    private ExportCursor(int id) {
+        this.id = id;
+    }
+
+    /**
+     * @param row the last row exported, as returned by TagEntryRepository.getExportPage
+     * @return the cursor after that row
+     */
+    static ExportCursor after(Object[] row) {
+        return new ExportCursor(((Number) row[0]).intValue());
+    }
+
+    /**
+     * @return the cursor for the token, or null if there is no token or it is empty
+     * @throws IllegalArgumentException if the token is malformed
+     */
+    static ExportCursor parse(String token) {
+        if (token == null || token.isEmpty())
+            return null;
+        try {
+            int id = Integer.parseInt(token);
+            if (id >= 0)
+                return new ExportCursor(id);
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new IllegalArgumentException(String.format("Invalid continuation token %s", token));
+    }
+
+    int getId() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return Integer.toString(id);
+    }
+
+}
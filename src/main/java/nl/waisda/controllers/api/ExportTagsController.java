@@ -1,20 +1,31 @@
 package nl.waisda.controllers.api;
 
-import nl.waisda.domain.TagEntry;
 import nl.waisda.domain.Video;
 import nl.waisda.repositories.TagEntryRepository;
 import nl.waisda.repositories.VideoRepository;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Controller;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
-import org.springframework.web.bind.annotation.ResponseBody;
 
-import java.util.ArrayList;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPOutputStream;
 
 
 /**
@@ -23,37 +34,231 @@ import java.util.List;
 @Controller
 public class ExportTagsController extends AbstractAPIController {
 
+    /** Number of tags fetched from the database at a time while exporting. */
+    private static final int PAGE_SIZE = 1000;
+
+    private static final String JSON = "application/json;charset=UTF-8";
+
+    private static final String NDJSON = "application/x-ndjson;charset=UTF-8";
+
     @Autowired
     private VideoRepository videoRepository;
 
     @Autowired
     private TagEntryRepository tagEntryRepository;
 
+    @Autowired
+    private Executor exportExecutor;
+
+    @Value("${waisda.export.threads}")
+    private int exportThreads;
+
     /**
      * Using this method all tags for a specific video can be exported in JSON format. The data being exported can
      * be limited to tag entries after a certain timestamp, enabling efficient sync mechanisms. If a video with the
      * specified fragmentID does not exist IllegalArgumentException is thrown. Only admin users can run this operation.
+     * <p>
+     * The tags are read from the database a page at a time and written to the response as they are read, so the
+     * memory used does not depend on the number of tags of the video. The response is gzipped if the client accepts
+     * that.
+     * <p>
+     * An export becomes resumable when a limit or a continuation token (which may be empty to start) is passed.
+     * The response then also contains a continuation token, which can be passed on the next request to continue
+     * after the last tag returned, and whether the export is complete. Tags are exported in id order, which is
+     * close to but not exactly the order in which they were entered: a tag stored after a token was issued may have
+     * a lower id than the token, so the token is not a way to fetch the tags entered since. Use timestamp for that.
      * @param fragmentID of the video
      * @param timestamp (optional). All tags entered after the timestamp are returned. If this parameter is null all
      *                  tags entered for the video are returned.
-     * @return JSON string representation of the list of TagDTO objects ordered by creation time in ascending order.
+     * @param format json (default) for a JSON array, or ndjson for one JSON object per line
+     * @param continuation (optional) token returned by a previous resumable export
+     * @param limit (optional) maximum number of tags to return
+     * @param response to which the tags are written, as TagDTO objects ordered by id in ascending order.
+     *                 A resumable json export is an object with the array as "tags" and the fields "continuation"
+     *                 and "complete"; a resumable ndjson export ends with a line holding those two fields.
      */
     @RequestMapping(value = "/api/videos/tags/export", method = RequestMethod.GET)
-    @Transactional
-    @ResponseBody
-    public String export(@RequestParam() String fragmentID, @RequestParam(required = false) Long timestamp){
+    public void export(@RequestParam() String fragmentID, @RequestParam(required = false) Long timestamp,
+                       @RequestParam(defaultValue = "json") String format,
+                       @RequestParam(required = false) String continuation,
+                       @RequestParam(required = false) Integer limit,
+                       HttpServletRequest request, HttpServletResponse response) throws IOException {
         checkIfAdmin();
+        boolean ndjson;
+        if ("ndjson".equals(format))
+            ndjson = true;
+        else if ("json".equals(format))
+            ndjson = false;
+        else
+            throw new IllegalArgumentException(String.format("Unknown format %s", format));
+        if(limit != null && limit <= 0)
+            throw new IllegalArgumentException("limit must be positive");
+        boolean resumable = continuation != null || limit != null;
+        ExportCursor cursor = ExportCursor.parse(continuation);
         Date timestampDate = timestamp == null? null: new Date(timestamp);
         Video video = videoRepository.findByFragmentID(fragmentID);
         if(video == null)
             throw new IllegalArgumentException(String.format("Video with fragmentID %s does not exist", fragmentID));
-        List<TagEntry> tagEntries = tagEntryRepository.getTagsForVideoEnteredAfter(video.getId(), timestampDate);
-        List<TagDTO> tagDTOs = new ArrayList<TagDTO>(tagEntries.size());
-        for(TagEntry tagEntry: tagEntries)
-            tagDTOs.add(TagDTO.from(tagEntry));
-        return serialize(tagDTOs);
+
+        Writer writer = openWriter(request, response, ndjson ? NDJSON : JSON);
+        TagWriter tags = ndjson ? new NdjsonTagWriter(getObjectMapper(), writer)
+                : new JsonTagWriter(getObjectMapper(), writer, resumable);
+
+        int remaining = limit == null ? Integer.MAX_VALUE : limit;
+        boolean complete = false;
+        while (!complete && remaining > 0) {
+            int pageSize = Math.min(PAGE_SIZE, remaining);
+            List<Object[]> rows = tagEntryRepository.getExportPage(video.getId(), timestampDate,
+                    cursor == null ? 0 : cursor.getId(), pageSize);
+            for (Object[] row : rows)
+                tags.write(TagDTO.fromRow(row));
+            if (!rows.isEmpty()) {
+                cursor = ExportCursor.after(rows.get(rows.size() - 1));
+            }
+            remaining -= rows.size();
+            complete = rows.size() < pageSize;
+        }
+
+        if (resumable)
+            tags.finish(cursor == null ? continuation : cursor.toString(), complete);
+        else
+            tags.finish();
+        writer.close();
     }
 
+    /**
+     * Exports the tags of several videos in one response, either those of the given videos or those of all videos
+     * tagged since the given timestamp. The videos are fetched in parallel, on at most waisda.export.threads
+     * threads shared by all bulk exports. The response is NDJSON (gzipped if the client accepts that) in which the
+     * videos are interleaved: every line is an object with a fragmentID and either "tags", a page of TagDTO objects
+     * in id order, or, after the last page of that video, its "continuation" token for
+     * /api/videos/tags/export and "complete": true. If exporting a video fails, its last line has an "error"
+     * instead. Only admin users can run this operation.
+     * @param fragmentID (optional) fragmentIDs of the videos; all videos tagged since timestamp if omitted
+     * @param timestamp (optional if fragmentID is given). Only tags entered after the timestamp are returned.
+     * @param response to which the tags are written
+     */
+    @RequestMapping(value = "/api/videos/tags/export/bulk", method = { RequestMethod.GET, RequestMethod.POST })
+    public void exportBulk(@RequestParam(required = false) String[] fragmentID,
+                           @RequestParam(required = false) Long timestamp,
+                           HttpServletRequest request, HttpServletResponse response)
+            throws IOException, InterruptedException {
+        checkIfAdmin();
+        Date timestampDate = timestamp == null? null: new Date(timestamp);
+        Collection<Video> videos;
+        if (fragmentID != null && fragmentID.length > 0) {
+            Map<String, Video> byFragmentID = new LinkedHashMap<String, Video>();
+            for (String id : fragmentID) {
+                Video video = videoRepository.findByFragmentID(id);
+                if(video == null)
+                    throw new IllegalArgumentException(String.format("Video with fragmentID %s does not exist", id));
+                byFragmentID.put(id, video);
+            }
+            videos = byFragmentID.values();
+        } else if (timestampDate != null) {
+            videos = tagEntryRepository.getVideosTaggedSince(timestampDate);
+        } else {
+            throw new IllegalArgumentException("Either fragmentID or timestamp is required");
+        }
+
+        Writer writer = openWriter(request, response, NDJSON);
+        new BulkTagExport(tagEntryRepository, videos, timestampDate, PAGE_SIZE, exportThreads)
+                .run(exportExecutor, getObjectMapper(), writer);
+        writer.close();
+    }
+
+    /**
+     * Prepares the response for streaming, gzipped if the client accepts that.
+     * @return buffered writer for the response body; must be closed to finish the response
+     */
+    private static Writer openWriter(HttpServletRequest request, HttpServletResponse response, String contentType)
+            throws IOException {
+        response.setContentType(contentType);
+        response.setHeader("Vary", "Accept-Encoding");
+        OutputStream out = response.getOutputStream();
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            response.setHeader("Content-Encoding", "gzip");
+            out = new GZIPOutputStream(out, 8192);
+        }
+        return new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), 8192);
+    }
+
+    private interface TagWriter {
+
+        void write(TagDTO tag) throws IOException;
 
+        void finish() throws IOException;
+
+        void finish(String continuation, boolean complete) throws IOException;
+    }
+
+    /**
+     * Writes the tags as a JSON array, wrapped in an object with the continuation token if the export is resumable.
+     */
+    private static final class JsonTagWriter implements TagWriter {
+
+        private final ObjectMapper mapper;
+        private final JsonGenerator generator;
+
+        JsonTagWriter(ObjectMapper mapper, Writer writer, boolean resumable) throws IOException {
+            this.mapper = mapper;
+            generator = mapper.getJsonFactory().createJsonGenerator(new NonFlushingWriter(writer));
+            if (resumable) {
+                generator.writeStartObject();
+                generator.writeFieldName("tags");
+            }
+            generator.writeStartArray();
+        }
+
+        public void write(TagDTO tag) throws IOException {
+            mapper.writeValue(generator, tag);
+        }
+
+        public void finish() throws IOException {
+            generator.writeEndArray();
+            generator.close();
+        }
+
+        public void finish(String continuation, boolean complete) throws IOException {
+            generator.writeEndArray();
+            generator.writeStringField("continuation", continuation);
+            generator.writeBooleanField("complete", complete);
+            generator.writeEndObject();
+            generator.close();
+        }
+    }
+
+    /**
+     * Writes each tag as a JSON object on a line of its own.
+     */
+    private static final class NdjsonTagWriter implements TagWriter {
+
+        private final ObjectMapper mapper;
+        private final LineWriter lines;
+
+        NdjsonTagWriter(ObjectMapper mapper, Writer writer) {
+            this.mapper = mapper;
+            this.lines = new LineWriter(mapper.getJsonFactory(), writer);
+        }
+
+        public void write(TagDTO tag) throws IOException {
+            JsonGenerator generator = lines.begin();
+            mapper.writeValue(generator, tag);
+            lines.end(generator);
+        }
+
+        public void finish() {
+        }
+
+        public void finish(String continuation, boolean complete) throws IOException {
+            JsonGenerator generator = lines.begin();
+            generator.writeStartObject();
+            generator.writeStringField("continuation", continuation);
+            generator.writeBooleanField("complete", complete);
+            generator.writeEndObject();
+            lines.end(generator);
+        }
+    }
 
 }
@@ -0,0 +1,43 @@
+package nl.waisda.controllers.api;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes JSON values one per line (NDJSON). A JsonGenerator separates consecutive root values with a space, so every
+ * line gets a generator of its own; these write into the shared buffered writer without flushing it.
+ */
+final class LineWriter {
+
+    private final JsonFactory factory;
+    private final Writer writer;
+    private final Writer lineWriter;
+
+    LineWriter(JsonFactory factory, Writer writer) {
+        this.factory = factory;
+        this.writer = writer;
+        this.lineWriter = new NonFlushingWriter(writer);
+    }
+
+    /**
+     * @return a generator for the next line
+     * @throws IOException if creating the generator fails
+     */
+    JsonGenerator begin() throws IOException {
+        return factory.createJsonGenerator(lineWriter);
+    }
+
+    /**
+     * Ends the line written with the generator returned by {@link #begin()}.
+     * @param generator of the line
+     * @throws IOException if writing fails
+     */
+    void end(JsonGenerator generator) throws IOException {
+        generator.close();
+        writer.write('\n');
+    }
+
+}
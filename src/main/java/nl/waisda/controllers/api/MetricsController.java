@@ -0,0 +1,31 @@
+package nl.waisda.controllers.api;
+
+import nl.waisda.services.MetricsService;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+/**
+ * Controller that exposes the internal counters and gauges of the application for monitoring.
+ */
+@Controller
+public class MetricsController extends AbstractAPIController {
+
+    @Autowired
+    private MetricsService metricsService;
+
+    /**
+     * Returns the current value of all metrics as a JSON object, keyed by metric name. Only admin users can run
+     * this operation.
+     * @param response to which the JSON representation of the metrics is written
+     */
+    @RequestMapping(value = "/api/metrics", method = RequestMethod.GET)
+    public void metrics(HttpServletResponse response) throws IOException {
+        checkIfAdmin();
+        write(response, metricsService.getMetrics());
+    }
+
+}
@@ -0,0 +1,25 @@
+package nl.waisda.controllers.api;
+
+import java.io.FilterWriter;
+import java.io.Writer;
+
+/**
+ * Writer that passes writes on but ignores flush and close. The ObjectMapper flushes its generator after every value
+ * and closing a generator closes its target; generators writing into a streamed export go through this, so the
+ * response is only flushed when its buffer fills up and is closed by the controller.
+ */
+final class NonFlushingWriter extends FilterWriter {
+
+    NonFlushingWriter(Writer writer) {
+        super(writer);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+}
@@ -28,6 +28,14 @@ final class TagDTO {
         return new TagDTO(tagEntry.getTag(), tagEntry.getGameTime(), tagEntry.getId(), tagEntry.getOwner().getId());
     }
 
+    /**
+     * @param row [id, tag, gameTime, owner id, ...] as returned by TagEntryRepository.getExportPage
+     */
+    public static TagDTO fromRow(Object[] row){
+        return new TagDTO((String) row[1], ((Number) row[2]).longValue(), ((Number) row[0]).longValue(),
+                ((Number) row[3]).longValue());
+    }
+
     public String getTag() {
         return tag;
     }
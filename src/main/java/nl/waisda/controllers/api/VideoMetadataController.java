@@ -2,6 +2,7 @@ package nl.waisda.controllers.api;
 
 import nl.waisda.domain.Video;
 import nl.waisda.repositories.VideoRepository;
+import nl.waisda.services.VideoCatalog;
 import nl.waisda.validators.VideoValidator;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
@@ -23,6 +24,9 @@ public class VideoMetadataController extends AbstractAPIController {
     @Autowired
     private VideoRepository videoRepository;
 
+    @Autowired
+    private VideoCatalog videoCatalog;
+
     /**
      * Adds video in the system. There should not be a video with the same fragmentID present already. Otherwise,
      * IllegalArgumentException is thrown. Only admin users can execute this operation.
@@ -38,6 +42,7 @@ public class VideoMetadataController extends AbstractAPIController {
             throw new IllegalArgumentException(String.format("Video with fragmentID %s already exists",
                     video.getFragmentID()));
         videoRepository.store(video);
+        videoCatalog.update(video);
     }
 
     /**
@@ -57,6 +62,7 @@ public class VideoMetadataController extends AbstractAPIController {
         Video persisted = videoRepository.findByFragmentID(video.getFragmentID());
         video.setId(persisted.getId());
         videoRepository.store(video);
+        videoCatalog.update(video);
     }
 
     /**
@@ -75,6 +81,7 @@ public class VideoMetadataController extends AbstractAPIController {
                     command.getFragmentID()));
         video.setEnabled(command.isEnabled());
         videoRepository.store(video);
+        videoCatalog.update(video);
     }
 
 }
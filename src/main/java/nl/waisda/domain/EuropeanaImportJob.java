@@ -0,0 +1,187 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package nl.waisda.domain;
+
+import java.util.Date;
+
+import javax.persistence.Basic;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+
+/**
+ * A run of the Europeana importer for a search query. The job is checkpointed
+ * after every page of search results, so an import that was stopped or
+ * interrupted resumes at the first page it had not finished.
+ */
+@Entity
+public class EuropeanaImportJob {
+
+	public enum Status {
+		RUNNING, STOPPED, FAILED, FINISHED
+	}
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO)
+	private int id;
+
+	@Basic(optional = false)
+	@Column(length = 1024)
+	private String searchQuery;
+
+	@Basic(optional = false)
+	@Enumerated(EnumType.STRING)
+	@Column(length = 16)
+	private Status status;
+
+	/** Index of the first search result not processed yet. */
+	@Basic(optional = false)
+	private int nextStart;
+
+	@Basic(optional = false)
+	private int totalResults;
+
+	@Basic(optional = false)
+	private int countImported;
+
+	@Basic(optional = false)
+	private int countUpdated;
+
+	@Basic(optional = false)
+	private int countUnchanged;
+
+	@Basic(optional = false)
+	private int countFailed;
+
+	@Basic(optional = false)
+	private Date creationDate;
+
+	@Basic(optional = false)
+	private Date checkpointDate;
+
+	public EuropeanaImportJob() {
+
+	}
+
+	public EuropeanaImportJob(String searchQuery) {
+		this.searchQuery = searchQuery;
+		this.status = Status.RUNNING;
+		this.creationDate = new Date();
+		this.checkpointDate = creationDate;
+	}
+
+	/** Counts the outcome of importing a record. */
+	public void count(EuropeanaImportRecord.Outcome outcome) {
+		switch (outcome) {
+		case IMPORTED:
+			countImported++;
+			break;
+		case UPDATED:
+			countUpdated++;
+			break;
+		case UNCHANGED:
+			countUnchanged++;
+			break;
+		default:
+			countFailed++;
+		}
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public void setId(int id) {
+		this.id = id;
+	}
+
+	public String getSearchQuery() {
+		return searchQuery;
+	}
+
+	public void setSearchQuery(String searchQuery) {
+		this.searchQuery = searchQuery;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		this.status = status;
+	}
+
+	public int getNextStart() {
+		return nextStart;
+	}
+
+	public void setNextStart(int nextStart) {
+		this.nextStart = nextStart;
+	}
+
+	public int getTotalResults() {
+		return totalResults;
+	}
+
+	public void setTotalResults(int totalResults) {
+		this.totalResults = totalResults;
+	}
+
+	public int getCountImported() {
+		return countImported;
+	}
+
+	public int getCountUpdated() {
+		return countUpdated;
+	}
+
+	public int getCountUnchanged() {
+		return countUnchanged;
+	}
+
+	public int getCountFailed() {
+		return countFailed;
+	}
+
+	public Date getCreationDate() {
+		return creationDate;
+	}
+
+	public Date getCheckpointDate() {
+		return checkpointDate;
+	}
+
+	public void setCheckpointDate(Date checkpointDate) {
+		this.checkpointDate = checkpointDate;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%s at %d of %d (imported %d, updated %d, unchanged %d, failed %d)",
+				status, nextStart, totalResults, countImported, countUpdated,
+				countUnchanged, countFailed);
+	}
+
+}
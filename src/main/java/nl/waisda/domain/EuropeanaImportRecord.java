@@ -0,0 +1,152 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package nl.waisda.domain;
+
+import java.util.Date;
+
+import javax.persistence.Basic;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+
+/**
+ * The outcome of the last import of a Europeana record, with a hash of the
+ * search result it was imported from. A later import skips records whose
+ * search result has not changed since they were stored.
+ */
+@Entity
+public class EuropeanaImportRecord {
+
+	public enum Outcome {
+		IMPORTED, UPDATED, UNCHANGED, SKIPPED, FAILED;
+
+		/** Whether the record is stored as a video. */
+		public boolean isStored() {
+			return this == IMPORTED || this == UPDATED || this == UNCHANGED;
+		}
+	}
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.AUTO)
+	private int id;
+
+	/** The id of the record at Europeana. */
+	@Basic(optional = false)
+	@Column(unique = true, length = 255)
+	private String europeanaId;
+
+	@Basic(optional = false)
+	@Column(length = 32)
+	private String contentHash;
+
+	@Basic(optional = false)
+	@Enumerated(EnumType.STRING)
+	@Column(length = 16)
+	private Outcome outcome;
+
+	@Basic(optional = true)
+	@Column(length = 1024)
+	private String message;
+
+	/** The video the record was stored as, or 0. */
+	@Basic(optional = false)
+	private int videoId;
+
+	/** The job that last imported the record. */
+	@Basic(optional = false)
+	private int jobId;
+
+	@Basic(optional = false)
+	private Date importDate;
+
+	public EuropeanaImportRecord() {
+
+	}
+
+	public EuropeanaImportRecord(String europeanaId) {
+		this.europeanaId = europeanaId;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public void setId(int id) {
+		this.id = id;
+	}
+
+	public String getEuropeanaId() {
+		return europeanaId;
+	}
+
+	public String getContentHash() {
+		return contentHash;
+	}
+
+	public void setContentHash(String contentHash) {
+		this.contentHash = contentHash;
+	}
+
+	public Outcome getOutcome() {
+		return outcome;
+	}
+
+	public void setOutcome(Outcome outcome) {
+		this.outcome = outcome;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message != null && message.length() > 1024 ? message
+				.substring(0, 1024) : message;
+	}
+
+	public int getVideoId() {
+		return videoId;
+	}
+
+	public void setVideoId(int videoId) {
+		this.videoId = videoId;
+	}
+
+	public int getJobId() {
+		return jobId;
+	}
+
+	public void setJobId(int jobId) {
+		this.jobId = jobId;
+	}
+
+	public Date getImportDate() {
+		return importDate;
+	}
+
+	public void setImportDate(Date importDate) {
+		this.importDate = importDate;
+	}
+
+}
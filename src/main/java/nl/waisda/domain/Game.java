@@ -30,6 +30,8 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
 
 import nl.waisda.model.Util;
 
@@ -37,6 +39,8 @@ import org.codehaus.jackson.annotate.JsonIgnore;
 
 
 @Entity
+@Table(uniqueConstraints = @UniqueConstraint(columnNames = { "video_id",
+		"queueSlot" }))
 public class Game {
 	
 	/** Time taken to give other players a chance to join the game. */
@@ -63,6 +67,14 @@ public class Game {
 
 	@Basic(optional = false)
 	private int countExistingVideoTags;
+
+	/**
+	 * Start time in units of QUEUE_TIME_MS. Unique per video, so nodes that
+	 * concurrently create a game for the same video can't both succeed. Null
+	 * for games created before it was introduced.
+	 */
+	@Basic(optional = true)
+	private Long queueSlot;
 	
 	/*
 	 * Business logic
@@ -113,6 +125,11 @@ public class Game {
 		return Character.toUpperCase(s.charAt(0)) + s.substring(1);
 	}
 
+	/** Returns the queue slot of a game starting at <code>start</code>. */
+	public static long queueSlotOf(Date start) {
+		return start.getTime() / QUEUE_TIME_MS;
+	}
+
 	public Date getEnd() {
 		Calendar c = Calendar.getInstance();
 		c.setTime(getStart());
@@ -170,4 +187,13 @@ public class Game {
 		this.countExistingVideoTags = countExistingVideoTags;
 	}
 
+	@JsonIgnore
+	public Long getQueueSlot() {
+		return queueSlot;
+	}
+
+	public void setQueueSlot(Long queueSlot) {
+		this.queueSlot = queueSlot;
+	}
+
 }
\ No newline at end of file
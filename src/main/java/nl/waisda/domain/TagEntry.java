@@ -42,6 +42,21 @@ public class TagEntry implements Serializable {
 	public static final DateFormat DATE_FORMAT = new SimpleDateFormat(
 			"EEEE d MMMM yyyy", Util.DUTCH_LOCALE);
 
+	/** Characters below this have their folded form in FOLD. */
+	private static final int FOLD_TABLE_SIZE = 0x2000;
+
+	/**
+	 * The folded form of each character below FOLD_TABLE_SIZE: lowercased
+	 * without diacritics, or 0 if it is not a letter or digit.
+	 */
+	private static final char[] FOLD = new char[FOLD_TABLE_SIZE];
+
+	static {
+		for (int c = 0; c < FOLD_TABLE_SIZE; c++) {
+			FOLD[c] = foldSlow((char) c);
+		}
+	}
+
 	@Id
 	@GeneratedValue(strategy = GenerationType.AUTO)
 	private int id;
@@ -117,25 +132,36 @@ public class TagEntry implements Serializable {
 
 	/** Recomputes the score from the current match and bonus fields. */
 	public int recomputeScore() {
-		if (tag.length() < 2) {
+		return computeScore(tag.length(), dictionary != null,
+				matchingTagEntry != null, matchingTagEntry != null
+						&& matchingTagEntry.getOwner().getId() == getOwner().getId(),
+				pioneer);
+	}
+
+	/**
+	 * Computes the score of a tag entry from its match and bonus fields. Also
+	 * used to score entries the score engine only has in memory.
+	 */
+	public static int computeScore(int tagLength, boolean inDictionary,
+			boolean hasMatch, boolean matchIsOwn, boolean pioneer) {
+		if (tagLength < 2) {
 			return 0;
 		}
 
-		if (matchingTagEntry != null
-				&& matchingTagEntry.getOwner().getId() == getOwner().getId()) {
+		if (matchIsOwn) {
 			// Literal matches with owner's own tags award no points. Return immediately.
 			return 0;
 		}
 
 		int score = 0;
 
-		if (dictionary != null) {
+		if (inDictionary) {
 			// Matches with a dictionary award 25 points. If you'd like the
 			// score to depend on the specific dictionary, you can do that here.
 			score += 25;
 		}
 
-		if (matchingTagEntry != null) {
+		if (hasMatch) {
 			score += 50;
 
 			if (pioneer) {
@@ -162,18 +188,62 @@ public class TagEntry implements Serializable {
 				|| matchingTagEntry.getOwner().getId() != getOwner().getId();
 	}
 
+	/**
+	 * Normalizes a tag: lowercases it and removes parenthesized parts,
+	 * diacritics and everything that is not a letter or digit. E.g.
+	 * "Laren (Gelderland)" becomes "laren" and "Curaçao" becomes "curacao".
+	 * Returns <code>name</code> itself if it is normalized already.
+	 */
 	public static String normalize(String name) {
-		name = name.toLowerCase();
-
-		// Remove parenthesized parts
-		// E.g. Laren (Gelderland) -> Laren
-		name = name.replaceAll("\\([^\\)]*\\)", "");
+		int length = name.length();
+		char[] normalized = null;
+		int n = 0;
+		boolean closingParenthesis = true;
+		for (int i = 0; i < length; i++) {
+			char c = name.charAt(i);
+			char folded = fold(c);
+			int skipTo = i;
+			if (c == '(' && closingParenthesis) {
+				// Remove parenthesized parts, up to the first closing one.
+				skipTo = name.indexOf(')', i + 1);
+				closingParenthesis = skipTo >= 0;
+			}
+			if (normalized == null) {
+				if (folded == c && c != 0 && skipTo == i) {
+					n++;
+					continue;
+				}
+				normalized = new char[length];
+				name.getChars(0, n, normalized, 0);
+			}
+			if (skipTo > i) {
+				i = skipTo;
+			} else if (folded != 0) {
+				normalized[n++] = folded;
+			}
+		}
+		return normalized == null ? name : new String(normalized, 0, n);
+	}
 
-		// Remove diacritics.
-		name = Normalizer.normalize(name, Normalizer.Form.NFD).replaceAll(
-				"[^a-z0-9]+", "");
+	private static char fold(char c) {
+		return c < FOLD_TABLE_SIZE ? FOLD[c] : foldSlow(c);
+	}
 
-		return name;
+	/**
+	 * Lowercases and decomposes a single character and returns the letter or
+	 * digit in [a-z0-9] it contains, or 0 if there is none. No character
+	 * decomposes into more than one of these.
+	 */
+	private static char foldSlow(char c) {
+		String decomposed = Normalizer.normalize(String.valueOf(c)
+				.toLowerCase(), Normalizer.Form.NFD);
+		for (int i = 0; i < decomposed.length(); i++) {
+			char d = decomposed.charAt(i);
+			if ((d >= 'a' && d <= 'z') || (d >= '0' && d <= '9')) {
+				return d;
+			}
+		}
+		return 0;
 	}
 
 	public void setNormalizedTag() {
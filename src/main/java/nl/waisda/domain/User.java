@@ -19,10 +19,6 @@
 
 package nl.waisda.domain;
 
-import java.io.UnsupportedEncodingException;
-import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
@@ -40,7 +36,6 @@ import javax.persistence.Transient;
 
 import nl.waisda.model.Util;
 
-import org.hibernate.annotations.Formula;
 import org.jasypt.util.password.StrongPasswordEncryptor;
 
 @Entity
@@ -58,6 +53,20 @@ public class User implements Comparable<User> {
 	@GeneratedValue(strategy = GenerationType.AUTO)
 	private int id;
 
+	/**
+	 * Memoized Gravatar hash, together with the email reference and id it was
+	 * computed from. Hibernate assigns fields directly (also on merge), so the
+	 * cache is validated against its inputs instead of relying on the setters.
+	 */
+	@Transient
+	private transient String gravatarHash;
+
+	@Transient
+	private transient String gravatarHashEmail;
+
+	@Transient
+	private transient int gravatarHashId;
+
 	/**
 	 * No email address means a user is anonymous. Anonymous users cannot login
 	 * explicitly, but they can participate in games. When they later
@@ -98,16 +107,23 @@ public class User implements Comparable<User> {
     private Boolean isAdmin;
 	// Afgeleide data
 
-	@Formula("IFNULL((SELECT SUM(te.score) FROM TagEntry te WHERE te.owner_id = id), 0)")
+	// Maintained by UserRepository.addTotals as tag entries are scored; never
+	// written when a user is stored, so a merge can't overwrite them.
+
+	@Column(nullable = false, updatable = false)
 	private int totalScore;
 
-	@Formula("(SELECT COUNT(*) FROM TagEntry te WHERE te.owner_id = id)")
+	@Column(nullable = false, updatable = false)
 	private int totalTags;
 
-	@Formula("(SELECT COUNT(*) FROM TagEntry te WHERE te.owner_id = id AND te.matchingTagEntry_id IS NOT NULL)")
+	@Column(nullable = false, updatable = false)
 	private int totalMatches;
 
-	@Transient
+	/**
+	 * Number of the user's pioneer tags that were matched by other players
+	 * since the user last finished a game.
+	 */
+	@Column(nullable = false, updatable = false)
 	private int countNewPioneerMatches;
 
 	/* Logic */
@@ -184,12 +200,27 @@ public class User implements Comparable<User> {
 	}
 
 	public String getGravatarUrl(String email, int size) {
-		return String.format(
-				"http://www.gravatar.com/avatar/%s?s=%d&d=identicon",
-				getGravatarHash(), size);
+		return "http://www.gravatar.com/avatar/" + getGravatarHash() + "?s="
+				+ size + "&d=identicon";
 	}
 
-	private String getGravatarHash() {
+	/**
+	 * Returns the MD5 hash Gravatar uses to identify this user's avatar. The
+	 * hash is computed once and recomputed only after the email address (or,
+	 * for anonymous users, the id) has changed.
+	 */
+	public String getGravatarHash() {
+		String hash = gravatarHash;
+		if (hash == null || gravatarHashEmail != email || gravatarHashId != id) {
+			hash = computeGravatarHash();
+			gravatarHashEmail = email;
+			gravatarHashId = id;
+			gravatarHash = hash;
+		}
+		return hash;
+	}
+
+	private String computeGravatarHash() {
 		String input = email;
 		if (input != null) {
 			input = input.trim().toLowerCase();
@@ -197,17 +228,7 @@ public class User implements Comparable<User> {
 		if (input == null || input.isEmpty()) {
 			input = String.valueOf(id);
 		}
-		try {
-			final String charset = "UTF-8";
-			byte[] emailBytes = input.getBytes(charset);
-			byte[] digest = MessageDigest.getInstance("MD5").digest(emailBytes);
-			BigInteger bigInt = new BigInteger(1, digest);
-			return bigInt.toString(16);
-		} catch (UnsupportedEncodingException e) {
-			return "";
-		} catch (NoSuchAlgorithmException e) {
-			return "";
-		}
+		return Util.md5Hex(input);
 	}
 
 	public Date getDateOfBirth() {
@@ -38,6 +38,10 @@ public class UserSummary {
 		this.smallAvatarUrl = smallAvatarUrl;
 	}
 
+	public UserSummary(User user, int gameScore) {
+		this(user.getId(), user.getName(), gameScore, user.getSmallAvatarUrl());
+	}
+
 	public int getId() {
 		return id;
 	}
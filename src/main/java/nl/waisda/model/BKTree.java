@@ -0,0 +1,131 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package nl.waisda.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Burkhard-Keller tree of words under the edit distance, for finding all
+ * words within a small distance of a query without comparing the query to
+ * every word. Not thread safe.
+ */
+public class BKTree {
+
+	private static class Node {
+
+		final String word;
+
+		/** Children by their distance to word; null entries for none. */
+		Node[] children;
+
+		Node(String word) {
+			this.word = word;
+		}
+
+		Node getChild(int distance) {
+			return children != null && distance < children.length ? children[distance]
+					: null;
+		}
+
+		void setChild(int distance, Node child) {
+			if (children == null || distance >= children.length) {
+				Node[] grown = new Node[Math.max(distance + 1, 4)];
+				if (children != null) {
+					System.arraycopy(children, 0, grown, 0, children.length);
+				}
+				children = grown;
+			}
+			children[distance] = child;
+		}
+
+		int getMaxChildDistance() {
+			return children == null ? 0 : children.length - 1;
+		}
+	}
+
+	private Node root;
+
+	private int size;
+
+	/** Adds a word; returns false if the tree already contains it. */
+	public boolean add(String word) {
+		if (root == null) {
+			root = new Node(word);
+			size++;
+			return true;
+		}
+		Node node = root;
+		while (true) {
+			int distance = Levenshtein.distance(word, node.word);
+			if (distance == 0) {
+				return false;
+			}
+			Node child = node.getChild(distance);
+			if (child == null) {
+				node.setChild(distance, new Node(word));
+				size++;
+				return true;
+			}
+			node = child;
+		}
+	}
+
+	/**
+	 * Returns all words within <code>maxDistance</code> edits of
+	 * <code>query</code>, including the query itself if the tree contains it.
+	 */
+	public List<String> search(String query, int maxDistance) {
+		List<String> res = new ArrayList<String>();
+		if (root == null) {
+			return res;
+		}
+		List<Node> pending = new ArrayList<Node>();
+		pending.add(root);
+		while (!pending.isEmpty()) {
+			Node node = pending.remove(pending.size() - 1);
+			// By the triangle inequality only children at a distance within
+			// maxDistance of the query's distance can contain matches, so the
+			// exact distance is only needed up to the farthest child.
+			int limit = node.getMaxChildDistance() + maxDistance;
+			int distance = Levenshtein.distance(query, node.word, Math.max(
+					limit, maxDistance));
+			if (distance <= maxDistance) {
+				res.add(node.word);
+			}
+			int lo = Math.max(1, distance - maxDistance);
+			int hi = Math.min(node.getMaxChildDistance(), distance
+					+ maxDistance);
+			for (int d = lo; d <= hi; d++) {
+				Node child = node.getChild(d);
+				if (child != null) {
+					pending.add(child);
+				}
+			}
+		}
+		return res;
+	}
+
+	public int size() {
+		return size;
+	}
+
+}
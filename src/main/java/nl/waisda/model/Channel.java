@@ -24,11 +24,13 @@ import nl.waisda.domain.Video;
 public class Channel {
 
 	private Video video;
+	private int timesPlayed;
 	private int highscore;
 
-	public Channel(Video video, int highscore) {
+	public Channel(Video video, int timesPlayed, int highscore) {
 		super();
 		this.video = video;
+		this.timesPlayed = timesPlayed;
 		this.highscore = highscore;
 	}
 
@@ -36,6 +38,10 @@ public class Channel {
 		return video;
 	}
 
+	public int getTimesPlayed() {
+		return timesPlayed;
+	}
+
 	public int getHighscore() {
 		return highscore;
 	}
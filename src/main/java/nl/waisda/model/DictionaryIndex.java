@@ -0,0 +1,193 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package nl.waisda.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Immutable lookup table from normalized tags to the dictionaries containing
+ * them. The tags are stored sorted and back to back in a single char array, so
+ * a lookup is a binary search without any object per tag; each tag has a
+ * bitset of its dictionaries. At most {@link #MAX_DICTIONARIES} dictionaries
+ * are supported.
+ */
+public class DictionaryIndex {
+
+	public static final int MAX_DICTIONARIES = 64;
+
+	public static final DictionaryIndex EMPTY = new Builder().build();
+
+	/** Dictionary names, sorted; bit i of a bitset stands for name i. */
+	private final String[] dictionaries;
+
+	/** All tags, sorted, back to back. */
+	private final char[] chars;
+
+	/** Tag i is chars[offsets[i]] up to chars[offsets[i + 1]]. */
+	private final int[] offsets;
+
+	/** Dictionaries of tag i. */
+	private final long[] bitsets;
+
+	/** Collects (tag, dictionary) pairs in any order. */
+	public static class Builder {
+
+		private final TreeMap<String, TreeSet<String>> entries = new TreeMap<String, TreeSet<String>>();
+
+		private final TreeSet<String> dictionaries = new TreeSet<String>();
+
+		public Builder add(String normalizedTag, String dictionary) {
+			TreeSet<String> tagDictionaries = entries.get(normalizedTag);
+			if (tagDictionaries == null) {
+				tagDictionaries = new TreeSet<String>();
+				entries.put(normalizedTag, tagDictionaries);
+			}
+			tagDictionaries.add(dictionary);
+			dictionaries.add(dictionary);
+			return this;
+		}
+
+		public DictionaryIndex build() {
+			if (dictionaries.size() > MAX_DICTIONARIES) {
+				throw new IllegalStateException(String.format(
+						"%d dictionaries found; at most %d are supported",
+						dictionaries.size(), MAX_DICTIONARIES));
+			}
+			String[] names = dictionaries.toArray(new String[dictionaries
+					.size()]);
+			int length = 0;
+			for (String tag : entries.keySet()) {
+				length += tag.length();
+			}
+
+			char[] chars = new char[length];
+			int[] offsets = new int[entries.size() + 1];
+			long[] bitsets = new long[entries.size()];
+			int i = 0;
+			int offset = 0;
+			for (Map.Entry<String, TreeSet<String>> entry : entries.entrySet()) {
+				String tag = entry.getKey();
+				tag.getChars(0, tag.length(), chars, offset);
+				offsets[i] = offset;
+				offset += tag.length();
+				for (String dictionary : entry.getValue()) {
+					bitsets[i] |= 1L << Arrays.binarySearch(names, dictionary);
+				}
+				i++;
+			}
+			offsets[i] = offset;
+			return new DictionaryIndex(names, chars, offsets, bitsets);
+		}
+	}
+
+	private DictionaryIndex(String[] dictionaries, char[] chars, int[] offsets,
+			long[] bitsets) {
+		this.dictionaries = dictionaries;
+		this.chars = chars;
+		this.offsets = offsets;
+		this.bitsets = bitsets;
+	}
+
+	/**
+	 * Returns the names of the dictionaries containing
+	 * <code>normalizedTag</code>, sorted, or an empty list if there are none.
+	 */
+	public List<String> getDictionaries(String normalizedTag) {
+		int i = indexOf(normalizedTag);
+		if (i < 0) {
+			return Collections.emptyList();
+		}
+		long bitset = bitsets[i];
+		List<String> names = new ArrayList<String>(Long.bitCount(bitset));
+		while (bitset != 0) {
+			int bit = Long.numberOfTrailingZeros(bitset);
+			names.add(dictionaries[bit]);
+			bitset &= bitset - 1;
+		}
+		return names;
+	}
+
+	public boolean contains(String normalizedTag) {
+		return indexOf(normalizedTag) >= 0;
+	}
+
+	private int indexOf(String tag) {
+		int lo = 0;
+		int hi = bitsets.length - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int cmp = compare(mid, tag);
+			if (cmp < 0) {
+				lo = mid + 1;
+			} else if (cmp > 0) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/** Compares tag i with <code>tag</code>, like String.compareTo. */
+	private int compare(int i, String tag) {
+		int start = offsets[i];
+		int length = offsets[i + 1] - start;
+		int n = Math.min(length, tag.length());
+		for (int k = 0; k < n; k++) {
+			char c = chars[start + k];
+			char d = tag.charAt(k);
+			if (c != d) {
+				return c - d;
+			}
+		}
+		return length - tag.length();
+	}
+
+	/** The names of all dictionaries, sorted. */
+	public List<String> getDictionaryNames() {
+		return Collections.unmodifiableList(Arrays.asList(dictionaries));
+	}
+
+	/** The number of distinct tags. */
+	public int size() {
+		return bitsets.length;
+	}
+
+	/**
+	 * Estimates the memory used by this index in bytes, assuming a 64 bit JVM
+	 * with compressed references.
+	 */
+	public long getMemoryFootprint() {
+		long bytes = 4 * 16 + 12; // the index and its arrays
+		bytes += 2L * chars.length + 4L * offsets.length + 8L * bitsets.length;
+		for (String name : dictionaries) {
+			bytes += 4 + 24 + 16 + 2L * name.length();
+		}
+		return bytes;
+	}
+
+}
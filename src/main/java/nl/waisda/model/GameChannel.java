@@ -0,0 +1,77 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package nl.waisda.model;
+
+/**
+ * Version counter of the state of a single game. Every change to the game's
+ * scoreboard or tag entries increments the version and wakes up all clients
+ * that are waiting for a version newer than the one they have.
+ */
+public class GameChannel {
+
+	/**
+	 * Starts at the creation time so that a version held by a client from
+	 * before a restart of the application is never mistaken for a current one.
+	 */
+	private long version = System.currentTimeMillis();
+
+	private long lastActivity = System.currentTimeMillis();
+
+	private int waiting;
+
+	public synchronized long getVersion() {
+		return version;
+	}
+
+	public synchronized void publish() {
+		version++;
+		lastActivity = System.currentTimeMillis();
+		notifyAll();
+	}
+
+	/**
+	 * Waits at most <code>timeoutMs</code> for the version to differ from
+	 * <code>knownVersion</code>, and returns the current version.
+	 */
+	public synchronized long await(long knownVersion, long timeoutMs)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		waiting++;
+		try {
+			long remaining = timeoutMs;
+			while (version == knownVersion && remaining > 0) {
+				wait(remaining);
+				remaining = deadline - System.currentTimeMillis();
+			}
+		} finally {
+			waiting--;
+			lastActivity = System.currentTimeMillis();
+		}
+		return version;
+	}
+
+	/** Checks whether nobody is waiting and nothing happened for a while. */
+	public synchronized boolean isIdle(long maxIdleMs) {
+		return waiting == 0
+				&& System.currentTimeMillis() - lastActivity > maxIdleMs;
+	}
+
+}
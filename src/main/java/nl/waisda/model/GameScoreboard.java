@@ -0,0 +1,246 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package nl.waisda.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.waisda.domain.User;
+import nl.waisda.domain.UserScore;
+
+/**
+ * Scores of the participants of a single game, maintained as tag entries are
+ * scored. The scoreboard keeps the score and match of every tag entry of the
+ * game by id, so a change that is applied more than once, or that is already
+ * part of what was read from the database, is not counted twice. The users in
+ * the scoreboard are detached copies holding only the id, name and email
+ * address. All methods synchronize on the scoreboard.
+ */
+public class GameScoreboard {
+
+	/** Score and match of a single tag entry. */
+	private static class ScoredEntry {
+		final int ownerId;
+		int score;
+		boolean matched;
+
+		ScoredEntry(int ownerId) {
+			this.ownerId = ownerId;
+		}
+	}
+
+	private final int gameId;
+
+	private final int videoId;
+
+	/** Held while the scoreboard is read from the database. */
+	private final Object loadLock = new Object();
+
+	private boolean loaded;
+
+	/** Sum of the scores of all participants. */
+	private int totalScore;
+
+	private final Map<Integer, UserScore> scores = new HashMap<Integer, UserScore>();
+
+	private final Map<Integer, ScoredEntry> entries = new HashMap<Integer, ScoredEntry>();
+
+	/** Sorted copy of the scores, shared by all readers until the next change. */
+	private List<UserScore> snapshot;
+
+	private volatile long lastAccess = System.currentTimeMillis();
+
+	public GameScoreboard(int gameId, int videoId) {
+		this.gameId = gameId;
+		this.videoId = videoId;
+	}
+
+	public int getGameId() {
+		return gameId;
+	}
+
+	public int getVideoId() {
+		return videoId;
+	}
+
+	/**
+	 * Returns the lock held while the scoreboard is read from the database.
+	 * Changes don't wait for it; only readers of the scores do.
+	 */
+	public Object getLoadLock() {
+		return loadLock;
+	}
+
+	public synchronized boolean isLoaded() {
+		return loaded;
+	}
+
+	public synchronized int getTotalScore() {
+		return totalScore;
+	}
+
+	/**
+	 * Adds the participants and tag entries read from the database. Tag
+	 * entries that were changed while the database was being read are kept as
+	 * they are, since the change is at least as recent as what was read.
+	 * 
+	 * @param scoredEntries
+	 *            The tag entries of the game as
+	 *            <code>{id, ownerId, score, matched (0 or 1)}</code>.
+	 */
+	public synchronized void load(Collection<User> participants,
+			Collection<int[]> scoredEntries) {
+		for (User participant : participants) {
+			get(participant);
+		}
+		for (int[] row : scoredEntries) {
+			if (!entries.containsKey(row[0])) {
+				UserScore score = scores.get(row[1]);
+				if (score == null) {
+					User owner = new User();
+					owner.setId(row[1]);
+					score = get(owner);
+				}
+				set(score, row[0], row[2], row[3] != 0);
+			}
+		}
+		loaded = true;
+		snapshot = null;
+	}
+
+	/** Adds a user with no score yet, if the user is not in the game yet. */
+	public synchronized void join(User user) {
+		get(user);
+	}
+
+	/**
+	 * Sets the score and match of a stored tag entry of <code>owner</code>.
+	 * A tag entry that has a match keeps it, so a change without the match is
+	 * older than what the scoreboard has and is ignored; see
+	 * {@link #unmatch(int, int)}.
+	 * 
+	 * @return The new total score of the game.
+	 */
+	public synchronized int put(int id, User owner, int score, boolean matched) {
+		ScoredEntry entry = entries.get(id);
+		if (entry == null || !entry.matched || matched) {
+			set(get(owner), id, score, matched);
+		}
+		return totalScore;
+	}
+
+	/** Takes back the match of a tag entry and sets its score. */
+	public synchronized void unmatch(int id, int score) {
+		ScoredEntry entry = entries.get(id);
+		if (entry != null) {
+			set(scores.get(entry.ownerId), id, score, false);
+		}
+	}
+
+	/** Removes a tag entry, e.g. one that could not be stored after all. */
+	public synchronized void remove(int id) {
+		ScoredEntry entry = entries.remove(id);
+		if (entry != null) {
+			UserScore score = scores.get(entry.ownerId);
+			score.setScore(score.getScore() - entry.score);
+			score.setCountTags(score.getCountTags() - 1);
+			score.setCountMatches(score.getCountMatches()
+					- (entry.matched ? 1 : 0));
+			totalScore -= entry.score;
+			snapshot = null;
+		}
+	}
+
+	private void set(UserScore score, int id, int newScore, boolean matched) {
+		ScoredEntry entry = entries.get(id);
+		if (entry == null) {
+			entry = new ScoredEntry(score.getUser().getId());
+			entries.put(id, entry);
+			score.setCountTags(score.getCountTags() + 1);
+		}
+		score.setScore(score.getScore() + newScore - entry.score);
+		score.setCountMatches(score.getCountMatches() + (matched ? 1 : 0)
+				- (entry.matched ? 1 : 0));
+		totalScore += newScore - entry.score;
+		entry.score = newScore;
+		entry.matched = matched;
+		snapshot = null;
+	}
+
+	private UserScore get(User user) {
+		UserScore score = scores.get(user.getId());
+		if (score == null) {
+			score = new UserScore(copyOf(user));
+			scores.put(user.getId(), score);
+			snapshot = null;
+		}
+		return score;
+	}
+
+	public synchronized boolean contains(int userId) {
+		return scores.containsKey(userId);
+	}
+
+	/**
+	 * Returns copies of the scores ordered by descending score, with their
+	 * positions set. The list is shared by all callers until the scoreboard
+	 * changes, so its elements must not be modified.
+	 */
+	public synchronized List<UserScore> getScores() {
+		lastAccess = System.currentTimeMillis();
+		if (snapshot == null) {
+			List<UserScore> res = new ArrayList<UserScore>(scores.size());
+			for (UserScore score : scores.values()) {
+				UserScore copy = new UserScore(score.getUser(), score.getScore());
+				copy.setCountTags(score.getCountTags());
+				copy.setCountMatches(score.getCountMatches());
+				res.add(copy);
+			}
+			Collections.sort(res);
+			for (int i = 0; i < res.size(); i++) {
+				res.get(i).setPosition(i);
+			}
+			snapshot = Collections.unmodifiableList(res);
+		}
+		return snapshot;
+	}
+
+	public long getLastAccess() {
+		return lastAccess;
+	}
+
+	public static User copyOf(User user) {
+		User copy = new User();
+		copy.setId(user.getId());
+		copy.setName(user.getName());
+		if (user.getEmail() != null) {
+			copy.setEmail(user.getEmail());
+		}
+		// Prime the avatar hash once; the copy lives as long as the scoreboard.
+		copy.getGravatarHash();
+		return copy;
+	}
+
+}
@@ -28,6 +28,18 @@ import nl.waisda.domain.UserSummary;
 
 public class GameUpdate {
 
+	/**
+	 * Version of the game state this update reflects. Clients pass it back on
+	 * their next request to wait for a newer version.
+	 */
+	private long version;
+
+	/**
+	 * False if the game did not change while waiting, in which case the update
+	 * contains nothing but the version.
+	 */
+	private boolean modified = true;
+
 	/**
 	 * The user id of the currently logged in user. Included here because the
 	 * user might (re)authenticate during gameplay.
@@ -54,6 +66,22 @@ public class GameUpdate {
 	 */
 	private List<UserSummary> students;
 
+	public long getVersion() {
+		return version;
+	}
+
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
+	public boolean isModified() {
+		return modified;
+	}
+
+	public void setModified(boolean modified) {
+		this.modified = modified;
+	}
+
 	public int getOwnId() {
 		return ownId;
 	}
@@ -0,0 +1,153 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package nl.waisda.model;
+
+import nl.waisda.domain.TagEntry;
+
+/**
+ * Lightweight copy of the fields of a {@link TagEntry} that are needed to find
+ * and score matching tag entries. Instances are owned by a
+ * {@link VideoTagIndex}; the mutable fields are only changed while holding the
+ * lock of that index.
+ */
+public class IndexedTagEntry {
+
+	private final int id;
+
+	private final int gameId;
+
+	private final String tag;
+
+	private final String normalizedTag;
+
+	private final int gameTime;
+
+	private final boolean inDictionary;
+
+	private final boolean pioneer;
+
+	private int ownerId;
+
+	private String ownerName;
+
+	/** Id of the matching tag entry, or 0 if the entry has no match yet. */
+	private int matchingTagEntryId;
+
+	private int score;
+
+	public IndexedTagEntry(int id, int gameId, int ownerId, String ownerName,
+			String tag, String normalizedTag, int gameTime,
+			boolean inDictionary, boolean pioneer, int matchingTagEntryId,
+			int score) {
+		this.id = id;
+		this.gameId = gameId;
+		this.ownerId = ownerId;
+		this.ownerName = ownerName;
+		this.tag = tag;
+		this.normalizedTag = normalizedTag;
+		this.gameTime = gameTime;
+		this.inDictionary = inDictionary;
+		this.pioneer = pioneer;
+		this.matchingTagEntryId = matchingTagEntryId;
+		this.score = score;
+	}
+
+	public IndexedTagEntry(IndexedTagEntry other) {
+		this(other.id, other.gameId, other.ownerId, other.ownerName, other.tag,
+				other.normalizedTag, other.gameTime, other.inDictionary,
+				other.pioneer, other.matchingTagEntryId, other.score);
+	}
+
+	public static IndexedTagEntry fromTagEntry(TagEntry tagEntry) {
+		TagEntry match = tagEntry.getMatchingTagEntry();
+		return new IndexedTagEntry(tagEntry.getId(), tagEntry.getGame().getId(),
+				tagEntry.getOwner().getId(), tagEntry.getOwner().getName(),
+				tagEntry.getTag(), tagEntry.getNormalizedTag(),
+				tagEntry.getGameTime(), tagEntry.getDictionary() != null,
+				tagEntry.isPioneer(), match != null ? match.getId() : 0,
+				tagEntry.getScore());
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public int getGameId() {
+		return gameId;
+	}
+
+	public String getTag() {
+		return tag;
+	}
+
+	public String getNormalizedTag() {
+		return normalizedTag;
+	}
+
+	public int getGameTime() {
+		return gameTime;
+	}
+
+	public boolean isInDictionary() {
+		return inDictionary;
+	}
+
+	public boolean isPioneer() {
+		return pioneer;
+	}
+
+	public int getOwnerId() {
+		return ownerId;
+	}
+
+	void setOwnerId(int ownerId) {
+		this.ownerId = ownerId;
+	}
+
+	public String getOwnerName() {
+		return ownerName;
+	}
+
+	void setOwnerName(String ownerName) {
+		this.ownerName = ownerName;
+	}
+
+	public int getMatchingTagEntryId() {
+		return matchingTagEntryId;
+	}
+
+	void setMatchingTagEntryId(int matchingTagEntryId) {
+		this.matchingTagEntryId = matchingTagEntryId;
+	}
+
+	public boolean hasMatch() {
+		return matchingTagEntryId != 0;
+	}
+
+	public int getScore() {
+		return score;
+	}
+
+	void setScore(int score) {
+		this.score = score;
+	}
+
+}
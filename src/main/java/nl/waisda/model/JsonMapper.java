@@ -19,35 +19,22 @@
 
 package nl.waisda.model;
 
-import java.util.Date;
-
-public class Cache<T> implements Value<T> {
-
-	private Value<T> content;
-	private long maxAgeMs;
-
-	private T cachedValue;
-	private long lastUpdate;
-
-	public Cache(Value<T> content, long maxAgeMs) {
-		this.content = content;
-		this.maxAgeMs = maxAgeMs;
-	}
-
-	private synchronized long getCurrentAge() {
-		return new Date().getTime() - lastUpdate;
-	}
-
-	public synchronized T get() {
-		if (getCurrentAge() > maxAgeMs) {
-			cachedValue = content.get();
-			lastUpdate = new Date().getTime();
-		}
-		return cachedValue;
-	}
-
-	public synchronized void invalidate() {
-		lastUpdate = 0;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+
+/**
+ * The ObjectMapper shared by the whole application. Constructing a mapper and
+ * introspecting the serialized classes is expensive, so a single instance is
+ * configured once and reused; it is thread-safe and caches the serializers it
+ * builds.
+ * <p>
+ * Writing a value does not close the target, so JSON can be written straight
+ * to a response stream and followed by other output.
+ */
+public class JsonMapper extends ObjectMapper {
+
+	public JsonMapper() {
+		configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
 	}
 
 }
@@ -46,8 +46,21 @@ public class Levenshtein {
 	 * other.
 	 */
 	public static int distance(String s, String t) {
+		return distance(s, t, Math.max(s.length(), t.length()));
+	}
+
+	/**
+	 * Computes the edit distance between the two strings if it is at most
+	 * <code>max</code>, and returns <code>max + 1</code> otherwise. Gives up
+	 * as soon as the distance is known to exceed <code>max</code>, and only
+	 * keeps two rows of the distance matrix.
+	 */
+	public static int distance(String s, String t, int max) {
 		int n = s.length();
 		int m = t.length();
+		if (Math.abs(n - m) > max) {
+			return max + 1;
+		}
 		if (n == 0) {
 			return m;
 		}
@@ -55,23 +68,34 @@ public class Levenshtein {
 			return n;
 		}
 
-		int d[][] = new int[n + 1][m + 1];
-		for (int i = 0; i <= n; i++) {
-			d[i][0] = i;
-		}
+		int[] previous = new int[m + 1];
+		int[] current = new int[m + 1];
 		for (int j = 0; j <= m; j++) {
-			d[0][j] = j;
+			previous[j] = j;
 		}
 
 		for (int i = 1; i <= n; i++) {
+			char c = s.charAt(i - 1);
+			current[0] = i;
+			int rowMinimum = i;
 			for (int j = 1; j <= m; j++) {
-				int cost = s.charAt(i - 1) == t.charAt(j - 1) ? 0 : 1;
-				d[i][j] = minimum(d[i - 1][j] + 1, d[i][j - 1] + 1,
-						d[i - 1][j - 1] + cost);
+				int cost = c == t.charAt(j - 1) ? 0 : 1;
+				current[j] = minimum(previous[j] + 1, current[j - 1] + 1,
+						previous[j - 1] + cost);
+				if (current[j] < rowMinimum) {
+					rowMinimum = current[j];
+				}
+			}
+			if (rowMinimum > max) {
+				// Distances never decrease further down the matrix.
+				return max + 1;
 			}
+			int[] swap = previous;
+			previous = current;
+			current = swap;
 		}
 
-		return d[n][m];
+		return previous[m] <= max ? previous[m] : max + 1;
 	}
 
 	/**
@@ -83,10 +107,15 @@ public class Levenshtein {
 		int bestDistance = Integer.MAX_VALUE;
 
 		for (String word : words) {
-			int distance = distance(word, query);
+			// Only words closer than the best so far are of interest.
+			int distance = bestWord == null ? distance(word, query) : distance(
+					word, query, bestDistance - 1);
 			if (bestWord == null || distance < bestDistance) {
 				bestWord = word;
 				bestDistance = distance;
+				if (bestDistance == 0) {
+					break;
+				}
 			}
 		}
 
@@ -0,0 +1,176 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package nl.waisda.model;
+
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Sorted set that also answers order statistics: the rank of an element and
+ * the element at a rank, each in O(log n). Implemented as a treap whose nodes
+ * know the size of their subtree. Elements must not change their order while
+ * they are in the set. Not thread-safe.
+ */
+public class RankedSet<T> {
+
+	private static class Node<T> {
+		final T value;
+		final int priority;
+		Node<T> left;
+		Node<T> right;
+		int size = 1;
+
+		Node(T value, int priority) {
+			this.value = value;
+			this.priority = priority;
+		}
+	}
+
+	private final Comparator<? super T> comparator;
+	private final Random random = new Random();
+	private Node<T> root;
+
+	public RankedSet(Comparator<? super T> comparator) {
+		this.comparator = comparator;
+	}
+
+	public int size() {
+		return size(root);
+	}
+
+	private static int size(Node<?> node) {
+		return node == null ? 0 : node.size;
+	}
+
+	private static void update(Node<?> node) {
+		node.size = 1 + size(node.left) + size(node.right);
+	}
+
+	/** Adds an element that is not in the set yet. */
+	public void add(T value) {
+		root = insert(root, new Node<T>(value, random.nextInt()));
+	}
+
+	private Node<T> insert(Node<T> node, Node<T> added) {
+		if (node == null) {
+			return added;
+		}
+		if (comparator.compare(added.value, node.value) < 0) {
+			node.left = insert(node.left, added);
+			if (node.left.priority > node.priority) {
+				node = rotateRight(node);
+			}
+		} else {
+			node.right = insert(node.right, added);
+			if (node.right.priority > node.priority) {
+				node = rotateLeft(node);
+			}
+		}
+		update(node);
+		return node;
+	}
+
+	/** Removes the element that compares equal to <code>value</code>, if any. */
+	public void remove(T value) {
+		root = delete(root, value);
+	}
+
+	private Node<T> delete(Node<T> node, T value) {
+		if (node == null) {
+			return null;
+		}
+		int c = comparator.compare(value, node.value);
+		if (c < 0) {
+			node.left = delete(node.left, value);
+		} else if (c > 0) {
+			node.right = delete(node.right, value);
+		} else if (node.left == null) {
+			return node.right;
+		} else if (node.right == null) {
+			return node.left;
+		} else if (node.left.priority > node.right.priority) {
+			node = rotateRight(node);
+			node.right = delete(node.right, value);
+		} else {
+			node = rotateLeft(node);
+			node.left = delete(node.left, value);
+		}
+		update(node);
+		return node;
+	}
+
+	private Node<T> rotateRight(Node<T> node) {
+		Node<T> left = node.left;
+		node.left = left.right;
+		left.right = node;
+		update(node);
+		update(left);
+		return left;
+	}
+
+	private Node<T> rotateLeft(Node<T> node) {
+		Node<T> right = node.right;
+		node.right = right.left;
+		right.left = node;
+		update(node);
+		update(right);
+		return right;
+	}
+
+	/**
+	 * Returns the number of elements before <code>value</code>, which must be
+	 * in the set.
+	 */
+	public int rank(T value) {
+		int rank = 0;
+		Node<T> node = root;
+		while (node != null) {
+			int c = comparator.compare(value, node.value);
+			if (c < 0) {
+				node = node.left;
+			} else if (c > 0) {
+				rank += size(node.left) + 1;
+				node = node.right;
+			} else {
+				return rank + size(node.left);
+			}
+		}
+		throw new IllegalArgumentException("Not in the set: " + value);
+	}
+
+	/** Returns the element at <code>index</code> in sorted order. */
+	public T get(int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		}
+		Node<T> node = root;
+		while (true) {
+			int leftSize = size(node.left);
+			if (index < leftSize) {
+				node = node.left;
+			} else if (index > leftSize) {
+				index -= leftSize + 1;
+				node = node.right;
+			} else {
+				return node.value;
+			}
+		}
+	}
+
+}
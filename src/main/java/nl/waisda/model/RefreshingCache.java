@@ -0,0 +1,162 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package nl.waisda.model;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Cache that never makes readers wait for a refresh, except for the very
+ * first load. Once the cached value is older than <code>maxAgeMs</code>, the
+ * next reader schedules a single refresh on the executor and, like all readers
+ * until the refresh completes, gets the previous value. If a refresh fails the
+ * previous value is kept and the next read tries again.
+ */
+public class RefreshingCache<T> implements Value<T> {
+
+	private static final Logger log = Logger.getLogger(RefreshingCache.class);
+
+	private static class Entry<T> {
+		final T value;
+		final long loadedAt;
+
+		Entry(T value, long loadedAt) {
+			this.value = value;
+			this.loadedAt = loadedAt;
+		}
+	}
+
+	private final Value<T> content;
+	private final long maxAgeMs;
+	private final Executor executor;
+
+	private volatile Entry<T> entry;
+	private volatile boolean invalidated;
+	private final AtomicBoolean refreshing = new AtomicBoolean();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong refreshes = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private volatile long lastRefreshMs;
+
+	private final Runnable refresh = new Runnable() {
+		@Override
+		public void run() {
+			try {
+				load();
+			} catch (RuntimeException e) {
+				failures.incrementAndGet();
+				log.error("Failed to refresh cached value", e);
+			} finally {
+				refreshing.set(false);
+			}
+		}
+	};
+
+	public RefreshingCache(Value<T> content, long maxAgeMs, Executor executor) {
+		this.content = content;
+		this.maxAgeMs = maxAgeMs;
+		this.executor = executor;
+	}
+
+	@Override
+	public T get() {
+		Entry<T> e = entry;
+		if (e == null) {
+			synchronized (this) {
+				if (entry == null) {
+					load();
+				}
+				e = entry;
+			}
+		} else if (invalidated
+				|| System.currentTimeMillis() - e.loadedAt > maxAgeMs) {
+			refresh();
+		}
+		hits.incrementAndGet();
+		return e.value;
+	}
+
+	/**
+	 * Marks the cached value as outdated and starts a refresh. Readers get the
+	 * outdated value until the refresh completes.
+	 */
+	public void invalidate() {
+		invalidated = true;
+		if (entry != null) {
+			refresh();
+		}
+	}
+
+	private void refresh() {
+		if (refreshing.compareAndSet(false, true)) {
+			try {
+				executor.execute(refresh);
+			} catch (RejectedExecutionException e) {
+				refreshing.set(false);
+				log.warn("Refresh of cached value rejected; will retry", e);
+			}
+		}
+	}
+
+	private void load() {
+		// Reset the flag first, so an invalidation during the load triggers
+		// another refresh.
+		invalidated = false;
+		long start = System.currentTimeMillis();
+		T value = content.get();
+		long now = System.currentTimeMillis();
+		entry = new Entry<T>(value, now);
+		lastRefreshMs = now - start;
+		refreshes.incrementAndGet();
+	}
+
+	/** Number of reads. */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/** Number of times the value was (re)loaded. */
+	public long getRefreshes() {
+		return refreshes.get();
+	}
+
+	/** Number of failed refreshes. */
+	public long getFailures() {
+		return failures.get();
+	}
+
+	/** Duration of the last (re)load in milliseconds. */
+	public long getLastRefreshMs() {
+		return lastRefreshMs;
+	}
+
+	/** Age of the cached value in milliseconds, or -1 if nothing is cached. */
+	public long getStalenessMs() {
+		Entry<T> e = entry;
+		return e == null ? -1 : System.currentTimeMillis() - e.loadedAt;
+	}
+
+}
@@ -0,0 +1,155 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package nl.waisda.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Space-Saving summary of the most frequent items of a stream, in bounded
+ * memory. At most <code>capacity</code> items are counted; an item that is
+ * not counted yet takes the place of the item with the lowest count and
+ * inherits that count. Counts are therefore never too low, and too high by at
+ * most the lowest count. Items whose true count exceeds the lowest count are
+ * always present. Each add takes O(log capacity). Not thread-safe.
+ */
+public class SpaceSaving<T> {
+
+	private final int capacity;
+
+	/** Min-heap of the counted items on their counts. */
+	private final Object[] items;
+	private final long[] counts;
+
+	/** The position of every counted item in the heap. */
+	private final Map<T, Integer> positions;
+
+	private int size;
+
+	public SpaceSaving(int capacity) {
+		this.capacity = capacity;
+		items = new Object[capacity];
+		counts = new long[capacity];
+		positions = new HashMap<T, Integer>(capacity * 2);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isFull() {
+		return size == capacity;
+	}
+
+	/** Returns the lowest count, which bounds the count of any missing item. */
+	public long getMinCount() {
+		return isFull() ? counts[0] : 0;
+	}
+
+	/** Counts <code>weight</code> occurrences of <code>item</code>. */
+	public void add(T item, long weight) {
+		Integer i = positions.get(item);
+		if (i != null) {
+			counts[i] += weight;
+			siftDown(i);
+		} else if (size < capacity) {
+			items[size] = item;
+			counts[size] = weight;
+			positions.put(item, size);
+			siftUp(size++);
+		} else {
+			positions.remove(items[0]);
+			items[0] = item;
+			counts[0] += weight;
+			positions.put(item, 0);
+			siftDown(0);
+		}
+	}
+
+	/**
+	 * Takes back <code>weight</code> occurrences of <code>item</code>, if it
+	 * is counted.
+	 */
+	public void remove(T item, long weight) {
+		Integer i = positions.get(item);
+		if (i != null) {
+			counts[i] = Math.max(counts[i] - weight, 0);
+			siftUp(i);
+		}
+	}
+
+	/** Adds the counts of all counted items to <code>totals</code>. */
+	@SuppressWarnings("unchecked")
+	public void addTo(Map<T, Long> totals) {
+		for (int i = 0; i < size; i++) {
+			T item = (T) items[i];
+			Long total = totals.get(item);
+			totals.put(item, total == null ? counts[i] : total + counts[i]);
+		}
+	}
+
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			items[i] = null;
+		}
+		positions.clear();
+		size = 0;
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (counts[parent] <= counts[i]) {
+				break;
+			}
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && counts[child + 1] < counts[child]) {
+				child++;
+			}
+			if (counts[i] <= counts[child]) {
+				break;
+			}
+			swap(i, child);
+			i = child;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void swap(int i, int j) {
+		Object item = items[i];
+		items[i] = items[j];
+		items[j] = item;
+		long count = counts[i];
+		counts[i] = counts[j];
+		counts[j] = count;
+		positions.put((T) items[i], i);
+		positions.put((T) items[j], j);
+	}
+
+}
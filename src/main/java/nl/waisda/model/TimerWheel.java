@@ -0,0 +1,124 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package nl.waisda.model;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Hashed timer wheel for items that expire within a bounded horizon. The wheel
+ * is a ring of slots of <code>tickMs</code> each; scheduling drops an item in
+ * the slot of its deadline and {@link #advance(long)} empties the slots it
+ * passes, so both are O(1) per item however many items are scheduled. Items
+ * due beyond the horizon wait in the last slot and are rescheduled when it is
+ * passed.
+ */
+public class TimerWheel<T> {
+
+	private static class Timeout<T> {
+		final T item;
+		final long deadline;
+
+		Timeout(T item, long deadline) {
+			this.item = item;
+			this.deadline = deadline;
+		}
+	}
+
+	private final long tickMs;
+	private final List<LinkedList<Timeout<T>>> slots;
+
+	/** Start of the tick the wheel is at; slots before it have been emptied. */
+	private long currentTick;
+
+	private int size;
+
+	/**
+	 * @param tickMs
+	 *            Resolution of the wheel; items expire at most this late.
+	 * @param horizonMs
+	 *            Time within which most items expire.
+	 * @param now
+	 *            Current time in ms.
+	 */
+	public TimerWheel(long tickMs, long horizonMs, long now) {
+		this.tickMs = tickMs;
+		int n = (int) (horizonMs / tickMs) + 2;
+		slots = new ArrayList<LinkedList<Timeout<T>>>(n);
+		for (int i = 0; i < n; i++) {
+			slots.add(new LinkedList<Timeout<T>>());
+		}
+		currentTick = now / tickMs;
+	}
+
+	/** Schedules <code>item</code> to expire at <code>deadline</code> (ms). */
+	public synchronized void schedule(T item, long deadline) {
+		add(new Timeout<T>(item, deadline));
+		size++;
+	}
+
+	private void add(Timeout<T> timeout) {
+		long tick = Math.max(timeout.deadline / tickMs, currentTick);
+		tick = Math.min(tick, currentTick + slots.size() - 1);
+		slots.get((int) (tick % slots.size())).add(timeout);
+	}
+
+	/**
+	 * Moves the wheel to <code>now</code>.
+	 * 
+	 * @return The items whose deadline has passed, in no particular order.
+	 */
+	public synchronized List<T> advance(long now) {
+		List<T> expired = new ArrayList<T>();
+		long nowTick = now / tickMs;
+		// Every slot is passed at most once per call; a wheel left alone
+		// longer than a round is caught up in one go.
+		long last = Math.min(nowTick, currentTick + slots.size() - 1);
+		List<Timeout<T>> later = new ArrayList<Timeout<T>>();
+		for (long tick = currentTick; tick <= last; tick++) {
+			Iterator<Timeout<T>> it = slots.get((int) (tick % slots.size()))
+					.iterator();
+			while (it.hasNext()) {
+				Timeout<T> timeout = it.next();
+				if (timeout.deadline <= now) {
+					expired.add(timeout.item);
+					size--;
+				} else if (tick < nowTick || timeout.deadline / tickMs > tick) {
+					// waited in the last slot; it's due in a later round
+					later.add(timeout);
+				} else {
+					continue;
+				}
+				it.remove();
+			}
+		}
+		currentTick = nowTick;
+		for (Timeout<T> timeout : later) {
+			add(timeout);
+		}
+		return expired;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+}
@@ -20,59 +20,207 @@
 package nl.waisda.model;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 
 import nl.waisda.domain.User;
 import nl.waisda.domain.UserScore;
 
+/**
+ * Leaderboard of the scores of the last DAYS days, kept up to date in memory.
+ * Scores are counted per user in a bucket per day; when the day changes, the
+ * bucket that falls out of the window is subtracted as a whole. The players
+ * with an email address and a positive score are kept in a RankedSet, so the
+ * top ten and the position of a user take O(log n). The users in the
+ * leaderboard are detached copies holding only the id, name and email
+ * address. Thread-safe.
+ */
+public class TopScores {
 
+	/** Number of days in the window: today and the six days before. */
+	public static final int DAYS = 7;
 
-public class TopScores {
+	private static class Player {
+		User user;
+		int score;
+		boolean ranked;
+		/** Number of buckets the player has a score in. */
+		int days;
+
+		Player(User user) {
+			this.user = user;
+		}
+	}
+
+	private static final Comparator<Player> ORDER = new Comparator<Player>() {
+		@Override
+		public int compare(Player p1, Player p2) {
+			if (p1.score != p2.score) {
+				return p1.score > p2.score ? -1 : 1;
+			}
+			int id1 = p1.user.getId();
+			int id2 = p2.user.getId();
+			return id1 < id2 ? -1 : (id1 == id2 ? 0 : 1);
+		}
+	};
+
+	private final Map<Integer, Player> players = new HashMap<Integer, Player>();
+
+	private final RankedSet<Player> ranking = new RankedSet<Player>(ORDER);
+
+	/** Score per user id of each day in the window, by day % DAYS. */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private final Map<Integer, Integer>[] buckets = new Map[DAYS];
+
+	/** The day the window ends with. */
+	private long today;
+
+	public TopScores(long today) {
+		for (int i = 0; i < DAYS; i++) {
+			buckets[i] = new HashMap<Integer, Integer>();
+		}
+		this.today = today;
+	}
+
+	/**
+	 * Adds a score change of <code>user</code> to the given day. Changes of
+	 * days before the window are ignored.
+	 */
+	public synchronized void add(User user, long day, int scoreDelta) {
+		if (day > today) {
+			advance(day);
+		} else if (day <= today - DAYS) {
+			return;
+		}
+		Player player = getPlayer(user);
+		Map<Integer, Integer> bucket = buckets[(int) (day % DAYS)];
+		Integer score = bucket.get(user.getId());
+		if (score == null) {
+			score = 0;
+			player.days++;
+		}
+		bucket.put(user.getId(), score + scoreDelta);
+		setScore(player, player.score + scoreDelta);
+	}
 
-	private ArrayList<UserScore> topscores;
+	/**
+	 * Refreshes the name and email address of a user, e.g. when an anonymous
+	 * user registered.
+	 */
+	public synchronized void updateUser(User user) {
+		Player player = players.get(user.getId());
+		if (player != null) {
+			player.user = GameScoreboard.copyOf(user);
+			setScore(player, player.score);
+		}
+	}
 
-	private Map<Integer, Integer> userToPos;
+	/** Moves the scores of <code>source</code> to <code>target</code>. */
+	public synchronized void moveUser(int sourceId, User target) {
+		Player source = players.remove(sourceId);
+		if (source == null) {
+			return;
+		}
+		if (source.ranked) {
+			ranking.remove(source);
+		}
+		Player player = getPlayer(target);
+		for (Map<Integer, Integer> bucket : buckets) {
+			Integer score = bucket.remove(sourceId);
+			if (score != null) {
+				Integer targetScore = bucket.get(target.getId());
+				if (targetScore == null) {
+					targetScore = 0;
+					player.days++;
+				}
+				bucket.put(target.getId(), score + targetScore);
+			}
+		}
+		setScore(player, player.score + source.score);
+	}
 
-	/** Demand an ArrayList for fast random access. */
-	public TopScores(ArrayList<UserScore> scores) {
-		this.topscores = scores;
-		userToPos = new TreeMap<Integer, Integer>();
-		int i = 0;
-		for (UserScore u : scores) {
-			userToPos.put(u.getUser().getId(), i);
-			i++;
+	/** Moves the window to end with <code>day</code>. */
+	public synchronized void advance(long day) {
+		for (long d = Math.max(today, day - DAYS) + 1 - DAYS; d <= day - DAYS; d++) {
+			Map<Integer, Integer> bucket = buckets[(int) (d % DAYS)];
+			for (Map.Entry<Integer, Integer> e : bucket.entrySet()) {
+				Player player = players.get(e.getKey());
+				setScore(player, player.score - e.getValue());
+				if (--player.days == 0) {
+					players.remove(e.getKey());
+				}
+			}
+			bucket.clear();
 		}
+		today = Math.max(today, day);
 	}
 
-	public List<UserScore> getTopTen() {
-		int hi = Math.min(size(), 10);
-		return topscores.subList(0, hi);
+	private Player getPlayer(User user) {
+		Player player = players.get(user.getId());
+		if (player == null) {
+			player = new Player(GameScoreboard.copyOf(user));
+			players.put(user.getId(), player);
+		} else if (user.getEmail() != null && player.user.getEmail() == null) {
+			// e.g. the owner of a scored tag entry, which the writer only
+			// knows by id and name
+			player.user = GameScoreboard.copyOf(user);
+		}
+		return player;
+	}
+
+	/** Changes the score of a player, keeping the ranking in order. */
+	private void setScore(Player player, int score) {
+		if (player.ranked) {
+			ranking.remove(player);
+		}
+		player.score = score;
+		player.ranked = score > 0 && player.user.getEmail() != null;
+		if (player.ranked) {
+			ranking.add(player);
+		}
+	}
+
+	public synchronized List<UserScore> getTopTen() {
+		return getRange(0, Math.min(size(), 10));
 	}
 
 	/** Returns the user's position, or null if not present. */
-	public Integer getPosition(User user) {
-		return userToPos.get(user.getId());
+	public synchronized Integer getPosition(User user) {
+		Player player = players.get(user.getId());
+		return player != null && player.ranked ? ranking.rank(player) : null;
 	}
 
-	public int size() {
-		return topscores.size();
+	public synchronized int size() {
+		return ranking.size();
 	}
 
 	/**
 	 * Returns the direct context for this user in this scoreboard, or null if
 	 * the given user is not present.
 	 */
-	public List<UserScore> getContext(User user) {
+	public synchronized List<UserScore> getContext(User user) {
 		Integer pos = getPosition(user);
 		if (pos == null) {
 			return null;
 		} else {
 			int lo = Math.max(0, pos - 4); // inclusive
 			int hi = Math.min(size(), pos + 5); // exclusive
-			return topscores.subList(lo, hi);
+			return getRange(lo, hi);
+		}
+	}
+
+	/** Returns copies of the scores at positions lo (inclusive) to hi. */
+	private List<UserScore> getRange(int lo, int hi) {
+		List<UserScore> scores = new ArrayList<UserScore>(hi - lo);
+		for (int i = lo; i < hi; i++) {
+			Player player = ranking.get(i);
+			UserScore score = new UserScore(player.user, player.score);
+			score.setPosition(i);
+			scores.add(score);
 		}
+		return scores;
 	}
 
 }
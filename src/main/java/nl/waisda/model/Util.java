@@ -19,15 +19,24 @@
 
 package nl.waisda.model;
 
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.TimeZone;
 
 public class Util {
 
 	public static final Locale DUTCH_LOCALE = new Locale("NL", "nl");
 	public static final Locale ENGLISH_LOCALE = Locale.ENGLISH;
 
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private static final long DAY_MS = 24 * 60 * 60 * 1000;
+
 	private Util() {
 
 	}
@@ -40,4 +49,34 @@ public class Util {
 		return ts;
 	}
 
+	/** @return the lowercase hex MD5 digest of the UTF-8 bytes of s */
+	public static String md5Hex(String s) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(
+					s.getBytes("UTF-8"));
+			char[] hex = new char[digest.length * 2];
+			for (int i = 0; i < digest.length; i++) {
+				hex[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+				hex[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+			}
+			return new String(hex);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/** @return the number of the day of date in the default time zone */
+	public static long getDay(Date date) {
+		long t = date.getTime();
+		return (t + TimeZone.getDefault().getOffset(t)) / DAY_MS;
+	}
+
+	/** @return the start of a day numbered by {@link #getDay(Date)} */
+	public static Date getStartOfDay(long day) {
+		long t = day * DAY_MS;
+		return new Date(t - TimeZone.getDefault().getOffset(t));
+	}
+
 }
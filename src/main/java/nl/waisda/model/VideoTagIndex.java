@@ -0,0 +1,322 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package nl.waisda.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory index of the tag entries of a single video. Entries are grouped by
+ * normalized tag and kept sorted by game time, so the entries of a tag within a
+ * time window can be found with a binary search. All methods are synchronized;
+ * lookups return copies so callers never observe concurrent updates.
+ */
+public class VideoTagIndex {
+
+	public static final Comparator<IndexedTagEntry> COMPARE_BY_ID = new Comparator<IndexedTagEntry>() {
+		@Override
+		public int compare(IndexedTagEntry e1, IndexedTagEntry e2) {
+			return e1.getId() < e2.getId() ? -1 : e1.getId() == e2.getId() ? 0 : 1;
+		}
+	};
+
+	private final int videoId;
+
+	private final Map<String, List<IndexedTagEntry>> entriesByTag = new HashMap<String, List<IndexedTagEntry>>();
+
+	private final Map<Integer, IndexedTagEntry> entriesById = new HashMap<Integer, IndexedTagEntry>();
+
+	/** All distinct normalized tags, for fuzzy matching. */
+	private final BKTree tags = new BKTree();
+
+	private boolean loaded;
+
+	/**
+	 * Every tag entry of the video up to this id that is stored at all was
+	 * stored before the index last read the database; entries with higher ids
+	 * may still be stored, e.g. by other application servers.
+	 */
+	private int syncedId;
+
+	private volatile long lastAccess = System.currentTimeMillis();
+
+	public VideoTagIndex(int videoId) {
+		this.videoId = videoId;
+	}
+
+	public int getVideoId() {
+		return videoId;
+	}
+
+	public synchronized boolean isLoaded() {
+		return loaded;
+	}
+
+	public synchronized int getSyncedId() {
+		return syncedId;
+	}
+
+	/**
+	 * Adds the entries read from the database. Entries that were already added
+	 * while the database was being read are kept as they are.
+	 * 
+	 * @param syncedId
+	 *            Every entry up to this id that is stored at all was stored
+	 *            before the database was read.
+	 */
+	public synchronized void load(Collection<IndexedTagEntry> entries,
+			int syncedId) {
+		for (IndexedTagEntry entry : entries) {
+			if (!entriesById.containsKey(entry.getId())) {
+				insert(entry);
+			}
+		}
+		this.syncedId = syncedId;
+		loaded = true;
+	}
+
+	/**
+	 * Adds the entries with ids above {@link #getSyncedId()} read from the
+	 * database, e.g. those stored by other application servers. Entries that
+	 * are already indexed keep their state, except that an entry without a
+	 * match takes the match and score read from the database.
+	 * 
+	 * @param syncedId
+	 *            Every entry up to this id that is stored at all was stored
+	 *            before the database was read.
+	 * @return Copies of the entries that were added or got a match.
+	 */
+	public synchronized List<IndexedTagEntry> sync(
+			Collection<IndexedTagEntry> entries, int syncedId) {
+		List<IndexedTagEntry> changed = new ArrayList<IndexedTagEntry>();
+		for (IndexedTagEntry entry : entries) {
+			IndexedTagEntry existing = entriesById.get(entry.getId());
+			if (existing == null) {
+				insert(new IndexedTagEntry(entry));
+				changed.add(new IndexedTagEntry(entry));
+			} else if (!existing.hasMatch() && entry.hasMatch()) {
+				existing.setMatchingTagEntryId(entry.getMatchingTagEntryId());
+				existing.setScore(entry.getScore());
+				changed.add(new IndexedTagEntry(existing));
+			}
+		}
+		this.syncedId = Math.max(this.syncedId, syncedId);
+		return changed;
+	}
+
+	/**
+	 * Adds a new entry to the index, or updates the owner, match and score of
+	 * an entry that is already indexed.
+	 */
+	public synchronized void put(IndexedTagEntry entry) {
+		IndexedTagEntry existing = entriesById.get(entry.getId());
+		if (existing == null) {
+			insert(new IndexedTagEntry(entry));
+		} else {
+			existing.setOwnerId(entry.getOwnerId());
+			existing.setOwnerName(entry.getOwnerName());
+			existing.setMatchingTagEntryId(entry.getMatchingTagEntryId());
+			existing.setScore(entry.getScore());
+		}
+	}
+
+	/** Removes an entry, e.g. one that could not be stored after all. */
+	public synchronized void remove(int id) {
+		IndexedTagEntry entry = entriesById.remove(id);
+		if (entry != null) {
+			List<IndexedTagEntry> entries = entriesByTag.get(entry
+					.getNormalizedTag());
+			entries.remove(entry);
+			if (entries.isEmpty()) {
+				// The tag stays in the BK-tree, which can't remove; it then
+				// just finds no entries.
+				entriesByTag.remove(entry.getNormalizedTag());
+			}
+		}
+	}
+
+	public synchronized void setScore(int id, int score) {
+		IndexedTagEntry entry = entriesById.get(id);
+		if (entry != null) {
+			entry.setScore(score);
+		}
+	}
+
+	private void insert(IndexedTagEntry entry) {
+		List<IndexedTagEntry> entries = entriesByTag.get(entry.getNormalizedTag());
+		if (entries == null) {
+			entries = new ArrayList<IndexedTagEntry>(2);
+			entriesByTag.put(entry.getNormalizedTag(), entries);
+			tags.add(entry.getNormalizedTag());
+		}
+		entries.add(upperBound(entries, entry.getGameTime()), entry);
+		entriesById.put(entry.getId(), entry);
+	}
+
+	/**
+	 * Returns copies of all entries with one of the given normalized tags and a
+	 * game time within <code>maxDistance</code> of <code>aroundTime</code>,
+	 * ordered by id.
+	 */
+	public synchronized List<IndexedTagEntry> getEntries(
+			Collection<String> normalizedTags, int aroundTime, int maxDistance) {
+		List<IndexedTagEntry> res = new ArrayList<IndexedTagEntry>();
+		for (String normalizedTag : normalizedTags) {
+			List<IndexedTagEntry> entries = entriesByTag.get(normalizedTag);
+			if (entries == null) {
+				continue;
+			}
+			int i = lowerBound(entries, aroundTime - maxDistance);
+			for (; i < entries.size(); i++) {
+				IndexedTagEntry entry = entries.get(i);
+				if (entry.getGameTime() > aroundTime + maxDistance) {
+					break;
+				}
+				res.add(new IndexedTagEntry(entry));
+			}
+		}
+		Collections.sort(res, COMPARE_BY_ID);
+		return res;
+	}
+
+	/**
+	 * Returns the normalized tags of this video within <code>maxEdits</code>
+	 * edits of <code>normalizedTag</code>.
+	 */
+	public synchronized List<String> getTagsWithin(String normalizedTag,
+			int maxEdits) {
+		return tags.search(normalizedTag, maxEdits);
+	}
+
+	/**
+	 * Checks whether the given owner entered the tag in the given game within
+	 * <code>maxDistance</code> of <code>aroundTime</code>.
+	 */
+	public synchronized boolean contains(int gameId, int ownerId,
+			String normalizedTag, int aroundTime, int maxDistance) {
+		List<IndexedTagEntry> entries = entriesByTag.get(normalizedTag);
+		if (entries == null) {
+			return false;
+		}
+		int i = lowerBound(entries, aroundTime - maxDistance);
+		for (; i < entries.size(); i++) {
+			IndexedTagEntry entry = entries.get(i);
+			if (entry.getGameTime() > aroundTime + maxDistance) {
+				break;
+			}
+			if (entry.getGameId() == gameId && entry.getOwnerId() == ownerId) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Sets <code>matchingTagEntryId</code> as the match of those entries among
+	 * <code>ids</code> that don't have a match yet, and returns copies of them.
+	 * Claiming atomically prevents two concurrent tag entries from both
+	 * awarding pioneer points for the same earlier entry.
+	 */
+	public synchronized List<IndexedTagEntry> claimUnmatched(
+			Collection<Integer> ids, int matchingTagEntryId) {
+		List<IndexedTagEntry> claimed = new ArrayList<IndexedTagEntry>();
+		for (Integer id : ids) {
+			IndexedTagEntry entry = entriesById.get(id);
+			if (entry != null && !entry.hasMatch()) {
+				entry.setMatchingTagEntryId(matchingTagEntryId);
+				claimed.add(new IndexedTagEntry(entry));
+			}
+		}
+		return claimed;
+	}
+
+	/**
+	 * Undoes {@link #claimUnmatched(Collection, int)} for the entries among
+	 * <code>ids</code> that are still claimed by
+	 * <code>matchingTagEntryId</code>.
+	 */
+	public synchronized void releaseClaims(Collection<Integer> ids,
+			int matchingTagEntryId) {
+		for (Integer id : ids) {
+			IndexedTagEntry entry = entriesById.get(id);
+			if (entry != null
+					&& entry.getMatchingTagEntryId() == matchingTagEntryId) {
+				entry.setMatchingTagEntryId(0);
+			}
+		}
+	}
+
+	public synchronized void moveOwner(int sourceId, int targetId,
+			String targetName) {
+		for (IndexedTagEntry entry : entriesById.values()) {
+			if (entry.getOwnerId() == sourceId) {
+				entry.setOwnerId(targetId);
+				entry.setOwnerName(targetName);
+			}
+		}
+	}
+
+	public synchronized int size() {
+		return entriesById.size();
+	}
+
+	public void touch() {
+		lastAccess = System.currentTimeMillis();
+	}
+
+	public long getLastAccess() {
+		return lastAccess;
+	}
+
+	/** Index of the first entry with a game time of at least <code>time</code>. */
+	private static int lowerBound(List<IndexedTagEntry> entries, int time) {
+		int lo = 0, hi = entries.size();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (entries.get(mid).getGameTime() < time) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/** Index of the first entry with a game time greater than <code>time</code>. */
+	private static int upperBound(List<IndexedTagEntry> entries, int time) {
+		int lo = 0, hi = entries.size();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (entries.get(mid).getGameTime() <= time) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+}
@@ -0,0 +1,57 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package nl.waisda.repositories;
+
+import java.util.List;
+
+import javax.persistence.TypedQuery;
+
+import nl.waisda.domain.EuropeanaImportJob;
+
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+@Transactional
+public class EuropeanaImportJobRepository extends
+		AbstractRepository<EuropeanaImportJob> {
+
+	public EuropeanaImportJobRepository() {
+		super(EuropeanaImportJob.class);
+	}
+
+	/**
+	 * Returns the most recent job for the query that did not finish, i.e.
+	 * that was stopped, failed or was interrupted while running.
+	 */
+	public EuropeanaImportJob getUnfinished(String searchQuery) {
+		TypedQuery<EuropeanaImportJob> query = getEntityManager()
+				.createQuery(
+						"SELECT j FROM EuropeanaImportJob j WHERE j.searchQuery = :searchQuery "
+								+ "AND j.status <> :finished ORDER BY j.id DESC",
+						EuropeanaImportJob.class)
+				.setParameter("searchQuery", searchQuery)
+				.setParameter("finished", EuropeanaImportJob.Status.FINISHED)
+				.setMaxResults(1);
+		List<EuropeanaImportJob> result = query.getResultList();
+		return result.isEmpty() ? null : result.get(0);
+	}
+
+}
@@ -0,0 +1,68 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package nl.waisda.repositories;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import nl.waisda.domain.EuropeanaImportRecord;
+
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+@Repository
+@Transactional
+public class EuropeanaImportRecordRepository extends
+		AbstractRepository<EuropeanaImportRecord> {
+
+	public EuropeanaImportRecordRepository() {
+		super(EuropeanaImportRecord.class);
+	}
+
+	/** Returns the known records among the given Europeana ids, by id. */
+	public Map<String, EuropeanaImportRecord> getByEuropeanaIds(
+			Collection<String> europeanaIds) {
+		Map<String, EuropeanaImportRecord> result = new HashMap<String, EuropeanaImportRecord>();
+		if (!europeanaIds.isEmpty()) {
+			for (EuropeanaImportRecord record : getEntityManager()
+					.createQuery(
+							"SELECT r FROM EuropeanaImportRecord r WHERE r.europeanaId IN (:ids)",
+							EuropeanaImportRecord.class)
+					.setParameter("ids", europeanaIds).getResultList()) {
+				result.put(record.getEuropeanaId(), record);
+			}
+		}
+		return result;
+	}
+
+	/** Stores the records with a single flush. */
+	public void storeAll(Collection<EuropeanaImportRecord> records) {
+		for (EuropeanaImportRecord record : records) {
+			if (record.getId() > 0) {
+				getEntityManager().merge(record);
+			} else {
+				getEntityManager().persist(record);
+			}
+		}
+		getEntityManager().flush();
+	}
+
+}
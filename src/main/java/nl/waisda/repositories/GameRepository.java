@@ -29,7 +29,6 @@ import javax.persistence.TypedQuery;
 
 import nl.waisda.domain.Game;
 import nl.waisda.domain.User;
-import nl.waisda.domain.Video;
 import nl.waisda.model.GameScore;
 
 import org.apache.log4j.Logger;
@@ -72,31 +71,31 @@ public class GameRepository extends AbstractRepository<Game> {
 		return query.getResultList();
 	}
 
-	public List<Game> getQueuesFor(Date date, Video video) {
-		Calendar c = Calendar.getInstance();
-		c.setTime(date);
-		c.add(Calendar.MILLISECOND, Game.QUEUE_TIME_MS);
-		Date date2 = c.getTime();
-
-		TypedQuery<Game> query = getEntityManager()
-				.createQuery(
-						"SELECT g from Game g WHERE g.video = :v AND g.start BETWEEN :d1 AND :d2",
-						Game.class);
-		query.setParameter("v", video);
-		query.setParameter("d1", date);
-		query.setParameter("d2", date2);
-		return query.getResultList();
-	}
-
-	public GameScore getLastGamePlayed(int userId) {
-		List<GameScore> games = getRecentGames(userId, 1);
-		if (games.size() > 0) {
-			return games.get(0);
-		} else {
-			return null;
-		}
-	}
-
+	/** Returns the game of the video in the given queue slot, if any. */
+	public Game getByQueueSlot(int videoId, long queueSlot) {
+		TypedQuery<Game> query = getEntityManager().createQuery(
+				"SELECT g from Game g WHERE g.video.id = :v AND g.queueSlot = :s",
+				Game.class);
+		query.setParameter("v", videoId);
+		query.setParameter("s", queueSlot);
+		return getSingleResult(query);
+	}
+
+	/**
+	 * Returns the game of the video that is queued at the given time, i.e.
+	 * starts after it, if any. If there are several, the first to start.
+	 */
+	public Game getQueued(int videoId, Date date) {
+		TypedQuery<Game> query = getEntityManager().createQuery(
+				"SELECT g from Game g WHERE g.video.id = :v AND g.start > :d "
+						+ "ORDER BY g.start", Game.class);
+		query.setParameter("v", videoId);
+		query.setParameter("d", date);
+		query.setMaxResults(1);
+		List<Game> result = query.getResultList();
+		return result.isEmpty() ? null : result.get(0);
+	}
+
 	public List<GameScore> getRecentGames(int userId, int amount) {
 		String q = "SELECT g, SUM(t.score), COUNT(t) FROM TagEntry t "
 				+ "INNER JOIN t.game g WHERE t.owner.id = :userId "
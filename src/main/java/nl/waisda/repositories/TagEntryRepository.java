@@ -20,19 +20,19 @@
 package nl.waisda.repositories;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
 import javax.persistence.Query;
-import javax.persistence.TypedQuery;
 
 import nl.waisda.domain.TagEntry;
 import nl.waisda.domain.User;
-import nl.waisda.domain.UserScore;
-import nl.waisda.model.TagCloudItem;
+import nl.waisda.domain.Video;
+import nl.waisda.model.DictionaryIndex;
+import nl.waisda.model.IndexedTagEntry;
 import nl.waisda.services.ScoringService;
 import nl.waisda.services.ScoringServiceIF;
+import nl.waisda.services.TagMatchIndexService;
 
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -49,6 +49,9 @@ public class TagEntryRepository extends AbstractRepository<TagEntry> {
 	@Autowired
 	private ScoringServiceIF scoringService;
 
+	@Autowired
+	private TagMatchIndexService matchIndex;
+
 	public TagEntryRepository() {
 		super(TagEntry.class);
 	}
@@ -70,56 +73,64 @@ public class TagEntryRepository extends AbstractRepository<TagEntry> {
 		.getResultList();
 	}
 	
-	public boolean alreadyEntered(int gameId, String normalizedTag,
-			int aroundTime, int ownerId) {
-		return !getEntityManager()
-				.createQuery(
-						"SELECT t FROM TagEntry t " +
-						"WHERE t.game.id = :gameId " +
-						"AND t.normalizedTag = :normalizedTag " +
-						"AND t.gameTime BETWEEN :t1 AND :t2 " +
-						"AND t.owner.id = :ownerId",
-						TagEntry.class)
-				.setParameter("gameId", gameId)
-				.setParameter("normalizedTag", normalizedTag)
-				.setParameter("t1",
-						aroundTime - ScoringServiceIF.MAX_LOOKBACK_TIME)
-				.setParameter("t2",
-						aroundTime + ScoringServiceIF.MAX_LOOKBACK_TIME)
-				.setParameter("ownerId", ownerId).getResultList().isEmpty();
+	/**
+	 * Reads the fields needed by the tag match index for all tag entries of a
+	 * video, without loading the entities themselves.
+	 */
+	public List<IndexedTagEntry> getIndexedEntries(int videoId) {
+		return getIndexedEntries(videoId, 0);
 	}
 
-	@SuppressWarnings("unchecked")
-	public List<TagEntry> getMatches(int videoId, String normalizedTag,
-			int aroundTime) {
-		String q = "SELECT t.* FROM TagEntry t "
-				+ "INNER JOIN Game g ON t.game_id = g.id "
-				+ "WHERE g.video_id = :videoId "
-				+ "  AND t.normalizedTag = :normalizedTag "
-				+ "  AND t.gameTime between :t1 AND :t2 "
-				+ "UNION "
-				+ "SELECT t.* FROM TagEntry t "
-				+ "INNER JOIN MatchingTag s on s.lo = t.normalizedTag "
-				+ "INNER JOIN Game g on g.id = t.game_id "
-				+ "WHERE s.hi = :normalizedTag "
-				+ "  AND g.video_id = :videoId "
-				+ "  AND t.gametime between :t1 AND :t2 "
-				+ "UNION "
-				+ "SELECT t.* FROM TagEntry t "
-				+ "INNER JOIN MatchingTag s on s.hi = t.normalizedTag "
-				+ "INNER JOIN Game g on g.id = t.game_id "
-				+ "WHERE s.lo = :normalizedTag "
-				+ "  AND g.video_id = :videoId "
-				+ "  AND t.gametime between :t1 AND :t2";
-		return getEntityManager()
-				.createNativeQuery(q, TagEntry.class)
+	/**
+	 * Reads the fields needed by the tag match index for the tag entries of a
+	 * video with an id above <code>afterId</code>.
+	 */
+	public List<IndexedTagEntry> getIndexedEntries(int videoId, int afterId) {
+		String q = "SELECT t.id, t.game.id, o.id, o.name, t.tag, t.normalizedTag, "
+				+ "t.gameTime, t.dictionary, t.pioneer, m.id, t.score "
+				+ "FROM TagEntry t JOIN t.owner o LEFT JOIN t.matchingTagEntry m "
+				+ "WHERE t.game.video.id = :videoId AND t.id > :afterId";
+		List<?> rows = getEntityManager().createQuery(q)
 				.setParameter("videoId", videoId)
-				.setParameter("normalizedTag", normalizedTag)
-				.setParameter("t1",
-						aroundTime - ScoringServiceIF.MAX_LOOKBACK_TIME)
-				.setParameter("t2",
-						aroundTime + ScoringServiceIF.MAX_LOOKBACK_TIME)
-				.getResultList();
+				.setParameter("afterId", afterId).getResultList();
+
+		List<IndexedTagEntry> res = new ArrayList<IndexedTagEntry>(rows.size());
+		for (Object row : rows) {
+			Object[] values = (Object[]) row;
+			Integer matchId = (Integer) values[9];
+			res.add(new IndexedTagEntry((Integer) values[0],
+					(Integer) values[1], (Integer) values[2],
+					(String) values[3], (String) values[4],
+					(String) values[5], (Integer) values[6],
+					values[7] != null, (Boolean) values[8],
+					matchId != null ? matchId : 0, (Integer) values[10]));
+		}
+		return res;
+	}
+
+	/**
+	 * Returns the id of the last tag entry created before <code>date</code>,
+	 * or 0 if there is none.
+	 */
+	public int getLastIdBefore(Date date) {
+		List<Integer> ids = getEntityManager()
+				.createQuery(
+						"SELECT t.id FROM TagEntry t WHERE t.creationDate < :date "
+								+ "ORDER BY t.creationDate DESC", Integer.class)
+				.setParameter("date", date).setMaxResults(1).getResultList();
+		return ids.isEmpty() ? 0 : ids.get(0);
+	}
+
+	/** Returns all pairs of matching tags as <code>{lo, hi}</code> arrays. */
+	public List<String[]> getMatchingTags() {
+		List<?> rows = getEntityManager().createNativeQuery(
+				"SELECT s.lo, s.hi FROM MatchingTag s").getResultList();
+		List<String[]> res = new ArrayList<String[]>(rows.size());
+		for (Object row : rows) {
+			Object[] values = (Object[]) row;
+			res.add(new String[] { (String) values[0], (String) values[1] });
+		}
+		return res;
 	}
 
 	public List<TagEntry> getEntries(int gameId, int ownerId) {
@@ -147,29 +158,53 @@ public class TagEntryRepository extends AbstractRepository<TagEntry> {
 				.getResultList();
 	}
 
-	public List<UserScore> getParticipants(int gameId) {
-		String q = "select p.user_id, u.name, ifnull(sum(t.score), 0) as score " +
+	/**
+	 * Returns the participants of a game. The users in the result only have
+	 * their id, name and email address set.
+	 */
+	public List<User> getParticipants(int gameId) {
+		String q = "select p.user_id, u.name, u.email " +
 				"from Participant p " +
 				"inner join User u on p.user_id = u.id " +
-				"left join TagEntry t on p.user_id = t.owner_id and p.game_id = t.game_id " +
-				"where p.game_id = :gameId " +
-				"group by p.user_id, p.game_id " +
-				"order by score desc";
+				"where p.game_id = :gameId";
 		List<?> arrays = getEntityManager().createNativeQuery(q).setParameter("gameId", gameId).getResultList();
 		
-		List<UserScore> res = new ArrayList<UserScore>(arrays.size());
+		List<User> res = new ArrayList<User>(arrays.size());
 		
 		for (Object row : arrays) {
 			Object[] values = (Object[]) row;
 			User u = new User();
 			u.setId((int) (Integer) values[0]);
 			u.setName((String) values[1]);
-			res.add(new UserScore(u, ((Number) values[2]).intValue()));
+			if (values[2] != null) {
+				u.setEmail((String) values[2]);
+			}
+			res.add(u);
 		}
 
 		return res;
 	}
 
+	/**
+	 * Reads the score of every tag entry of a game as
+	 * <code>{id, ownerId, score, matched (0 or 1)}</code>.
+	 */
+	public List<int[]> getScoredEntries(int gameId) {
+		String q = "SELECT t.id, t.owner.id, t.score, m.id "
+				+ "FROM TagEntry t LEFT JOIN t.matchingTagEntry m "
+				+ "WHERE t.game.id = :gameId";
+		List<?> rows = getEntityManager().createQuery(q)
+				.setParameter("gameId", gameId).getResultList();
+
+		List<int[]> res = new ArrayList<int[]>(rows.size());
+		for (Object row : rows) {
+			Object[] values = (Object[]) row;
+			res.add(new int[] { (Integer) values[0], (Integer) values[1],
+					(Integer) values[2], values[3] != null ? 1 : 0 });
+		}
+		return res;
+	}
+
 	@Transactional
 	public void moveTagEntries(User source, User target) {
 		Query q = getEntityManager().createQuery(
@@ -179,6 +214,7 @@ public class TagEntryRepository extends AbstractRepository<TagEntry> {
 		int n = q.executeUpdate();
 		log.info(String.format("Moved %d tag entries from user %d to user %d",
 				n, source.getId(), target.getId()));
+		matchIndex.moveOwner(source, target);
 
 		for (TagEntry t : getUnfairTagEntries(target.getId())) {
 			log.info("Reowning tag " + t.getId());
@@ -203,37 +239,22 @@ public class TagEntryRepository extends AbstractRepository<TagEntry> {
 		return (int) (long) (Long) q.getSingleResult();
 	}
 	
-	public List<TagCloudItem> getTagCloud() {
-		// We order by decreasing count so that we may easily assign
-		// relativeSizes in the for loop below.
-		String q = "select t.normalizedTag from TagEntry t "
-				+ "where creationDate >= now() - interval 7 day "
-				+ "group by t.normalizedTag "
-				+ "order by count(*) desc limit 20";
+	/**
+	 * Returns the <code>max</code> most frequent normalized tags entered
+	 * between <code>from</code> (inclusive) and <code>to</code>, as rows of
+	 * normalized tag and count, most frequent first.
+	 */
+	public List<Object[]> getTagCounts(Date from, Date to, int max) {
+		String q = "select t.normalizedTag, count(t) from TagEntry t "
+				+ "where t.creationDate >= :from and t.creationDate < :to "
+				+ "group by t.normalizedTag order by count(t) desc";
 		@SuppressWarnings("unchecked")
-		List<String> tags = getEntityManager().createNativeQuery(q)
-				.getResultList();
-		List<TagCloudItem> cloud = new ArrayList<TagCloudItem>(tags.size());
-		int i = 0;
-		for (String tag : tags) {
-			int size = 5 - i * 5 / tags.size();
-			TagCloudItem item = new TagCloudItem(tag, size);
-			cloud.add(item);
-			i++;
-		}
-		Collections.shuffle(cloud);
-		return cloud;
+		List<Object[]> rows = getEntityManager().createQuery(q)
+				.setParameter("from", from).setParameter("to", to)
+				.setMaxResults(max).getResultList();
+		return rows;
 	}
 	
-	public int countPioneerMatchesSince(int ownerId, Date since) {
-		String q = "select count(t) from TagEntry t inner join t.matchingTagEntry t2 "
-				+ "where t.owner.id = :ownerId and t.pioneer = true "
-				+ "and t.game.id < t2.game.id and t2.creationDate >= :since ";
-		return (int) (long) getEntityManager().createQuery(q, Long.class)
-				.setParameter("ownerId", ownerId).setParameter("since", since)
-				.getSingleResult();
-	}
-
 	public List<TagEntry> getLastPioneerMatches(int ownerId, int count) {
 		String q = "select t from TagEntry t inner join t.matchingTagEntry t2 "
 				+ "where t.owner.id = :ownerId and t.pioneer = true "
@@ -262,28 +283,63 @@ public class TagEntryRepository extends AbstractRepository<TagEntry> {
 				.getResultList();
 	}
 
-	@SuppressWarnings("unchecked")
-	public List<String> getDictionariesContaining(String tag) {
-        String normalizedTag = TagEntry.normalize(tag);
-
-        Query query = getEntityManager().createNativeQuery(
-                "SELECT e.dictionary FROM DictionaryEntry e "
-                        + "WHERE e.normalizedTag = :normalizedTag");
-        query.setParameter("normalizedTag", normalizedTag);
+	/** Loads all dictionary entries into a dictionary index. */
+	public DictionaryIndex getDictionaryIndex() {
+		List<?> rows = getEntityManager().createNativeQuery(
+				"SELECT e.normalizedTag, e.dictionary FROM DictionaryEntry e")
+				.getResultList();
+		DictionaryIndex.Builder builder = new DictionaryIndex.Builder();
+		for (Object row : rows) {
+			Object[] values = (Object[]) row;
+			builder.add((String) values[0], (String) values[1]);
+		}
+		return builder.build();
+	}
 
-        return query.getResultList();
+	/**
+	 * Returns the videos that have been tagged at or after the given time.
+	 */
+	public List<Video> getVideosTaggedSince(Date since) {
+		String q = "SELECT DISTINCT v FROM TagEntry t JOIN t.game g JOIN g.video v "
+				+ "WHERE t.creationDate >= :since";
+		return getEntityManager().createQuery(q, Video.class)
+				.setParameter("since", since).getResultList();
 	}
 
-	public List<TagEntry> getTagsForVideoEnteredAfter(int videoId, Date timestamp){
-		StringBuilder q = new StringBuilder("SELECT t FROM TagEntry t "
-				+ "WHERE t.game.video.id = :videoId");
-		if(timestamp != null)
-			q.append(" AND t.creationDate >= :timestamp");
-		q.append(" ORDER BY (t.creationDate)");
-		TypedQuery<TagEntry> query = getEntityManager().createQuery(q.toString(), TagEntry.class)
-				.setParameter("videoId", videoId);
-		if(timestamp != null)
-			query = query.setParameter("timestamp", timestamp);
+	/**
+	 * Returns a page of the tags entered for a video, as rows of [id, tag,
+	 * gameTime, owner id] ordered by id. Only these columns are selected, so
+	 * no entities (and no eagerly fetched matches) are loaded.
+	 * <p>
+	 * Pages are addressed by the id of the last row of the previous page
+	 * rather than by an offset, so fetching a page does not get slower
+	 * further into the export. The tags of a video are spread over its
+	 * games; ordering by id lets the primary key (or, per game, the game_id
+	 * key) deliver them in order without sorting them all first.
+	 * 
+	 * @param since
+	 *            if not null, only tags entered at or after this time
+	 * @param afterId
+	 *            only tags with a greater id; 0 to start
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Object[]> getExportPage(int videoId, Date since, int afterId,
+			int maxResults) {
+		StringBuilder q = new StringBuilder(
+				"SELECT t.id, t.tag, t.gameTime, t.owner.id "
+						+ "FROM TagEntry t WHERE t.game.video.id = :videoId"
+						+ " AND t.id > :afterId");
+		if (since != null) {
+			q.append(" AND t.creationDate >= :since");
+		}
+		q.append(" ORDER BY t.id");
+		Query query = getEntityManager().createQuery(q.toString())
+				.setParameter("videoId", videoId)
+				.setParameter("afterId", afterId)
+				.setMaxResults(maxResults);
+		if (since != null) {
+			query.setParameter("since", since);
+		}
 		return query.getResultList();
 	}
 
@@ -19,14 +19,11 @@
 
 package nl.waisda.repositories;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import javax.persistence.TypedQuery;
 
 import nl.waisda.domain.User;
-import nl.waisda.domain.UserScore;
-import nl.waisda.model.TopScores;
 
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
@@ -65,29 +62,94 @@ public class UserRepository extends AbstractRepository<User> {
 		return getSingleResult(query);
 	}
 
-	/** Warning: User objects returned only have their id, name and email set! */
-	public TopScores getTopScores() {
-		String q = "select u.id, u.email, u.name, sum(t.score) from User u "
-				+ "inner join TagEntry t on t.owner_id = u.id "
-				+ "where u.email is not null and t.creationDate >= date(now() - interval 6 day) "
-				+ "group by u.id having sum(t.score) > 0 order by sum(score) desc";
+	/**
+	 * Adds the given deltas to the total score, tag count and match count of a
+	 * user. The update is atomic, so concurrent tag entries don't need a lock
+	 * on the user.
+	 */
+	public void addTotals(int userId, int scoreDelta, int tagsDelta,
+			int matchesDelta) {
+		getEntityManager()
+				.createNativeQuery(
+						"UPDATE User SET totalScore = totalScore + :score, "
+								+ "totalTags = totalTags + :tags, "
+								+ "totalMatches = totalMatches + :matches "
+								+ "WHERE id = :userId")
+				.setParameter("score", scoreDelta)
+				.setParameter("tags", tagsDelta)
+				.setParameter("matches", matchesDelta)
+				.setParameter("userId", userId).executeUpdate();
+	}
+
+	/**
+	 * Counts a match by another player with a pioneer tag of the user, made
+	 * since the user last finished a game.
+	 */
+	public void addNewPioneerMatch(int userId) {
+		getEntityManager()
+				.createNativeQuery(
+						"UPDATE User SET countNewPioneerMatches = countNewPioneerMatches + 1 "
+								+ "WHERE id = :userId")
+				.setParameter("userId", userId).executeUpdate();
+	}
+
+	public void resetNewPioneerMatches(int userId) {
+		getEntityManager()
+				.createNativeQuery(
+						"UPDATE User SET countNewPioneerMatches = 0 WHERE id = :userId")
+				.setParameter("userId", userId).executeUpdate();
+	}
+
+	/** Adds the totals of <code>source</code> to <code>target</code>. */
+	public void moveTotals(User source, User target) {
+		getEntityManager()
+				.createNativeQuery(
+						"UPDATE User t, User s "
+								+ "SET t.totalScore = t.totalScore + s.totalScore, "
+								+ "t.totalTags = t.totalTags + s.totalTags, "
+								+ "t.totalMatches = t.totalMatches + s.totalMatches, "
+								+ "t.countNewPioneerMatches = t.countNewPioneerMatches + s.countNewPioneerMatches, "
+								+ "s.totalScore = 0, s.totalTags = 0, s.totalMatches = 0, "
+								+ "s.countNewPioneerMatches = 0 "
+								+ "WHERE t.id = :targetId AND s.id = :sourceId")
+				.setParameter("targetId", target.getId())
+				.setParameter("sourceId", source.getId()).executeUpdate();
+	}
+
+	/**
+	 * Recomputes the totals of all users from their tag entries, and returns
+	 * the number of users whose totals had drifted.
+	 */
+	public int rebuildTotals() {
+		return getEntityManager()
+				.createNativeQuery(
+						"UPDATE User u LEFT JOIN ("
+								+ "  SELECT owner_id, SUM(score) AS score, COUNT(*) AS tags, "
+								+ "  COUNT(matchingTagEntry_id) AS matches "
+								+ "  FROM TagEntry GROUP BY owner_id"
+								+ ") t ON t.owner_id = u.id "
+								+ "SET u.totalScore = IFNULL(t.score, 0), "
+								+ "u.totalTags = IFNULL(t.tags, 0), "
+								+ "u.totalMatches = IFNULL(t.matches, 0) "
+								+ "WHERE u.totalScore <> IFNULL(t.score, 0) "
+								+ "OR u.totalTags <> IFNULL(t.tags, 0) "
+								+ "OR u.totalMatches <> IFNULL(t.matches, 0)")
+				.executeUpdate();
+	}
+
+	/**
+	 * Returns the score of every user per day over the last <code>days</code>
+	 * days, as rows of user id, email, name, day and score.
+	 */
+	public List<Object[]> getDailyScores(int days) {
+		String q = "select u.id, u.email, u.name, date(t.creationDate), sum(t.score) "
+				+ "from User u inner join TagEntry t on t.owner_id = u.id "
+				+ "where t.creationDate >= date(now() - interval :days day) "
+				+ "group by u.id, date(t.creationDate)";
 		@SuppressWarnings("unchecked")
 		List<Object[]> results = getEntityManager().createNativeQuery(q)
-				.getResultList();
-		ArrayList<UserScore> scores = new ArrayList<UserScore>(results.size());
-		int i = 0;
-		for (Object[] row : results) {
-			User u = new User();
-			u.setId((int) (Integer) row[0]);
-			u.setEmail((String) row[1]);
-			u.setName((String) row[2]);
-			int score = ((Number) row[3]).intValue();
-			UserScore us = new UserScore(u, score);
-			us.setPosition(i);
-			scores.add(us);
-			i++;
-		}
-		return new TopScores(scores);
+				.setParameter("days", days - 1).getResultList();
+		return results;
 	}
 
 }
@@ -19,7 +19,12 @@
 
 package nl.waisda.repositories;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.persistence.TypedQuery;
 
@@ -53,31 +58,56 @@ public class VideoRepository extends AbstractRepository<Video> {
     }
 
 	/**
-	 * Currently this method makes a random, unbiased selection. If you would
-	 * like to filter certain video's, or use statistics to influence the video
-	 * selection, you can do that here.
+	 * Looks up the videos with the given source urls in a single query. Like
+	 * getBySourceUrl, the newest video is returned for urls that occur more
+	 * than once.
 	 */
-	public List<Video> getFeaturedVideos() {
-		String q = "SELECT v FROM Video v WHERE v.enabled = true ORDER BY RAND()";
-		// Hibernate requires the "= true"
+	public Map<String, Video> getBySourceUrls(Collection<String> sourceUrls) {
+		Map<String, Video> result = new HashMap<String, Video>();
+		if (!sourceUrls.isEmpty()) {
+			String q = "SELECT v FROM Video v WHERE v.sourceUrl IN (:urls) ORDER BY v.id";
+			for (Video video : getEntityManager().createQuery(q, Video.class)
+					.setParameter("urls", sourceUrls).getResultList()) {
+				result.put(video.getSourceUrl(), video);
+			}
+		}
+		return result;
+	}
 
-		TypedQuery<Video> query = getEntityManager()
-				.createQuery(q, Video.class);
-		query.setMaxResults(NCHANNELS);
-		return query.getResultList();
+	/**
+	 * Inserts or updates the videos with a single flush, so Hibernate can
+	 * send the statements in JDBC batches.
+	 */
+	public void storeAll(Collection<Video> videos) {
+		for (Video video : videos) {
+			if (video.getId() > 0) {
+				getEntityManager().merge(video);
+			} else {
+				getEntityManager().persist(video);
+			}
+		}
+		getEntityManager().flush();
 	}
 
-	public int getHighscore(int videoId) {
-		String q = "SELECT MAX(score) FROM (SELECT SUM(t.score) AS score "
+	/**
+	 * Returns the highscore of every video that has been played: the highest
+	 * total score of any of its games, by video id.
+	 */
+	public Map<Integer, Integer> getHighscores() {
+		String q = "SELECT video_id, MAX(score) FROM (SELECT g.video_id, SUM(t.score) AS score "
 				+ "FROM TagEntry t INNER JOIN Game g on t.game_id = g.id "
-				+ "WHERE g.video_id = :videoId GROUP BY g.id) games";
-		Object result = getEntityManager().createNativeQuery(q)
-				.setParameter("videoId", videoId).getSingleResult();
-		if (result == null) {
-			return 0;
-		} else {
-			return ((Number) result).intValue();
+				+ "GROUP BY g.id, g.video_id) games GROUP BY video_id";
+		@SuppressWarnings("unchecked")
+		List<Object[]> rows = getEntityManager().createNativeQuery(q)
+				.getResultList();
+		Map<Integer, Integer> highscores = new HashMap<Integer, Integer>();
+		for (Object[] row : rows) {
+			if (row[1] != null) {
+				highscores.put(((Number) row[0]).intValue(),
+						((Number) row[1]).intValue());
+			}
 		}
+		return highscores;
 	}
 
 	public List<Video> getTopVideosForTag(String normalizedTag, int maxResults) {
@@ -92,6 +122,28 @@ public class VideoRepository extends AbstractRepository<Video> {
 		return query.getResultList();
 	}
 
+	/**
+	 * Locks the row of the video until the current transaction ends, so
+	 * transactions that lock the same video, on any node, run one after the
+	 * other.
+	 */
+	public void lock(int videoId) {
+		getEntityManager()
+				.createNativeQuery("SELECT id FROM Video WHERE id = :id FOR UPDATE")
+				.setParameter("id", videoId).getResultList();
+	}
+
+	/** Returns those of the given ids for which a video exists. */
+	public Set<Integer> getExistingIds(Collection<Integer> ids) {
+		Set<Integer> result = new HashSet<Integer>();
+		if (!ids.isEmpty()) {
+			String q = "SELECT v.id FROM Video v WHERE v.id IN (:ids)";
+			result.addAll(getEntityManager().createQuery(q, Integer.class)
+					.setParameter("ids", ids).getResultList());
+		}
+		return result;
+	}
+
 	public boolean existsWithFragmentID(String fragmentID){
 		String q = "SELECT v FROM Video v WHERE v.fragmentID = :fragmentID";
 		return getEntityManager().createQuery(q, Video.class)
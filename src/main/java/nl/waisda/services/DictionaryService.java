@@ -0,0 +1,108 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package nl.waisda.services;
+
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+
+import nl.waisda.model.DictionaryIndex;
+import nl.waisda.model.Value;
+import nl.waisda.repositories.TagEntryRepository;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps the DictionaryEntry table in memory as a {@link DictionaryIndex}, so
+ * dictionary matches are found without a query per tag entry. The index is
+ * loaded at startup and replaced as a whole by {@link #reload()} after the
+ * dictionaries have been changed.
+ */
+@Service
+public class DictionaryService {
+
+	private static final Logger log = Logger.getLogger(DictionaryService.class);
+
+	@Autowired
+	private TagEntryRepository tagEntryRepo;
+
+	@Autowired
+	private MetricsService metrics;
+
+	private volatile DictionaryIndex index = DictionaryIndex.EMPTY;
+
+	private volatile long lastLoadMs;
+
+	@PostConstruct
+	public void init() {
+		metrics.register("dictionaries.tags", new Value<Integer>() {
+			@Override
+			public Integer get() {
+				return index.size();
+			}
+		});
+		metrics.register("dictionaries.bytes", new Value<Long>() {
+			@Override
+			public Long get() {
+				return index.getMemoryFootprint();
+			}
+		});
+		metrics.register("dictionaries.lastLoadMs", new Value<Long>() {
+			@Override
+			public Long get() {
+				return lastLoadMs;
+			}
+		});
+		reload();
+	}
+
+	/** Loads the dictionaries from the database, replacing the current index. */
+	public synchronized DictionaryIndex reload() {
+		long start = System.currentTimeMillis();
+		DictionaryIndex loaded = tagEntryRepo.getDictionaryIndex();
+		lastLoadMs = System.currentTimeMillis() - start;
+		index = loaded;
+		log.info(String.format(
+				"Loaded %d tags in dictionaries %s in %d ms; using about %d KB",
+				loaded.size(), loaded.getDictionaryNames(), lastLoadMs,
+				loaded.getMemoryFootprint() / 1024));
+		return loaded;
+	}
+
+	/**
+	 * Returns the names of the dictionaries containing
+	 * <code>normalizedTag</code>, sorted.
+	 */
+	public List<String> getDictionaries(String normalizedTag) {
+		return index.getDictionaries(normalizedTag);
+	}
+
+	public DictionaryIndex getIndex() {
+		return index;
+	}
+
+	public long getLastLoadMs() {
+		return lastLoadMs;
+	}
+
+}
@@ -1,18 +1,29 @@
 package nl.waisda.services;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.annotation.PreDestroy;
+
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
@@ -21,8 +32,8 @@ import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.util.EntityUtils;
 import org.apache.log4j.Logger;
-import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.ObjectMapper;
@@ -30,17 +41,34 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 
+import nl.waisda.domain.EuropeanaImportJob;
+import nl.waisda.domain.EuropeanaImportRecord;
+import nl.waisda.domain.EuropeanaImportRecord.Outcome;
 import nl.waisda.domain.PlayerType;
 import nl.waisda.domain.Video;
 import nl.waisda.exceptions.EuropeanaImportException;
+import nl.waisda.model.Util;
 import nl.waisda.model.europeana.*;
+import nl.waisda.repositories.EuropeanaImportJobRepository;
+import nl.waisda.repositories.EuropeanaImportRecordRepository;
 import nl.waisda.repositories.VideoRepository;
 
 /**
  * Implementation for the Europeana import service
+ * <p>
+ * The import is pipelined: while the records of one page of search results are stored, the next page is already
+ * being fetched, and the detailed records of both pages are fetched concurrently on a pool of
+ * waisda.import.europeana.detailthreads threads. Each stage reports its progress under europeanaImport.* in the
+ * metrics.
+ * <p>
+ * Every import is recorded as an EuropeanaImportJob that is checkpointed after each page, up to the first page that
+ * failed to store; a job with a failed page ends as FAILED. Importing a query whose last job did not finish resumes
+ * that job. The outcome of every record is stored with a hash of its search result;
+ * records whose search result did not change since they were stored are skipped, without fetching their details.
  * @author Danny Sedney (sdengineering77@gmail.com)
  */
 @Service
@@ -55,6 +83,8 @@ public class EuropeanaImportService implements EuropeanaImportServiceIF, Initial
     private static final Pattern XML_DURATION_PATTERN_MN = Pattern.compile(XML_DURATION_PATTERN_STRING_MN);
     private static final Pattern XML_DURATION_PATTERN_SE = Pattern.compile(XML_DURATION_PATTERN_STRING_SE);
 
+    private static final int MAX_LOG_SIZE = 1000;
+
     private static final String MESSAGE_NO_RESPONSE = "No response received";
     private static final String MESSAGE_NO_DATA = "No data received";
 
@@ -64,12 +94,27 @@ public class EuropeanaImportService implements EuropeanaImportServiceIF, Initial
     @Autowired
     private VideoRepository videoRepository;
 
+    @Autowired
+    private VideoCatalog videoCatalog;
+
+    @Autowired
+    private EuropeanaImportJobRepository jobRepository;
+
+    @Autowired
+    private EuropeanaImportRecordRepository recordRepository;
+
     @Autowired
     private TransactionServiceIF transactionService;
 
     @Autowired
     private TaskExecutor europeanaImportThreadPool;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MetricsService metrics;
+
     @Value("${waisda.import.europeana.baseurl}")
     private String europeanaBaseURL;
 
@@ -89,13 +134,22 @@ public class EuropeanaImportService implements EuropeanaImportServiceIF, Initial
     private String validVideoUrls;
     private List<Pattern> validVideoUrlList = new LinkedList<Pattern>();
 
+    @Value("${waisda.import.europeana.detailthreads}")
+    private int detailThreads;
+
+    /** Fetches search pages and detailed records in the background */
+    private ThreadPoolExecutor fetchPool;
+
     private boolean isRunning = false;
     private boolean stopRequested = false;
     private String  runningQuery = null;
     private String  importingTitle = null;
     private int     importingQuantity = 0;
     private int     importingProgress = 0;
-    private List<String> importLog = new LinkedList<String>();
+    /** The last MAX_LOG_SIZE lines logged by the current or last import */
+    private final LinkedList<String> importLog = new LinkedList<String>();
+    /** The job of the running import; only used by the import thread */
+    private EuropeanaImportJob job;
 
     /**
      * Stop the process when the JVM tries to destroy this class
@@ -117,11 +171,41 @@ public class EuropeanaImportService implements EuropeanaImportServiceIF, Initial
         for (String validUrlExpression : validVideoUrlsSplit) {
             validVideoUrlList.add(Pattern.compile(validUrlExpression.trim()));
         }
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("europeana-fetch-");
+        threadFactory.setDaemon(true);
+        fetchPool = new ThreadPoolExecutor(detailThreads, detailThreads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), threadFactory);
+        fetchPool.allowCoreThreadTimeOut(true);
+
+        metrics.register("europeanaImport.fetchQueue", new nl.waisda.model.Value<Integer>() {
+            @Override
+            public Integer get() {
+                return fetchPool.getQueue().size();
+            }
+        });
+        metrics.register("europeanaImport.progress", new nl.waisda.model.Value<Integer>() {
+            @Override
+            public Integer get() {
+                return importingProgress;
+            }
+        });
+        metrics.register("europeanaImport.quantity", new nl.waisda.model.Value<Integer>() {
+            @Override
+            public Integer get() {
+                return importingQuantity;
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        fetchPool.shutdownNow();
     }
 
     private void logWarn(final String text) {
         LOG.warn(text);
-        importLog.add("WARN: " + text);
+        addToLog("WARN: " + text);
     }
 
     private void logError(final String text, Throwable t) {
@@ -130,12 +214,21 @@ public class EuropeanaImportService implements EuropeanaImportServiceIF, Initial
         } else {
             LOG.error(text);
         }
-        importLog.add("FAIL: " + text);
+        addToLog("FAIL: " + text);
     }
 
     private void logInfo(final String text) {
         LOG.info(text);
-        importLog.add("INFO: " + text);
+        addToLog("INFO: " + text);
+    }
+
+    private void addToLog(final String line) {
+        synchronized (importLog) {
+            importLog.add(line);
+            if (importLog.size() > MAX_LOG_SIZE) {
+                importLog.removeFirst();
+            }
+        }
     }
 
     /**
@@ -213,7 +306,6 @@ public class EuropeanaImportService implements EuropeanaImportServiceIF, Initial
 
     public void importEuropeanaData(final String query) throws EuropeanaImportException {
         StatusLine status = null;
-        HttpResponse response = null;
         EuropeanaResponse data = null;
         int start = 0;
         int end = Integer.MAX_VALUE;
@@ -231,24 +323,37 @@ public class EuropeanaImportService implements EuropeanaImportServiceIF, Initial
             importingQuantity = 0;
             importingProgress = 0;
             runningQuery = new String(query);
-            importLog.clear();
+            synchronized (importLog) {
+                importLog.clear();
+            }
         }
 
+        Future<Page> nextPage = null;
+        Page page = null;
+        EuropeanaImportJob.Status outcome = EuropeanaImportJob.Status.FAILED;
+        // once a page failed, the checkpoint stays at that page so resuming the job retries it
+        boolean pageFailed = false;
         try {
+            job = startJob(query);
+            start = job.getNextStart();
+            nextPage = fetchPool.submit(new PageFetch(query, start));
+
             while (start < end && !stopRequested) {
-                response = queryServer(query, start, null);
-                if (response == null) {
+                page = await(nextPage);
+                nextPage = null;
+                if (page.response == null) {
                     logError(MESSAGE_NO_RESPONSE, null);
                     throw new RuntimeException(MESSAGE_NO_RESPONSE);
                 }
-                data = extractEuropeanaData(response.getEntity());
+                data = page.data;
                 if (data == null) {
                     logError(MESSAGE_NO_DATA, null);
                     throw new RuntimeException(MESSAGE_NO_DATA);
                 }
-                status = response.getStatusLine();
+                status = page.response.getStatusLine();
 
                 // exported values
+                final int pageStart = start;
                 importingProgress = start + 1;
                 logInfo(String.format("> About to import items %d - %d", importingProgress, importingProgress + rowsPerQuery));
 
@@ -264,19 +369,47 @@ public class EuropeanaImportService implements EuropeanaImportServiceIF, Initial
                 importingQuantity = end;
 
                 if (status.getStatusCode() == 200) {
+                    // fetch the next page (and its detailed records) while this one is stored
+                    if (start < end) {
+                        nextPage = fetchPool.submit(new PageFetch(query, start));
+                    }
                     // import the data
                     try {
                         final List<EuropeanaRecord> itemList = data.getItems();
+                        final List<EuropeanaObject> detailList = awaitDetails(page);
+                        final Page storedPage = page;
+                        final int totalResults = end;
+                        final boolean advanceCheckpoint = !pageFailed;
+                        long storeStart = System.currentTimeMillis();
                         transactionService.runInNewTransaction(new Callable<Void>() {
                             @Override
                             public Void call() throws Exception {
-                                storeVideoData(itemList);
+                                // the page was looked up while the previous one was being stored; look again now
+                                // that it is committed, so records stored by that page are updated, not inserted again
+                                storedPage.known = recordRepository.getByEuropeanaIds(storedPage.europeanaIds);
+                                List<EuropeanaImportRecord> outcomes = storeVideoData(itemList, detailList, storedPage);
+                                recordRepository.storeAll(outcomes);
+                                // checkpoint, unless stopped halfway this page; its stored records are skipped on resume
+                                for (EuropeanaImportRecord record : outcomes) {
+                                    job.count(record.getOutcome());
+                                }
+                                if (!stopRequested && advanceCheckpoint) {
+                                    job.setNextStart(pageStart + rowsPerQuery);
+                                }
+                                job.setTotalResults(totalResults);
+                                job.setCheckpointDate(new Date());
+                                jobRepository.store(job);
                                 return null;
                             }
                         });
+                        metrics.counter("europeanaImport.storeMs").addAndGet(System.currentTimeMillis() - storeStart);
+                        metrics.increment("europeanaImport.pagesStored");
                     } catch(Throwable t) {
                         // we still try the next batch but log this error
                         logError(String.format("Error while processing videos. None of items %d - %d have been imported! Error message: %s", importingProgress, importingProgress + rowsPerQuery, t.getMessage()), t);
+                        // forget the counts of the rolled back page
+                        job = jobRepository.getById(job.getId());
+                        pageFailed = true;
                     }
                 } else {
                     // stop process
@@ -285,12 +418,30 @@ public class EuropeanaImportService implements EuropeanaImportServiceIF, Initial
                     throw new RuntimeException(message);
                 }
             }
+            if (stopRequested) {
+                outcome = EuropeanaImportJob.Status.STOPPED;
+            } else if (pageFailed) {
+                logError(String.format("Not all pages were imported; importing '%s' again resumes at item %d", query, job.getNextStart() + 1), null);
+            } else {
+                outcome = EuropeanaImportJob.Status.FINISHED;
+            }
         } finally {
+            // when stopped or failed, don't leave fetches running in the background
+            if (nextPage != null) {
+                cancel(nextPage);
+            }
+            if (page != null) {
+                cancelDetails(page);
+            }
+            if (job != null) {
+                finishJob(outcome);
+            }
             if (stopRequested) {
                 logError("Import for query '" + query + "' was stopped!", null);
             } else {
                 logInfo("Import for query '" + query + "' finished");
             }
+            job = null;
             isRunning = false;
             stopRequested = false;
             runningQuery = null;
@@ -298,77 +449,350 @@ public class EuropeanaImportService implements EuropeanaImportServiceIF, Initial
         }
     }
 
-    private void storeVideoData(List<EuropeanaRecord> recordList) {
+    /**
+     * Resumes the last unfinished job for the query, or starts a new one.
+     */
+    private EuropeanaImportJob startJob(final String query) {
+        return transactionService.runInNewTransaction(new Callable<EuropeanaImportJob>() {
+            @Override
+            public EuropeanaImportJob call() {
+                EuropeanaImportJob job = jobRepository.getUnfinished(query);
+                if (job == null) {
+                    job = new EuropeanaImportJob(query);
+                } else {
+                    logInfo(String.format("Resuming import %d (%s) at item %d", job.getId(), job, job.getNextStart() + 1));
+                    job.setStatus(EuropeanaImportJob.Status.RUNNING);
+                }
+                jobRepository.store(job);
+                return job;
+            }
+        });
+    }
+
+    private void finishJob(final EuropeanaImportJob.Status status) {
+        try {
+            transactionService.runInNewTransaction(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    job.setStatus(status);
+                    job.setCheckpointDate(new Date());
+                    jobRepository.store(job);
+                    return null;
+                }
+            });
+            logInfo(String.format("Import %d: %s", job.getId(), job));
+        } catch (RuntimeException e) {
+            logError("Failed to store the state of import " + job.getId(), e);
+        }
+    }
+
+    /**
+     * A page of search results, with the fetches of the detailed records of its videos.
+     */
+    private static final class Page {
+
+        private final HttpResponse response;
+        private final EuropeanaResponse data;
+        /** Fetch of the detailed record of each item, or null for items that aren't videos or are unchanged */
+        private final List<Future<EuropeanaObject>> details = new ArrayList<Future<EuropeanaObject>>();
+        /** Hash of the search result of each item, or null for items that aren't videos */
+        private final List<String> hashes = new ArrayList<String>();
+        /** Whether each item is stored already and its search result hasn't changed since */
+        private final List<Boolean> unchanged = new ArrayList<Boolean>();
+        /** The Europeana ids of the video items */
+        private final List<String> europeanaIds = new ArrayList<String>();
+        /** The known records among the items, by Europeana id */
+        private Map<String, EuropeanaImportRecord> known;
+
+        private Page(HttpResponse response, EuropeanaResponse data) {
+            this.response = response;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Fetches a page of search results and queues the fetches of its detailed records.
+     */
+    private final class PageFetch implements Callable<Page> {
+
+        private final String query;
+        private final int start;
+
+        private PageFetch(String query, int start) {
+            this.query = query;
+            this.start = start;
+        }
+
+        @Override
+        public Page call() {
+            long fetchStart = System.currentTimeMillis();
+            HttpResponse response = queryServer(query, start, null);
+            EuropeanaResponse data = response == null ? null : extractEuropeanaData(response.getEntity());
+            metrics.counter("europeanaImport.pageFetchMs").addAndGet(System.currentTimeMillis() - fetchStart);
+            metrics.increment("europeanaImport.pagesFetched");
+
+            Page page = new Page(response, data);
+            if (data != null && data.getItems() != null && response.getStatusLine().getStatusCode() == 200) {
+                // look up what is known about the videos of this page, to skip fetching the unchanged ones
+                for (EuropeanaRecord record : data.getItems()) {
+                    if ("VIDEO".equals(record.getType())) {
+                        page.europeanaIds.add(getEuropeanaId(record));
+                    }
+                }
+                page.known = recordRepository.getByEuropeanaIds(page.europeanaIds);
+                Set<Integer> videoIds = new HashSet<Integer>();
+                for (EuropeanaImportRecord known : page.known.values()) {
+                    videoIds.add(known.getVideoId());
+                }
+                Set<Integer> existingVideoIds = videoRepository.getExistingIds(videoIds);
+
+                for (final EuropeanaRecord record : data.getItems()) {
+                    if ("VIDEO".equals(record.getType())) {
+                        String hash = hash(record);
+                        EuropeanaImportRecord known = page.known.get(getEuropeanaId(record));
+                        boolean unchanged = known != null && known.getOutcome().isStored()
+                                && hash.equals(known.getContentHash()) && existingVideoIds.contains(known.getVideoId());
+                        page.hashes.add(hash);
+                        page.unchanged.add(unchanged);
+                        if (unchanged) {
+                            page.details.add(null);
+                            metrics.increment("europeanaImport.unchanged");
+                        } else {
+                            page.details.add(fetchPool.submit(new Callable<EuropeanaObject>() {
+                                @Override
+                                public EuropeanaObject call() {
+                                    return getDetailedRecord(record);
+                                }
+                            }));
+                        }
+                    } else {
+                        page.hashes.add(null);
+                        page.unchanged.add(false);
+                        page.details.add(null);
+                    }
+                }
+            }
+            return page;
+        }
+    }
+
+    private <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while fetching from Europeana", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Waits until all detailed records of the page have been fetched.
+     * @return the detailed record of each item of the page, or null for items that aren't videos
+     * @throws RuntimeException if fetching one of the records failed
+     */
+    private List<EuropeanaObject> awaitDetails(Page page) {
+        List<EuropeanaObject> detailList = new ArrayList<EuropeanaObject>(page.details.size());
+        for (Future<EuropeanaObject> detail : page.details) {
+            detailList.add(detail == null ? null : await(detail));
+        }
+        return detailList;
+    }
+
+    private void cancelDetails(Page page) {
+        for (Future<EuropeanaObject> detail : page.details) {
+            if (detail != null) {
+                detail.cancel(true);
+            }
+        }
+    }
+
+    private void cancel(Future<Page> pageFetch) {
+        if (!pageFetch.cancel(true) && !pageFetch.isCancelled()) {
+            // already fetched, so its detailed records have been queued
+            try {
+                cancelDetails(pageFetch.get());
+            } catch (Exception e) {
+                // the fetch failed, so there is nothing to cancel
+            }
+        }
+    }
+
+    private static String getEuropeanaId(EuropeanaRecord record) {
+        return record.getId() != null ? record.getId() : record.getLink();
+    }
+
+    /**
+     * Hashes the parts of a search result that identify a record and its content.
+     */
+    private static String hash(EuropeanaRecord record) {
+        StringBuilder content = new StringBuilder();
+        content.append(record.getId()).append('\n')
+                .append(record.getLink()).append('\n')
+                .append(record.getGuid()).append('\n')
+                .append(record.getTitleList()).append('\n')
+                .append(record.getDcCreatorList()).append('\n')
+                .append(record.getEdmPreviewList());
+        return Util.md5Hex(content.toString());
+    }
+
+    /**
+     * Records the outcome of importing a record of a page.
+     */
+    private void addOutcome(List<EuropeanaImportRecord> outcomes, Page page, EuropeanaRecord record, int index,
+                            Outcome outcome, String message, int videoId) {
+        String europeanaId = getEuropeanaId(record);
+        EuropeanaImportRecord importRecord = page.known.get(europeanaId);
+        if (importRecord == null) {
+            // later items of the page with the same id update this record
+            importRecord = new EuropeanaImportRecord(europeanaId);
+            page.known.put(europeanaId, importRecord);
+        }
+        importRecord.setContentHash(page.hashes.get(index));
+        importRecord.setOutcome(outcome);
+        importRecord.setMessage(message);
+        importRecord.setVideoId(videoId);
+        importRecord.setJobId(job.getId());
+        importRecord.setImportDate(new Date());
+        outcomes.add(importRecord);
+    }
+
+    /**
+     * Logs why a record isn't imported and records that as its outcome.
+     */
+    private void skip(List<EuropeanaImportRecord> outcomes, Page page, EuropeanaRecord record, int index,
+                      Outcome outcome, String message) {
+        logError(message, null);
+        addOutcome(outcomes, page, record, index, outcome, message, 0);
+    }
+
+    /**
+     * A valid video record of a page, waiting to be stored.
+     */
+    private static final class PendingVideo {
+        private final EuropeanaRecord record;
+        private final int index;
+        private final String videoUrl;
+        private final String imageUrl;
+        private final int mediaLength;
+        private Video video;
+        private Outcome outcome;
+
+        private PendingVideo(EuropeanaRecord record, int index, String videoUrl, String imageUrl, int mediaLength) {
+            this.record = record;
+            this.index = index;
+            this.videoUrl = videoUrl;
+            this.imageUrl = imageUrl;
+            this.mediaLength = mediaLength;
+        }
+    }
+
+    /**
+     * Stores the videos of a page. The existing videos of the page are looked up with a single query and all videos
+     * are written in a single flush.
+     * @return the outcome of each video record
+     */
+    private List<EuropeanaImportRecord> storeVideoData(List<EuropeanaRecord> recordList, List<EuropeanaObject> detailList, Page page) {
         Assert.notNull(recordList);
-        for (EuropeanaRecord record : recordList) {
+        List<EuropeanaImportRecord> outcomes = new ArrayList<EuropeanaImportRecord>();
+        List<PendingVideo> pending = new ArrayList<PendingVideo>();
+        for (int i = 0; i < recordList.size(); i++) {
+            EuropeanaRecord record = recordList.get(i);
             if (this.stopRequested) {
                 break;
             }
-            if ("VIDEO".equals(record.getType())) { // import video only...
+            if ("VIDEO".equals(record.getType()) && page.unchanged.get(i)) {
+                EuropeanaImportRecord known = page.known.get(getEuropeanaId(record));
+                addOutcome(outcomes, page, record, i, Outcome.UNCHANGED, null, known.getVideoId());
+                LOG.debug("Unchanged record with title: '" + getFirst(record.getTitleList()) + "'");
+            } else if ("VIDEO".equals(record.getType())) { // import video only...
                 importingTitle = new String(getFirst(record.getTitleList()));
-                EuropeanaObject detailedRecord = getDetailedRecord(record);
+                EuropeanaObject detailedRecord = detailList.get(i);
                 if (detailedRecord != null) {
-                    String action = null;
-                    Video  video = null;
-
                     String videoUrl = extractVideoUrl(detailedRecord);
                     String imageUrl = getFirst(record.getEdmPreviewList());
                     Integer mediaLength = getMediaLength(detailedRecord);
 
                     if (mediaLength == null || mediaLength == -1) {
-                        logError("VIDEO record with no duration set: title[0]: '" + getFirst(record.getTitleList()) + "' dcCreator[0]: '" + getFirst(record.getDcCreatorList()) + "'", null);
+                        skip(outcomes, page, record, i, Outcome.SKIPPED, "VIDEO record with no duration set: title[0]: '" + getFirst(record.getTitleList()) + "' dcCreator[0]: '" + getFirst(record.getDcCreatorList()) + "'");
                         continue;
                     }
 
                     if (StringUtils.isEmpty(videoUrl)) {
-                        logError("VIDEO record with empty video URL: title[0]: '" + getFirst(record.getTitleList()) + "' dcCreator[0]: '" + getFirst(record.getDcCreatorList()) + "'", null);
+                        skip(outcomes, page, record, i, Outcome.SKIPPED, "VIDEO record with empty video URL: title[0]: '" + getFirst(record.getTitleList()) + "' dcCreator[0]: '" + getFirst(record.getDcCreatorList()) + "'");
                         continue;
                     } else if (videoUrl.length() > 1024) {
-                        logError("VIDEO record with too long video URL: title[0]: '" + getFirst(record.getTitleList()) + "' url: '" + videoUrl + "'", null);
+                        skip(outcomes, page, record, i, Outcome.SKIPPED, "VIDEO record with too long video URL: title[0]: '" + getFirst(record.getTitleList()) + "' url: '" + videoUrl + "'");
                         continue;
                     }
 
                     if (StringUtils.isEmpty(imageUrl)) {
-                        logError("VIDEO record with empty image URL: title[0]: '" + getFirst(record.getTitleList()) + "' dcCreator[0]: '" + getFirst(record.getDcCreatorList()) + "'", null);
+                        skip(outcomes, page, record, i, Outcome.SKIPPED, "VIDEO record with empty image URL: title[0]: '" + getFirst(record.getTitleList()) + "' dcCreator[0]: '" + getFirst(record.getDcCreatorList()) + "'");
                         continue;
                     } else if (videoUrl.length() > 1024) {
-                        logError("VIDEO record with too long image URL: title[0]: '" + getFirst(record.getTitleList()) + "' url: '" + imageUrl + "'", null);
+                        skip(outcomes, page, record, i, Outcome.SKIPPED, "VIDEO record with too long image URL: title[0]: '" + getFirst(record.getTitleList()) + "' url: '" + imageUrl + "'");
                         continue;
                     }
 
-                    // only when we detected a video url
-                    // try to find an existing video with these properties
-                    // we try to use url as unique identifier
-                    video = videoRepository.getBySourceUrl(videoUrl);
-                    if (video == null) {
-                        // the repository takes care of insert or update so we can just create a new one
-                        // if no existing found
-                        video = new Video();
-                        action = "Imported";
-                    } else {
-                        action = "Updated";
-                    }
-
-                    video.setDuration(mediaLength);
-                    video.setEnabled(true);
-                    video.setFragmentID(null);
-                    video.setImageUrl(imageUrl);
-                    video.setPlayerType(PlayerType.JW);
-                    video.setSourceUrl(videoUrl);
-                    video.setStartTime(0);
-                    video.setTitle(StringUtils.left(getFirst(record.getTitleList()), 255));
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug(video.toString());
-                    }
-                    videoRepository.store(video);
-                    logInfo(action + " record with title: '" + getFirst(record.getTitleList()) + "' dcCreator: '" + getFirst(record.getDcCreatorList()) + "'");
+                    pending.add(new PendingVideo(record, i, videoUrl, imageUrl, mediaLength));
                 } else {
-                    logError("No detailed record (OBJECT) found for record with title: '" + getFirst(record.getTitleList()) + "' dcCreator[0]: '" + getFirst(record.getDcCreatorList()) + "'", null);
+                    skip(outcomes, page, record, i, Outcome.FAILED, "No detailed record (OBJECT) found for record with title: '" + getFirst(record.getTitleList()) + "' dcCreator[0]: '" + getFirst(record.getDcCreatorList()) + "'");
                 }
             } else {
                 LOG.debug("Skipped record with title: '" + getFirst(record.getTitleList()) + "' dcCreator[0]: '" + getFirst(record.getDcCreatorList()) + "' because its type isn't VIDEO");
             }
         }
+        if (pending.isEmpty()) {
+            return outcomes;
+        }
+
+        // try to find the existing videos of the page; we use the url as unique identifier
+        Set<String> videoUrls = new HashSet<String>();
+        for (PendingVideo p : pending) {
+            videoUrls.add(p.videoUrl);
+        }
+        Map<String, Video> videos = videoRepository.getBySourceUrls(videoUrls);
+        Set<Video> changed = new LinkedHashSet<Video>();
+        for (PendingVideo p : pending) {
+            p.video = videos.get(p.videoUrl);
+            if (p.video == null) {
+                // a new video; later records of this page with the same url update it
+                p.video = new Video();
+                videos.put(p.videoUrl, p.video);
+                p.outcome = Outcome.IMPORTED;
+            } else {
+                p.outcome = p.video.getId() > 0 ? Outcome.UPDATED : Outcome.IMPORTED;
+            }
+
+            Video video = p.video;
+            video.setDuration(p.mediaLength);
+            video.setEnabled(true);
+            video.setFragmentID(null);
+            video.setImageUrl(p.imageUrl);
+            video.setPlayerType(PlayerType.JW);
+            video.setSourceUrl(p.videoUrl);
+            video.setStartTime(0);
+            video.setTitle(StringUtils.left(getFirst(p.record.getTitleList()), 255));
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(video.toString());
+            }
+            changed.add(video);
+        }
+        videoRepository.storeAll(changed);
+        for (Video video : changed) {
+            videoCatalog.update(video);
+        }
+
+        for (PendingVideo p : pending) {
+            metrics.increment("europeanaImport.videosStored");
+            addOutcome(outcomes, page, p.record, p.index, p.outcome, null, p.video.getId());
+            logInfo((p.outcome == Outcome.IMPORTED ? "Imported" : "Updated") + " record with title: '" + getFirst(p.record.getTitleList()) + "' dcCreator: '" + getFirst(p.record.getDcCreatorList()) + "'");
+        }
+        return outcomes;
     }
 
     private Integer getMediaLength(final EuropeanaObject object) {
@@ -473,9 +897,13 @@ public class EuropeanaImportService implements EuropeanaImportServiceIF, Initial
         return null;
     }
 
+    /**
+     * Fetches the detailed record of a search result. Called concurrently by the fetch pool.
+     */
     private EuropeanaObject getDetailedRecord(EuropeanaRecord record) {
         InputStream is = null;
         String link = record.getLink();
+        long fetchStart = System.currentTimeMillis();
         try {
             if (StringUtils.isNotEmpty(link)) {
                 HttpResponse httpResponse;
@@ -484,27 +912,24 @@ public class EuropeanaImportService implements EuropeanaImportServiceIF, Initial
                 if (httpResponse != null && httpResponse.getStatusLine() != null && httpResponse.getStatusLine().getStatusCode() == 200) {
                     HttpEntity entity = httpResponse.getEntity();
                     if (entity != null) {
-                        String line = null;
-                        is = entity.getContent(); // DRS TODO: cleanup
-                        StringBuilder jsonbuild = new StringBuilder(); // debug code
-                        BufferedReader reader = null;
-
-                        reader = new BufferedReader(new InputStreamReader(is, "UTF-8"));
-
-                        while((line = reader.readLine()) != null) {
-                            jsonbuild.append(line);
-                        }
-                        if(LOG.isDebugEnabled()){
-                            LOG.debug(jsonbuild.toString());
+                        EuropeanaResponse response;
+                        if (LOG.isDebugEnabled()) {
+                            String json = EntityUtils.toString(entity, "UTF-8");
+                            LOG.debug(json);
+                            response = objectMapper.readValue(json, EuropeanaResponse.class);
+                        } else {
+                            // parse straight from the connection
+                            is = entity.getContent();
+                            response = objectMapper.readValue(is, EuropeanaResponse.class);
                         }
-
-                        JsonFactory fact = new JsonFactory();
-                        ObjectMapper mapper = new ObjectMapper(fact);
-                        EuropeanaResponse response = mapper.readValue(jsonbuild.toString(), EuropeanaResponse.class);
-
+                        metrics.increment("europeanaImport.detailsFetched");
                         return response.getObject();
                     }
+                } else if (httpResponse != null) {
+                    // release the connection to the pool
+                    EntityUtils.consume(httpResponse.getEntity());
                 }
+                metrics.increment("europeanaImport.detailFailures");
                 throw new RuntimeException("getDetailedRecord failed");
             }
         } catch (JsonParseException e) {
@@ -519,6 +944,7 @@ public class EuropeanaImportService implements EuropeanaImportServiceIF, Initial
             if (is != null) {
                 try { is.close(); } catch (IOException e) { }
             }
+            metrics.counter("europeanaImport.detailFetchMs").addAndGet(System.currentTimeMillis() - fetchStart);
         }
         return null;
     }
@@ -532,33 +958,21 @@ public class EuropeanaImportService implements EuropeanaImportServiceIF, Initial
 
     private EuropeanaResponse extractEuropeanaData(HttpEntity entity) {
         EuropeanaResponse response = null;
-        String line = null; // debug code
-        StringBuilder jsonbuild = new StringBuilder(); // debug code
-        BufferedReader reader = null;
 
         Assert.notNull(entity);
 
         try {
-            reader = new BufferedReader(new InputStreamReader(entity.getContent(), "UTF-8"));
-
-            while((line = reader.readLine()) != null) {
-                jsonbuild.append(line);
-            }
+            // the JSON is kept for error messages
+            String json = EntityUtils.toString(entity, "UTF-8");
             if(LOG.isDebugEnabled()){
-                LOG.debug(jsonbuild.toString());
+                LOG.debug(json);
             }
-            JsonFactory fact = new JsonFactory();
-            ObjectMapper mapper = new ObjectMapper(fact);
-            response = mapper.readValue(jsonbuild.toString(), EuropeanaResponse.class);
+            response = objectMapper.readValue(json, EuropeanaResponse.class);
 
-            response.setJSON(jsonbuild.toString());
+            response.setJSON(json);
 
         } catch(Exception e) {
             throw new RuntimeException("An error occured. Errormsg: " + e.getMessage(), e);
-        } finally {
-            try {
-                if (reader != null) reader.close();
-            } catch(Exception e) {}
         }
         return response;
     }
@@ -585,7 +999,9 @@ public class EuropeanaImportService implements EuropeanaImportServiceIF, Initial
     }
 
     public List<String> getImportLog() {
-        return importLog;
+        synchronized (importLog) {
+            return new ArrayList<String>(importLog);
+        }
     }
 
     public int getImportingProgress() {
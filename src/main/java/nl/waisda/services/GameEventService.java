@@ -0,0 +1,107 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package nl.waisda.services;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import nl.waisda.model.GameChannel;
+
+import org.apache.log4j.Logger;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * In-process event bus for running games. Changes to a game are published
+ * here, and clients long-poll for a newer version of the game's state instead
+ * of polling at a fixed rate. Tag entries stored by other application servers
+ * are published when the {@link TagMatchIndexService} reads them.
+ */
+@Service
+public class GameEventService {
+
+	/** Channels without waiting clients and events for this long are removed. */
+	public static final long MAX_IDLE_MS = 5 * 60 * 1000;
+
+	private static final Logger log = Logger.getLogger(GameEventService.class);
+
+	private final ConcurrentMap<Integer, GameChannel> channels = new ConcurrentHashMap<Integer, GameChannel>();
+
+	private GameChannel getChannel(int gameId) {
+		GameChannel channel = channels.get(gameId);
+		if (channel == null) {
+			GameChannel created = new GameChannel();
+			channel = channels.putIfAbsent(gameId, created);
+			if (channel == null) {
+				channel = created;
+			}
+		}
+		return channel;
+	}
+
+	public long getVersion(int gameId) {
+		return getChannel(gameId).getVersion();
+	}
+
+	/**
+	 * Waits at most <code>timeoutMs</code> for a change to the game if the
+	 * client already has version <code>knownVersion</code>, and returns the
+	 * current version.
+	 */
+	public long await(int gameId, long knownVersion, long timeoutMs) {
+		try {
+			return getChannel(gameId).await(knownVersion, timeoutMs);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return getVersion(gameId);
+		}
+	}
+
+	/**
+	 * Notifies the clients of a game of a change. Within a transaction the
+	 * clients are notified after commit, so they never read stale data.
+	 */
+	public void publish(final int gameId) {
+		TransactionCallbacks.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				getChannel(gameId).publish();
+			}
+		});
+	}
+
+	@Scheduled(fixedDelay = 60000)
+	public void removeIdleChannels() {
+		Iterator<Map.Entry<Integer, GameChannel>> it = channels.entrySet()
+				.iterator();
+		while (it.hasNext()) {
+			Map.Entry<Integer, GameChannel> entry = it.next();
+			if (entry.getValue().isIdle(MAX_IDLE_MS)) {
+				it.remove();
+				log.debug(String.format("Removed event channel of game %d",
+						entry.getKey()));
+			}
+		}
+	}
+
+}
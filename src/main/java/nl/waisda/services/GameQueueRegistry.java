@@ -0,0 +1,191 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package nl.waisda.services;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.PostConstruct;
+
+import nl.waisda.domain.Game;
+import nl.waisda.model.TimerWheel;
+import nl.waisda.model.Value;
+import nl.waisda.repositories.GameRepository;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps the games that are queued, i.e. start within
+ * {@link Game#QUEUE_TIME_MS}, in memory, indexed by video and by start time.
+ * Games are registered when they are created and expired by a timer wheel
+ * when they start, so joining or listing queues doesn't touch the database.
+ * The queues are read from the database once at startup. A second wheel
+ * notifies the clients of a game when it ends, so their long polls return.
+ */
+@Service
+public class GameQueueRegistry {
+
+	/** Resolution of the expiry; a started game is listed at most this long. */
+	public static final long TICK_MS = 250;
+
+	/** Number of locks the videos are spread over; a power of two. */
+	public static final int LOCK_STRIPES = 64;
+
+	private static final Logger log = Logger.getLogger(GameQueueRegistry.class);
+
+	private static final Comparator<Game> START_ORDER = new Comparator<Game>() {
+		@Override
+		public int compare(Game g1, Game g2) {
+			int c = g1.getStart().compareTo(g2.getStart());
+			return c != 0 ? c : (g1.getId() < g2.getId() ? -1
+					: (g1.getId() == g2.getId() ? 0 : 1));
+		}
+	};
+
+	@Autowired
+	private GameRepository gameRepo;
+
+	@Autowired
+	private MetricsService metrics;
+
+	@Autowired
+	private GameEventService gameEvents;
+
+	/** The queued game of each video, by video id. */
+	private final ConcurrentMap<Integer, Game> byVideo = new ConcurrentHashMap<Integer, Game>();
+
+	/** The queued games, by start time. */
+	private final ConcurrentSkipListSet<Game> byStart = new ConcurrentSkipListSet<Game>(
+			START_ORDER);
+
+	private final TimerWheel<Game> expiry = new TimerWheel<Game>(TICK_MS,
+			Game.QUEUE_TIME_MS, System.currentTimeMillis());
+
+	/** The running games, by end time. */
+	private final TimerWheel<Game> endings = new TimerWheel<Game>(TICK_MS,
+			Game.QUEUE_TIME_MS, System.currentTimeMillis());
+
+	/**
+	 * Creation of games is serialized per stripe of videos: starts of
+	 * different videos rarely wait for each other, and unlike a lock per
+	 * video the locks take constant memory.
+	 */
+	private final Lock[] locks = new Lock[LOCK_STRIPES];
+
+	{
+		for (int i = 0; i < locks.length; i++) {
+			locks[i] = new ReentrantLock();
+		}
+	}
+
+	@PostConstruct
+	public void init() {
+		for (Game game : gameRepo.getQueuesFor(new Date())) {
+			register(game);
+		}
+		log.info(String.format("Loaded %d queued games", byVideo.size()));
+		metrics.register("gameQueues.size", new Value<Integer>() {
+			@Override
+			public Integer get() {
+				return byVideo.size();
+			}
+		});
+	}
+
+	/**
+	 * Acquires the lock that serializes the creation of games for a video, so
+	 * concurrent starts don't both create a game. Waits for the lock are
+	 * counted in the metrics.
+	 * 
+	 * @return The acquired lock, to be unlocked by the caller.
+	 */
+	public Lock lock(int videoId) {
+		// spread consecutive ids over the stripes
+		int h = videoId * 0x9E3779B9;
+		Lock lock = locks[(h ^ (h >>> 16)) & (LOCK_STRIPES - 1)];
+		if (!lock.tryLock()) {
+			long t0 = System.nanoTime();
+			lock.lock();
+			metrics.increment("gameQueues.lockWaits");
+			metrics.counter("gameQueues.lockWaitMicros").addAndGet(
+					(System.nanoTime() - t0) / 1000);
+		}
+		return lock;
+	}
+
+	/** Registers a newly created (and committed) game. */
+	public void register(Game game) {
+		Game previous = byVideo.put(game.getVideo().getId(), game);
+		if (previous != null) {
+			byStart.remove(previous);
+		}
+		byStart.add(game);
+		expiry.schedule(game, game.getStart().getTime());
+	}
+
+	/**
+	 * Returns the game queued for the video at <code>now</code>, or null if
+	 * there is none.
+	 */
+	public Game getQueue(int videoId, long now) {
+		Game game = byVideo.get(videoId);
+		return game != null && isQueued(game, now) ? game : null;
+	}
+
+	/** Returns the games queued at <code>now</code>, by start time. */
+	public List<Game> getQueues(long now) {
+		List<Game> queues = new ArrayList<Game>();
+		for (Game game : byStart) {
+			if (isQueued(game, now)) {
+				queues.add(game);
+			}
+		}
+		return queues;
+	}
+
+	private static boolean isQueued(Game game, long now) {
+		long start = game.getStart().getTime();
+		return start >= now && start <= now + Game.QUEUE_TIME_MS;
+	}
+
+	@Scheduled(fixedRate = TICK_MS)
+	public void expire() {
+		long now = System.currentTimeMillis();
+		for (Game game : expiry.advance(now)) {
+			byVideo.remove(game.getVideo().getId(), game);
+			byStart.remove(game);
+			// Game.hasEnded() holds from just after the end.
+			endings.schedule(game, game.getEnd().getTime() + 1);
+		}
+		for (Game game : endings.advance(now)) {
+			gameEvents.publish(game.getId());
+		}
+	}
+
+}
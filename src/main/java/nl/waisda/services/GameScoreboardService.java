@@ -0,0 +1,236 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package nl.waisda.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import nl.waisda.domain.Game;
+import nl.waisda.domain.User;
+import nl.waisda.domain.UserScore;
+import nl.waisda.model.GameScoreboard;
+import nl.waisda.model.IndexedTagEntry;
+import nl.waisda.repositories.TagEntryRepository;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps the scoreboards of active games in memory. A scoreboard is created
+ * empty with its game, or read from the database once when it is first needed
+ * (e.g. after a restart), and from then on updated with the score of every
+ * stored tag entry. Changes are applied after commit, and the game's total
+ * score is offered as highscore of its video to the VideoCatalog.
+ */
+@Service
+public class GameScoreboardService {
+
+	/** Scoreboards not read for this long are evicted. */
+	public static final long MAX_IDLE_MS = 30 * 60 * 1000;
+
+	private static final Logger log = Logger
+			.getLogger(GameScoreboardService.class);
+
+	@Autowired
+	private TagEntryRepository tagEntryRepo;
+
+	@Autowired
+	private TagEntryWriter tagEntryWriter;
+
+	@Autowired
+	private TransactionServiceIF transactionService;
+
+	@Autowired
+	private VideoCatalog videoCatalog;
+
+	private final ConcurrentMap<Integer, GameScoreboard> scoreboards = new ConcurrentHashMap<Integer, GameScoreboard>();
+
+	/** Registers the (empty) scoreboard of a newly created game. */
+	public void create(Game game) {
+		GameScoreboard scoreboard = new GameScoreboard(game.getId(), game
+				.getVideo().getId());
+		scoreboard.load(Collections.<User> emptyList(),
+				Collections.<int[]> emptyList());
+		scoreboards.putIfAbsent(game.getId(), scoreboard);
+	}
+
+	public GameScoreboard getScoreboard(final Game game) {
+		GameScoreboard scoreboard = scoreboards.get(game.getId());
+		if (scoreboard == null) {
+			GameScoreboard created = new GameScoreboard(game.getId(), game
+					.getVideo().getId());
+			scoreboard = scoreboards.putIfAbsent(game.getId(), created);
+			if (scoreboard == null) {
+				scoreboard = created;
+			}
+		}
+
+		if (!scoreboard.isLoaded()) {
+			// The scoreboard is installed before it is read, so changes
+			// committed from then on are applied to it while it is read; the
+			// read keeps them. Changes committed before are in the database:
+			// queued writes are flushed, and the read starts a new
+			// transaction. Only readers wait for the read.
+			synchronized (scoreboard.getLoadLock()) {
+				if (!scoreboard.isLoaded()) {
+					try {
+						tagEntryWriter.flush();
+						final List<User> participants = new ArrayList<User>();
+						final List<int[]> entries = new ArrayList<int[]>();
+						transactionService
+								.runInNewTransaction(new Callable<Void>() {
+									@Override
+									public Void call() {
+										participants.addAll(tagEntryRepo
+												.getParticipants(game.getId()));
+										entries.addAll(tagEntryRepo
+												.getScoredEntries(game.getId()));
+										return null;
+									}
+								});
+						scoreboard.load(participants, entries);
+						log.info(String.format(
+								"Loaded scoreboard of game %d with %d participants",
+								game.getId(), participants.size()));
+					} catch (RuntimeException e) {
+						scoreboards.remove(game.getId(), scoreboard);
+						throw e;
+					}
+				}
+			}
+		}
+		return scoreboard;
+	}
+
+	public List<UserScore> getScores(Game game) {
+		return getScoreboard(game).getScores();
+	}
+
+	public void join(final Game game, final User user) {
+		TransactionCallbacks.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				GameScoreboard scoreboard = scoreboards.get(game.getId());
+				if (scoreboard != null) {
+					scoreboard.join(user);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Sets the score and match of a stored tag entry of <code>owner</code>.
+	 */
+	public void put(final int gameId, final int tagEntryId, final User owner,
+			final int score, final boolean matched) {
+		TransactionCallbacks.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				GameScoreboard scoreboard = scoreboards.get(gameId);
+				if (scoreboard != null) {
+					int totalScore = scoreboard.put(tagEntryId, owner, score,
+							matched);
+					videoCatalog.offerHighscore(scoreboard.getVideoId(),
+							totalScore);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Sets the score and match of a tag entry read from the database, e.g. one
+	 * stored by another application server. A scoreboard that doesn't have the
+	 * owner yet is dropped, and read again when it is needed.
+	 */
+	public void putStored(IndexedTagEntry entry) {
+		GameScoreboard scoreboard = scoreboards.get(entry.getGameId());
+		if (scoreboard == null) {
+			return;
+		}
+		if (scoreboard.contains(entry.getOwnerId())) {
+			User owner = new User();
+			owner.setId(entry.getOwnerId());
+			int totalScore = scoreboard.put(entry.getId(), owner,
+					entry.getScore(), entry.hasMatch());
+			videoCatalog.offerHighscore(scoreboard.getVideoId(), totalScore);
+		} else {
+			scoreboards.remove(entry.getGameId(), scoreboard);
+		}
+	}
+
+	/**
+	 * Takes back the match of a tag entry that could not be stored after all.
+	 */
+	public void unmatch(int gameId, int tagEntryId, int score) {
+		GameScoreboard scoreboard = scoreboards.get(gameId);
+		if (scoreboard != null) {
+			scoreboard.unmatch(tagEntryId, score);
+		}
+	}
+
+	/** Removes a tag entry that could not be stored after all. */
+	public void remove(int gameId, int tagEntryId) {
+		GameScoreboard scoreboard = scoreboards.get(gameId);
+		if (scoreboard != null) {
+			scoreboard.remove(tagEntryId);
+		}
+	}
+
+	/**
+	 * Drops the scoreboards <code>source</code> appears in after its tag
+	 * entries were moved to another user; they are read again when needed.
+	 */
+	public void evictUser(final User source) {
+		TransactionCallbacks.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				Iterator<GameScoreboard> it = scoreboards.values().iterator();
+				while (it.hasNext()) {
+					if (it.next().contains(source.getId())) {
+						it.remove();
+					}
+				}
+			}
+		});
+	}
+
+	@Scheduled(fixedDelay = 60000)
+	public void evictIdleScoreboards() {
+		long now = System.currentTimeMillis();
+		Iterator<GameScoreboard> it = scoreboards.values().iterator();
+		while (it.hasNext()) {
+			GameScoreboard scoreboard = it.next();
+			if (now - scoreboard.getLastAccess() > MAX_IDLE_MS) {
+				it.remove();
+				log.debug(String.format("Evicted scoreboard of game %d",
+						scoreboard.getGameId()));
+			}
+		}
+	}
+
+}
@@ -21,11 +21,10 @@ package nl.waisda.services;
 
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.Date;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.Lock;
 
 import nl.waisda.domain.Game;
 import nl.waisda.domain.TagEntry;
@@ -33,17 +32,16 @@ import nl.waisda.domain.User;
 import nl.waisda.domain.UserScore;
 import nl.waisda.domain.Video;
 import nl.waisda.exceptions.NotFoundException;
-import nl.waisda.model.Cache;
 import nl.waisda.model.Recap;
 import nl.waisda.model.TagEntrySummary;
-import nl.waisda.model.Value;
 import nl.waisda.repositories.GameRepository;
 import nl.waisda.repositories.TagEntryRepository;
+import nl.waisda.repositories.VideoRepository;
 
 import org.apache.log4j.Logger;
+import org.hibernate.exception.ConstraintViolationException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 
 @Service
@@ -57,60 +55,136 @@ public class GameService {
 	@Autowired
 	private TagEntryRepository tagRepo;
 
+	@Autowired
+	private VideoRepository videoRepo;
+
 	@Autowired
 	private ScoringServiceIF scoringService;
 
-	private Cache<List<Game>> currentGamesCache;
+	@Autowired
+	private TagMatchIndexService matchIndex;
 
-	{
-		Value<List<Game>> fetchCurrentGames = new Value<List<Game>>() {
+	@Autowired
+	private GameScoreboardService scoreboards;
 
-			@Override
-			public List<Game> get() {
-				Date now = new Date();
-				return gameRepo.getQueuesFor(now);
-			}
-		};
-		currentGamesCache = new Cache<List<Game>>(fetchCurrentGames, 500);
-	}
+	@Autowired
+	private GameQueueRegistry queues;
 
-	@Transactional
-	public Game createGame(User user, Video video) throws NotFoundException {
+	@Autowired
+	private TransactionServiceIF transactionService;
+
+	@Autowired
+	private VideoCatalog videoCatalog;
+
+	/**
+	 * Returns the game queued for the video, or creates one. On this node
+	 * creation is serialized per video and the new game is committed before
+	 * the lock is released, so concurrent starts join the same game. Across
+	 * nodes, the transaction that creates the game first locks the row of
+	 * the video and looks for a queued game again while holding it, so a
+	 * game another node committed meanwhile is returned instead. As long as
+	 * the database honours the row lock, a video has at most one queued game.
+	 * The unique queue slot of a game remains as a fallback for databases
+	 * that don't.
+	 */
+	public Game createGame(final User user, final Video video) throws NotFoundException {
 		if (!video.isEnabled()) {
 			log.info(String.format("Ignoring request for new game for disabled video %d", video.getId()));
 			throw new NotFoundException();
 		}
 
-		List<Game> currentGames = gameRepo.getQueuesFor(new Date(), video);
-
-		if (currentGames.isEmpty()) {
-			Game game = new Game();
-
-			game.setInitiator(user);
-
-			Calendar c = Calendar.getInstance();
-			c.add(Calendar.MILLISECOND, Game.QUEUE_TIME_MS);
-			Date start = c.getTime();
-
-			game.setStart(start);
-			game.setVideo(video);
-			game.setCountExistingVideoTags(tagRepo.countTags(video.getId()));
-
-			gameRepo.store(game);
-			currentGamesCache.invalidate();
+		Game queued = queues.getQueue(video.getId(), System.currentTimeMillis());
+		if (queued == null) {
+			Lock lock = queues.lock(video.getId());
+			try {
+				queued = queues.getQueue(video.getId(), System.currentTimeMillis());
+				if (queued == null) {
+					// another node may have queued a game for the video
+					queued = gameRepo.getQueued(video.getId(), new Date());
+					if (queued != null) {
+						queues.register(queued);
+					}
+				}
+				if (queued == null) {
+					Calendar c = Calendar.getInstance();
+					c.add(Calendar.MILLISECOND, Game.QUEUE_TIME_MS);
+					final Date start = c.getTime();
+					final boolean[] created = new boolean[1];
+					Game game;
+					try {
+						game = transactionService.runInNewTransaction(new Callable<Game>() {
+							@Override
+							public Game call() {
+								videoRepo.lock(video.getId());
+								Game queued = gameRepo.getQueued(video.getId(), new Date());
+								if (queued != null) {
+									return queued;
+								}
+								created[0] = true;
+								return storeGame(user, video, start);
+							}
+						});
+						if (created[0]) {
+							videoCatalog.countGame(video.getId());
+						} else {
+							log.info(String.format(
+									"Game %d for video %d was created by another node",
+									game.getId(), video.getId()));
+						}
+					} catch (RuntimeException e) {
+						if (!isConstraintViolation(e)) {
+							throw e;
+						}
+						// another node stored a game in this slot meanwhile
+						game = gameRepo.getByQueueSlot(video.getId(), Game.queueSlotOf(start));
+						if (game == null) {
+							throw e;
+						}
+						log.info(String.format(
+								"Game %d for video %d was created concurrently",
+								game.getId(), video.getId()));
+					}
+					queues.register(game);
+					return game;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
 
-			log.info(String.format(
-					"Created new game %d for video %d and user %d",
-					game.getId(), video.getId(), user.getId()));
+		log.info(String.format(
+				"Returning existing game %d for video %d and user %d",
+				queued.getId(), video.getId(), user.getId()));
+		return queued;
+	}
 
-			return game;
-		} else {
-			Game game = currentGames.get(0);
-			log.info(String.format(
-					"Returning existing game %d for video %d and user %d",
-					game.getId(), video.getId(), user.getId()));
-			return game;
-		}
+	private static boolean isConstraintViolation(Throwable e) {
+		for (Throwable t = e; t != null; t = t.getCause()) {
+			if (t instanceof ConstraintViolationException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private Game storeGame(User user, Video video, Date start) {
+		Game game = new Game();
+
+		game.setInitiator(user);
+		game.setStart(start);
+		game.setQueueSlot(Game.queueSlotOf(start));
+		game.setVideo(video);
+		game.setCountExistingVideoTags(tagRepo.countTags(video.getId()));
+
+		gameRepo.store(game);
+		matchIndex.warm(video.getId());
+		scoreboards.create(game);
+
+		log.info(String.format(
+				"Created new game %d for video %d and user %d",
+				game.getId(), video.getId(), user.getId()));
+
+		return game;
 	}
 
 	public Game getGameById(int gameId) {
@@ -118,41 +192,35 @@ public class GameService {
 	}
 
 	public List<Game> getCurrentQueues() {
-		return currentGamesCache.get();
+		return queues.getQueues(System.currentTimeMillis());
 	}
 
 	public Recap getRecap(Game game, User owner) {
 		// Prepare all the information needed for the Recap.
-		List<TagEntry> entries = tagRepo.getEntries(game.getId());
-		List<TagEntry> ownerEntries = new ArrayList<TagEntry>(entries.size());
-		Map<User, UserScore> scores = new TreeMap<User, UserScore>();
+		List<TagEntry> ownerEntries = tagRepo.getEntries(game.getId(),
+				owner.getId());
 		int ownerScore = 0;
 
-		for (TagEntry tag : entries) {
-			User u = tag.getOwner();
-
+		for (TagEntry tag : ownerEntries) {
             // set special dictionary flag
             tag.setSpecialMatch(scoringService.isSpecialDictionaryMatch(tag.getDictionary()));
 
-			if (u.getId() == owner.getId()) {
-				ownerEntries.add(tag);
-				ownerScore += tag.getScore();
-			}
+			ownerScore += tag.getScore();
+		}
 
-			UserScore score = scores.get(u);
-			if (score == null) {
-				score = new UserScore(u);
-				scores.put(u, score);
+		// Only participants who entered tags are listed. The scoreboard's
+		// scores are shared, so copy them before setting positions.
+		ArrayList<UserScore> participants = new ArrayList<UserScore>();
+		for (UserScore score : scoreboards.getScores(game)) {
+			if (score.getCountTags() > 0) {
+				UserScore participant = new UserScore(score.getUser(),
+						score.getScore());
+				participant.setCountTags(score.getCountTags());
+				participant.setCountMatches(score.getCountMatches());
+				participants.add(participant);
 			}
-			score.count(tag);
-
-
 		}
 
-		ArrayList<UserScore> participants = new ArrayList<UserScore>(
-				scores.values());
-		Collections.sort(participants);
-
 		int ownerPosition = 0;
 		for (int i = 0; i < participants.size(); i++) {
 			UserScore participant = participants.get(i);
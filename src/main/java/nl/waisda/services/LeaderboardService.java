@@ -0,0 +1,126 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package nl.waisda.services;
+
+import java.util.Date;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+
+import nl.waisda.domain.User;
+import nl.waisda.model.TopScores;
+import nl.waisda.model.Util;
+import nl.waisda.model.Value;
+import nl.waisda.repositories.UserRepository;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps the top scores of the last week in memory. The scores per user and day
+ * are read from the database once at startup; after that every score change
+ * is added as it is committed, and whole days are dropped from the window as
+ * the date changes.
+ */
+@Service
+public class LeaderboardService {
+
+	private static final Logger log = Logger.getLogger(LeaderboardService.class);
+
+	@Autowired
+	private UserRepository userRepo;
+
+	@Autowired
+	private MetricsService metrics;
+
+	private TopScores topScores;
+
+	@PostConstruct
+	public void init() {
+		long today = Util.getDay(new Date());
+		topScores = new TopScores(today);
+		List<Object[]> rows = userRepo.getDailyScores(TopScores.DAYS);
+		for (Object[] row : rows) {
+			User user = new User();
+			user.setId(((Number) row[0]).intValue());
+			user.setEmail((String) row[1]);
+			user.setName((String) row[2]);
+			topScores.add(user, Util.getDay((Date) row[3]),
+					((Number) row[4]).intValue());
+		}
+		log.info(String.format("Loaded %d daily scores, %d players ranked",
+				rows.size(), topScores.size()));
+		metrics.register("leaderboard.size", new Value<Integer>() {
+			@Override
+			public Integer get() {
+				return topScores.size();
+			}
+		});
+	}
+
+	public TopScores getTopScores() {
+		return topScores;
+	}
+
+	/**
+	 * Adds a score change of a tag entry created at <code>creationDate</code>,
+	 * or today if null, once the current transaction commits.
+	 */
+	public void count(final User owner, Date creationDate, final int scoreDelta) {
+		if (scoreDelta == 0) {
+			return;
+		}
+		final long day = Util.getDay(creationDate != null ? creationDate
+				: new Date());
+		TransactionCallbacks.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				topScores.add(owner, day, scoreDelta);
+			}
+		});
+	}
+
+	/** Moves the scores of an anonymous user to the user it merged into. */
+	public void moveUser(final User source, final User target) {
+		TransactionCallbacks.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				topScores.moveUser(source.getId(), target);
+			}
+		});
+	}
+
+	/** Refreshes the name and email address shown for a user. */
+	public void updateUser(final User user) {
+		TransactionCallbacks.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				topScores.updateUser(user);
+			}
+		});
+	}
+
+	@Scheduled(fixedDelay = 60000)
+	public void advance() {
+		topScores.advance(Util.getDay(new Date()));
+	}
+
+}
@@ -0,0 +1,121 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package nl.waisda.services;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nl.waisda.model.RefreshingCache;
+import nl.waisda.model.Value;
+
+import org.apache.log4j.Logger;
+import org.springframework.stereotype.Service;
+
+/**
+ * Registry of named counters and gauges describing the internals of the
+ * application, exposed to administrators through the metrics API.
+ */
+@Service
+public class MetricsService {
+
+	private static final Logger log = Logger.getLogger(MetricsService.class);
+
+	private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+	private final ConcurrentMap<String, Value<?>> gauges = new ConcurrentHashMap<String, Value<?>>();
+
+	/** Returns the counter with the given name, creating it if needed. */
+	public AtomicLong counter(String name) {
+		AtomicLong counter = counters.get(name);
+		if (counter == null) {
+			AtomicLong created = new AtomicLong();
+			counter = counters.putIfAbsent(name, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+
+	public void increment(String name) {
+		counter(name).incrementAndGet();
+	}
+
+	/** Registers a value that is read whenever the metrics are requested. */
+	public void register(String name, Value<?> gauge) {
+		gauges.put(name, gauge);
+	}
+
+	/** Registers the hit, refresh and staleness metrics of a cache. */
+	public void registerCache(String name, final RefreshingCache<?> cache) {
+		register(name + ".hits", new Value<Long>() {
+			@Override
+			public Long get() {
+				return cache.getHits();
+			}
+		});
+		register(name + ".refreshes", new Value<Long>() {
+			@Override
+			public Long get() {
+				return cache.getRefreshes();
+			}
+		});
+		register(name + ".refreshFailures", new Value<Long>() {
+			@Override
+			public Long get() {
+				return cache.getFailures();
+			}
+		});
+		register(name + ".lastRefreshMs", new Value<Long>() {
+			@Override
+			public Long get() {
+				return cache.getLastRefreshMs();
+			}
+		});
+		register(name + ".stalenessMs", new Value<Long>() {
+			@Override
+			public Long get() {
+				return cache.getStalenessMs();
+			}
+		});
+	}
+
+	/** Returns the current values of all counters and gauges, by name. */
+	public SortedMap<String, Object> getMetrics() {
+		SortedMap<String, Object> res = new TreeMap<String, Object>();
+		for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+			res.put(entry.getKey(), entry.getValue().get());
+		}
+		for (Map.Entry<String, Value<?>> entry : gauges.entrySet()) {
+			try {
+				res.put(entry.getKey(), entry.getValue().get());
+			} catch (RuntimeException e) {
+				log.warn(String.format("Failed to read metric %s", entry.getKey()), e);
+			}
+		}
+		return res;
+	}
+
+}
@@ -19,9 +19,13 @@
 
 package nl.waisda.services;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import org.apache.log4j.Logger;
 import org.hibernate.tool.hbm2x.StringUtils;
@@ -31,6 +35,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import nl.waisda.domain.TagEntry;
+import nl.waisda.domain.User;
 import nl.waisda.model.*;
 import nl.waisda.model.Value;
 import nl.waisda.repositories.ParticipantRepository;
@@ -51,31 +56,63 @@ public class ScoringService implements ScoringServiceIF, InitializingBean {
 	@Autowired
 	private ParticipantRepository participantRepo;
 
+	@Autowired
+	private TagMatchIndexService matchIndex;
+
+	@Autowired
+	private GameEventService gameEvents;
+
+	@Autowired
+	private GameScoreboardService scoreboards;
+
+	@Autowired
+	private TagEntryWriter tagEntryWriter;
+
+	@Autowired
+	private LeaderboardService leaderboard;
+
+	@Autowired
+	private TagCloudService tagCloud;
+
+	@Autowired
+	private DictionaryService dictionaries;
+
 	@org.springframework.beans.factory.annotation.Value("${waisda.matcher.specialdictionaries}")
 	private String specialDictionaries;
 	private Set<String> specialDictionaryList;
 
-	private Value<GlobalStats> globalStatsCache;
+	@Autowired
+	private MetricsService metrics;
+
+	@Autowired
+	private Executor cacheRefreshExecutor;
+
+	private RefreshingCache<GlobalStats> globalStatsCache;
+
+	private Value<GlobalStats> fetchGlobalStats;
 
 	{
-		Value<GlobalStats> fetchGlobalStats = new Value<GlobalStats>() {
+		fetchGlobalStats = new Value<GlobalStats>() {
 
 			@Override
 			public GlobalStats get() {
 				int countTags = tagEntryRepo.countTags();
 				int countMatches = tagEntryRepo.countMatches();
-				List<TagCloudItem> tagCloud = tagEntryRepo.getTagCloud();
-				TopScores topScores = userRepo.getTopScores();
+				List<TagCloudItem> cloud = tagCloud.getTagCloud();
+				TopScores topScores = leaderboard.getTopScores();
 				int currentlyPlaying = participantRepo.countCurrentlyPlaying();
-				return new GlobalStats(countTags, countMatches, tagCloud,
+				return new GlobalStats(countTags, countMatches, cloud,
 						topScores, currentlyPlaying);
 			}
 		};
-		globalStatsCache = new Cache<GlobalStats>(fetchGlobalStats, 10000);
 	}
 
     @Override
     public void afterPropertiesSet() throws Exception {
+        globalStatsCache = new RefreshingCache<GlobalStats>(fetchGlobalStats, 10000,
+                cacheRefreshExecutor);
+        metrics.registerCache("cache.globalStats", globalStatsCache);
+
         // create special dictionary names list
         if (specialDictionaryList == null) {
             specialDictionaryList = new HashSet<String>() ;
@@ -91,7 +128,7 @@ public class ScoringService implements ScoringServiceIF, InitializingBean {
     }
 
     public void updateDictionary(TagEntry tagEntry) {
-        List<String> dictionaryEntries = tagEntryRepo.getDictionariesContaining(tagEntry.getNormalizedTag());
+        List<String> dictionaryEntries = dictionaries.getDictionaries(tagEntry.getNormalizedTag());
         if (dictionaryEntries.size() > 0) {
             // check for special dictionary cases first
             for (String entry : dictionaryEntries) {
@@ -122,6 +159,10 @@ public class ScoringService implements ScoringServiceIF, InitializingBean {
 	public void updateMatchAndStore(TagEntry tagEntry,
 			boolean updateReverseMatches) {
 
+		boolean isNew = tagEntry.getId() == 0;
+		int oldScore = tagEntry.getScore();
+		boolean hadMatch = tagEntry.getMatchingTagEntry() != null;
+
 		// This method might be called as a result of a user merge. Check if we
 		// already have a good match.
 		TagEntry currentMatch = tagEntry.getMatchingTagEntry();
@@ -136,58 +177,250 @@ public class ScoringService implements ScoringServiceIF, InitializingBean {
 			}
 		}
 
-		// Fetch all possible matches.
-		List<TagEntry> matches = tagEntryRepo.getMatches(tagEntry.getGame()
-				.getVideo().getId(), tagEntry.getNormalizedTag(),
-				tagEntry.getGameTime());
+		// Fetch all possible matches from the video's tag match index.
+		int videoId = tagEntry.getGame().getVideo().getId();
+		List<IndexedTagEntry> matches = matchIndex.getMatches(videoId,
+				tagEntry.getNormalizedTag(), tagEntry.getGameTime());
+
+		// New tag entries are scored in memory and stored in the background
+		// if write-behind is enabled.
+		boolean writeBehind = isNew && tagEntryWriter.isEnabled();
 
 		// First try and find a literal match from the user's history. If found,
 		// awards no points.
-		for (TagEntry match : matches) {
+		IndexedTagEntry chosen = null;
+		for (IndexedTagEntry match : matches) {
 			if (match.getId() != tagEntry.getId()
-					&& match.getOwner().getId() == tagEntry.getOwner().getId()
+					&& match.getOwnerId() == tagEntry.getOwner().getId()
 					&& match.getNormalizedTag().equals(
 							tagEntry.getNormalizedTag())) {
 				// Literal match with a previous entry by the same owner. Set
 				// forward matching tag entry, awarding no points. Don't set
 				// reverse match to allow for real matches later on.
-				tagEntry.setMatchingTagEntry(match);
+				chosen = match;
 				break;
 			}
 		}
 
 		// If no match is found yet, try and find one of another user.
-		if (tagEntry.getMatchingTagEntry() == null) {
-			for (TagEntry match : matches) {
-				if (match.getOwner().getId() != tagEntry.getOwner().getId()) {
-					tagEntry.setMatchingTagEntry(match);
+		if (chosen == null) {
+			for (IndexedTagEntry match : matches) {
+				if (match.getOwnerId() != tagEntry.getOwner().getId()) {
+					chosen = match;
 					break;
 				}
 			}
 		}
 
-		// If still no match is found, tag entry is a pioneer and will earn more
-		// points once a reverse match is found.
-		if (tagEntry.getMatchingTagEntry() == null) {
+		if (chosen != null) {
+			tagEntry.setMatchingTagEntry(writeBehind ? toTagEntry(chosen)
+					: tagEntryRepo.getById(chosen.getId()));
+		} else {
+			// If still no match is found, tag entry is a pioneer and will earn
+			// more points once a reverse match is found.
 			tagEntry.setPioneer(true);
 		}
 
 		tagEntry.updateScore();
-		tagEntryRepo.store(tagEntry);
+		if (writeBehind) {
+			tagEntry.setId(tagEntryWriter.nextId());
+			matchIndex.put(tagEntry);
+			tagEntryWriter.insert(tagEntry, forgetInsert(tagEntry, videoId));
+		} else {
+			tagEntryRepo.store(tagEntry);
+			matchIndex.putAfterCommit(tagEntry);
+			gameEvents.publish(tagEntry.getGame().getId());
+		}
+		count(tagEntry, isNew, oldScore, hadMatch, writeBehind);
 
 		if (updateReverseMatches && tagEntry.isOriginal()) {
-			for (TagEntry match : matches) {
-				if (match.getMatchingTagEntry() == null) {
-					log.info(String.format("Awarding pioneer points to tag %d",
-							match.getId()));
-					match.setMatchingTagEntry(tagEntry);
-					match.updateScore();
-					tagEntryRepo.store(match);
+			List<Integer> unmatched = new ArrayList<Integer>();
+			for (IndexedTagEntry match : matches) {
+				if (!match.hasMatch() && match.getId() != tagEntry.getId()) {
+					unmatched.add(match.getId());
+				}
+			}
+			final VideoTagIndex index = matchIndex.getIndex(videoId);
+			final List<Integer> claims = new ArrayList<Integer>();
+			final int matchId = tagEntry.getId();
+			if (!writeBehind) {
+				// The claims must be made now to keep concurrent tag entries
+				// from claiming the same entries, but they don't hold if the
+				// matches are not stored. Queued writes are stored regardless.
+				TransactionCallbacks.afterRollback(new Runnable() {
+					@Override
+					public void run() {
+						index.releaseClaims(claims, matchId);
+					}
+				});
+			}
+			for (IndexedTagEntry claimed : index.claimUnmatched(unmatched,
+					tagEntry.getId())) {
+				claims.add(claimed.getId());
+				log.info(String.format("Awarding pioneer points to tag %d",
+						claimed.getId()));
+				if (writeBehind) {
+					awardReverseMatch(index, claimed, tagEntry);
+				} else {
+					awardReverseMatch(claimed.getId(), tagEntry);
 				}
 			}
 		}
 	}
 
+	/** Sets <code>tagEntry</code> as the match of an earlier tag entry. */
+	private void awardReverseMatch(int id, TagEntry tagEntry) {
+		TagEntry match = tagEntryRepo.getById(id);
+		if (match == null || match.getMatchingTagEntry() != null) {
+			return;
+		}
+		int oldMatchScore = match.getScore();
+		match.setMatchingTagEntry(tagEntry);
+		match.updateScore();
+		tagEntryRepo.store(match);
+		matchIndex.putAfterCommit(match);
+		count(match, false, oldMatchScore, false, false);
+		if (isNewPioneerMatch(match.isPioneer(), match.getGame().getId(),
+				tagEntry)) {
+			// Notify the owner on their next visit.
+			userRepo.addNewPioneerMatch(match.getOwner().getId());
+		}
+		gameEvents.publish(match.getGame().getId());
+	}
+
+	/**
+	 * Sets <code>tagEntry</code> as the match of an earlier tag entry that was
+	 * already claimed in the index, and queues the change for the writer.
+	 */
+	private void awardReverseMatch(final VideoTagIndex index,
+			final IndexedTagEntry claimed, TagEntry tagEntry) {
+		int score = TagEntry.computeScore(claimed.getTag().length(),
+				claimed.isInDictionary(), true,
+				claimed.getOwnerId() == tagEntry.getOwner().getId(),
+				claimed.isPioneer());
+		index.setScore(claimed.getId(), score);
+		final User owner = toUser(claimed);
+		final int scoreDelta = score - claimed.getScore();
+		final int matchId = tagEntry.getId();
+		tagEntryWriter.updateMatch(claimed.getId(), matchId, score,
+				claimed.getGameId(), new Runnable() {
+					@Override
+					public void run() {
+						// the update was not stored; undo it in memory
+						index.releaseClaims(
+								Collections.singleton(claimed.getId()), matchId);
+						index.setScore(claimed.getId(), claimed.getScore());
+						scoreboards.unmatch(claimed.getGameId(),
+								claimed.getId(), claimed.getScore());
+						leaderboard.count(owner, null, -scoreDelta);
+					}
+				});
+		boolean newPioneerMatch = isNewPioneerMatch(claimed.isPioneer(),
+				claimed.getGameId(), tagEntry);
+		addTotals(owner, null, scoreDelta, 0, 1, newPioneerMatch ? 1 : 0,
+				true);
+		scoreboards.put(claimed.getGameId(), claimed.getId(), owner, score,
+				true);
+	}
+
+	/**
+	 * Returns what undoes the in-memory effects of a new write-behind tag
+	 * entry if the writer can't store it. The reverse matches it made are
+	 * undone by their own updates, which the writer then doesn't store either.
+	 */
+	private Runnable forgetInsert(TagEntry tagEntry, final int videoId) {
+		final int id = tagEntry.getId();
+		final int gameId = tagEntry.getGame().getId();
+		final User owner = tagEntry.getOwner();
+		final Date creationDate = tagEntry.getCreationDate();
+		final String normalizedTag = tagEntry.getNormalizedTag();
+		final int score = tagEntry.getScore();
+		return new Runnable() {
+			@Override
+			public void run() {
+				matchIndex.remove(videoId, id);
+				scoreboards.remove(gameId, id);
+				leaderboard.count(owner, creationDate, -score);
+				tagCloud.uncount(normalizedTag, creationDate);
+			}
+		};
+	}
+
+	/**
+	 * A pioneer tag entry matched by a tag entry in a later game is reported to
+	 * its owner on their next visit.
+	 */
+	private static boolean isNewPioneerMatch(boolean pioneer, int gameId,
+			TagEntry tagEntry) {
+		return pioneer && gameId < tagEntry.getGame().getId();
+	}
+
+	/**
+	 * Adds the changes caused by storing <code>tagEntry</code>, which had a
+	 * score of <code>oldScore</code> and a match if <code>hadMatch</code>
+	 * before, to the totals of its owner, and sets its score in the scoreboard
+	 * of its game.
+	 */
+	private void count(TagEntry tagEntry, boolean isNew, int oldScore,
+			boolean hadMatch, boolean writeBehind) {
+		int scoreDelta = tagEntry.getScore() - oldScore;
+		int tagsDelta = isNew ? 1 : 0;
+		boolean matched = tagEntry.getMatchingTagEntry() != null;
+		int matchesDelta = (matched ? 1 : 0) - (hadMatch ? 1 : 0);
+		addTotals(tagEntry.getOwner(), tagEntry.getCreationDate(), scoreDelta,
+				tagsDelta, matchesDelta, 0, writeBehind);
+		scoreboards.put(tagEntry.getGame().getId(), tagEntry.getId(),
+				tagEntry.getOwner(), tagEntry.getScore(), matched);
+		if (isNew) {
+			tagCloud.count(tagEntry.getNormalizedTag(),
+					tagEntry.getCreationDate());
+		}
+	}
+
+	/**
+	 * Adds score changes to the totals of <code>owner</code> and the weekly
+	 * leaderboard. A <code>creationDate</code> of null counts the score for
+	 * today.
+	 */
+	private void addTotals(User owner, Date creationDate, int scoreDelta,
+			int tagsDelta, int matchesDelta, int newPioneerMatchesDelta,
+			boolean writeBehind) {
+		if (writeBehind) {
+			if (scoreDelta != 0 || tagsDelta != 0 || matchesDelta != 0
+					|| newPioneerMatchesDelta != 0) {
+				tagEntryWriter.addTotals(owner.getId(), scoreDelta, tagsDelta,
+						matchesDelta, newPioneerMatchesDelta);
+			}
+		} else if (scoreDelta != 0 || tagsDelta != 0 || matchesDelta != 0) {
+			userRepo.addTotals(owner.getId(), scoreDelta, tagsDelta,
+					matchesDelta);
+		}
+		leaderboard.count(owner, creationDate, scoreDelta);
+	}
+
+	/**
+	 * Builds a detached stand-in for an indexed tag entry, holding just what
+	 * scoring and the writer need.
+	 */
+	private static TagEntry toTagEntry(IndexedTagEntry indexed) {
+		TagEntry tagEntry = new TagEntry();
+		tagEntry.setId(indexed.getId());
+		tagEntry.setTag(indexed.getTag());
+		tagEntry.setNormalizedTag(indexed.getNormalizedTag());
+		tagEntry.setGameTime(indexed.getGameTime());
+		tagEntry.setPioneer(indexed.isPioneer());
+		tagEntry.setScore(indexed.getScore());
+		tagEntry.setOwner(toUser(indexed));
+		return tagEntry;
+	}
+
+	private static User toUser(IndexedTagEntry indexed) {
+		User owner = new User();
+		owner.setId(indexed.getOwnerId());
+		owner.setName(indexed.getOwnerName());
+		return owner;
+	}
+
 	public GlobalStats getGlobalStats() {
 		return globalStatsCache.get();
 	}
@@ -0,0 +1,189 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package nl.waisda.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import nl.waisda.model.SpaceSaving;
+import nl.waisda.model.TagCloudItem;
+import nl.waisda.model.Util;
+import nl.waisda.model.Value;
+import nl.waisda.repositories.TagEntryRepository;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps the most frequent tags of the last week in memory for the tag cloud.
+ * Every day has a {@link SpaceSaving} summary of its tags, which is filled
+ * from the database at startup and by new tag entries after that. The cloud
+ * merges the summaries of the last seven days, so its cost does not depend on
+ * the number of tags entered.
+ */
+@Service
+public class TagCloudService {
+
+	private static final Logger log = Logger.getLogger(TagCloudService.class);
+
+	private static final int DAYS = 7;
+
+	/** The number of tags counted per day. */
+	private static final int CAPACITY = 1000;
+
+	/** The number of tags in the cloud. */
+	private static final int CLOUD_SIZE = 20;
+
+	private static final Comparator<Map.Entry<String, Long>> BY_COUNT = new Comparator<Map.Entry<String, Long>>() {
+		@Override
+		public int compare(Map.Entry<String, Long> e1, Map.Entry<String, Long> e2) {
+			int c = e2.getValue().compareTo(e1.getValue());
+			return c != 0 ? c : e1.getKey().compareTo(e2.getKey());
+		}
+	};
+
+	@Autowired
+	private TagEntryRepository tagEntryRepo;
+
+	@Autowired
+	private MetricsService metrics;
+
+	private final SpaceSaving<String>[] buckets;
+
+	private long today;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public TagCloudService() {
+		buckets = new SpaceSaving[DAYS];
+		for (int i = 0; i < DAYS; i++) {
+			buckets[i] = new SpaceSaving<String>(CAPACITY);
+		}
+	}
+
+	@PostConstruct
+	public synchronized void init() {
+		today = Util.getDay(new Date());
+		int tags = 0;
+		for (long day = today - DAYS + 1; day <= today; day++) {
+			SpaceSaving<String> bucket = getBucket(day);
+			// The most frequent tags of a day are counted exactly; the others
+			// are no more frequent than the least frequent of those.
+			for (Object[] row : tagEntryRepo.getTagCounts(
+					Util.getStartOfDay(day), Util.getStartOfDay(day + 1),
+					CAPACITY)) {
+				bucket.add((String) row[0], ((Number) row[1]).longValue());
+			}
+			tags += bucket.size();
+		}
+		log.info(String.format("Loaded the counts of %d daily tags", tags));
+		metrics.register("tagCloud.minCount", new Value<Long>() {
+			@Override
+			public Long get() {
+				return getMinCount();
+			}
+		});
+	}
+
+	/** Returns the lowest count kept for today, which bounds a missing tag. */
+	private synchronized long getMinCount() {
+		return getBucket(today).getMinCount();
+	}
+
+	private SpaceSaving<String> getBucket(long day) {
+		return buckets[(int) (day % DAYS)];
+	}
+
+	/**
+	 * Counts a new tag entry with the given normalized tag once the current
+	 * transaction commits.
+	 */
+	public void count(final String normalizedTag, Date creationDate) {
+		final long day = Util.getDay(creationDate);
+		TransactionCallbacks.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				add(normalizedTag, day);
+			}
+		});
+	}
+
+	/** Takes back the count of a tag entry that could not be stored. */
+	public synchronized void uncount(String normalizedTag, Date creationDate) {
+		long day = Util.getDay(creationDate);
+		if (day > today - DAYS && day <= today) {
+			getBucket(day).remove(normalizedTag, 1);
+		}
+	}
+
+	private synchronized void add(String normalizedTag, long day) {
+		if (day > today) {
+			advance(day);
+		} else if (day <= today - DAYS) {
+			return;
+		}
+		getBucket(day).add(normalizedTag, 1);
+	}
+
+	@Scheduled(fixedDelay = 60000)
+	public void advance() {
+		advance(Util.getDay(new Date()));
+	}
+
+	/** Moves the window to end with <code>day</code>. */
+	private synchronized void advance(long day) {
+		for (long d = Math.max(today, day - DAYS) + 1; d <= day; d++) {
+			getBucket(d).clear();
+		}
+		today = Math.max(today, day);
+	}
+
+	/**
+	 * Returns the most frequent tags of the last week in random order, sized
+	 * by their rank.
+	 */
+	public List<TagCloudItem> getTagCloud() {
+		Map<String, Long> totals = new HashMap<String, Long>();
+		synchronized (this) {
+			for (SpaceSaving<String> bucket : buckets) {
+				bucket.addTo(totals);
+			}
+		}
+		List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(
+				totals.entrySet());
+		Collections.sort(entries, BY_COUNT);
+		int n = Math.min(entries.size(), CLOUD_SIZE);
+		List<TagCloudItem> cloud = new ArrayList<TagCloudItem>(n);
+		for (int i = 0; i < n; i++) {
+			int size = 5 - i * 5 / n;
+			cloud.add(new TagCloudItem(entries.get(i).getKey(), size));
+		}
+		Collections.shuffle(cloud);
+		return cloud;
+	}
+
+}
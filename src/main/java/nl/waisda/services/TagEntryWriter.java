@@ -0,0 +1,657 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package nl.waisda.services;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+
+import nl.waisda.domain.TagEntry;
+import nl.waisda.model.Value;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.core.simple.SimpleJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Write-behind persistence of scored tag entries. When enabled, the score
+ * engine scores new tag entries against its in-memory state and queues the
+ * resulting inserts, match updates and user totals here. A single writer
+ * thread stores them in JDBC batches, one transaction per batch, and then
+ * notifies the clients of the affected games.
+ * <p>
+ * Tag entry ids are allocated in memory from the highest id in the database,
+ * so write-behind must only be enabled when a single application server
+ * writes tag entries. The queue is bounded: when it is full, tagging requests
+ * wait for room (and fail after {@link #ENQUEUE_TIMEOUT_MS}). The queue is
+ * drained completely on shutdown.
+ * <p>
+ * A batch that fails because the database can't be reached (or a lock or
+ * query timed out) is retried with a backoff of up to
+ * {@link #MAX_BACKOFF_MS} until the database is back; meanwhile the queue
+ * fills up and holds off tagging requests. A batch the database refuses is
+ * written row by row. A row that is refused too is appended to the dead
+ * letter log (see log4j.properties), together with every later row that
+ * refers to a tag entry that was not stored, and the callback queued with the
+ * row removes it from the in-memory state. User totals are not corrected
+ * here; the nightly rebuild of the totals does that.
+ */
+@Service
+public class TagEntryWriter {
+
+	public static final long ENQUEUE_TIMEOUT_MS = 10000;
+
+	/** Flushing fails if the queued writes aren't stored within this time. */
+	public static final long FLUSH_TIMEOUT_MS = 60000;
+
+	/** Backoff of the first retry of a write; doubled up to the maximum. */
+	public static final long MIN_BACKOFF_MS = 500;
+
+	public static final long MAX_BACKOFF_MS = 30000;
+
+	/**
+	 * On shutdown, writes that can't be stored within this time are
+	 * dead-lettered.
+	 */
+	public static final long STOP_TIMEOUT_MS = 60000;
+
+	/**
+	 * Tagging requests that found a tag entry before it was dead-lettered
+	 * queue their writes referring to it within this time.
+	 */
+	private static final long DEAD_REFERENCE_MS = 2 * ENQUEUE_TIMEOUT_MS;
+
+	private static final Logger log = Logger.getLogger(TagEntryWriter.class);
+
+	/** Rows that could not be written, as SQL statement and arguments. */
+	private static final Logger deadLetters = Logger
+			.getLogger(TagEntryWriter.class.getName() + ".deadLetters");
+
+	private static final String INSERT_SQL = "INSERT INTO TagEntry (id, tag, normalizedTag, gametime, "
+			+ "typingDuration, game_id, owner_id, creationDate, dictionary, matchingTagEntry_id, pioneer, score) "
+			+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	private static final String UPDATE_MATCH_SQL = "UPDATE TagEntry SET matchingTagEntry_id = ?, score = ? "
+			+ "WHERE id = ?";
+
+	private static final String UPDATE_TOTALS_SQL = "UPDATE User SET totalScore = totalScore + ?, "
+			+ "totalTags = totalTags + ?, totalMatches = totalMatches + ?, "
+			+ "countNewPioneerMatches = countNewPioneerMatches + ? WHERE id = ?";
+
+	@org.springframework.beans.factory.annotation.Value("${waisda.tagentry.writebehind.enabled}")
+	private boolean enabled;
+
+	@org.springframework.beans.factory.annotation.Value("${waisda.tagentry.writebehind.queuesize}")
+	private int queueSize;
+
+	@org.springframework.beans.factory.annotation.Value("${waisda.tagentry.writebehind.batchsize}")
+	private int batchSize;
+
+	@Autowired
+	private DataSource dataSource;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private GameEventService gameEvents;
+
+	@Autowired
+	private MetricsService metrics;
+
+	private SimpleJdbcTemplate jdbc;
+
+	private TransactionTemplate transactionTemplate;
+
+	private BlockingQueue<Write> queue;
+
+	private AtomicInteger lastId;
+
+	private Thread writerThread;
+
+	private volatile boolean stopping;
+
+	/** Set when the writes can't be stored before shutdown. */
+	private volatile boolean abandoning;
+
+	/** Number of writes queued so far. */
+	private final AtomicLong queuedWrites = new AtomicLong();
+
+	/** Number of writes stored or dead-lettered; only used by the writer. */
+	private long doneWrites;
+
+	private volatile long lastBatchMs;
+
+	/**
+	 * Tag entries that were not stored, by id; rows referring to them are not
+	 * stored either. They are dropped once every write that may refer to them
+	 * is done. Only used by the writer thread.
+	 */
+	private final Map<Integer, DeadId> deadIds = new LinkedHashMap<Integer, DeadId>();
+
+	/** A tag entry that was not stored. */
+	private static class DeadId {
+		final long deadSince = System.currentTimeMillis();
+
+		/**
+		 * Writes referring to the tag entry are among the first this many
+		 * writes queued; 0 while they may still be queued.
+		 */
+		long lastReference;
+	}
+
+	/** Something to be written; collected into a {@link Batch}. */
+	private interface Write {
+		void addTo(Batch batch);
+	}
+
+	/** A row of an insert or update, with what to do if it can't be written. */
+	private static class Row {
+		final Object[] args;
+		final Runnable onDeadLetter;
+
+		Row(Object[] args, Runnable onDeadLetter) {
+			this.args = args;
+			this.onDeadLetter = onDeadLetter;
+		}
+
+		static List<Object[]> args(List<Row> rows) {
+			List<Object[]> args = new ArrayList<Object[]>(rows.size());
+			for (Row row : rows) {
+				args.add(row.args);
+			}
+			return args;
+		}
+	}
+
+	/** Everything written in a single transaction. */
+	private static class Batch {
+		final List<Row> inserts = new ArrayList<Row>();
+		final List<Row> matchUpdates = new ArrayList<Row>();
+		final Map<Integer, int[]> totals = new HashMap<Integer, int[]>();
+		final Set<Integer> gameIds = new HashSet<Integer>();
+		final List<CountDownLatch> flushed = new ArrayList<CountDownLatch>();
+
+		int[] getTotals(int userId) {
+			int[] t = totals.get(userId);
+			if (t == null) {
+				t = new int[4];
+				totals.put(userId, t);
+			}
+			return t;
+		}
+
+		List<Object[]> getTotalsArgs() {
+			List<Object[]> args = new ArrayList<Object[]>(totals.size());
+			for (Map.Entry<Integer, int[]> entry : totals.entrySet()) {
+				int[] t = entry.getValue();
+				args.add(new Object[] { t[0], t[1], t[2], t[3], entry.getKey() });
+			}
+			return args;
+		}
+
+		int size() {
+			return inserts.size() + matchUpdates.size();
+		}
+	}
+
+	@PostConstruct
+	public void init() {
+		if (!enabled) {
+			return;
+		}
+		jdbc = new SimpleJdbcTemplate(dataSource);
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		queue = new ArrayBlockingQueue<Write>(queueSize);
+		lastId = new AtomicInteger(jdbc
+				.queryForInt("SELECT IFNULL(MAX(id), 0) FROM TagEntry"));
+
+		metrics.register("tagEntryWriter.queueDepth", new Value<Integer>() {
+			@Override
+			public Integer get() {
+				return queue.size();
+			}
+		});
+		metrics.register("tagEntryWriter.lastBatchMs", new Value<Long>() {
+			@Override
+			public Long get() {
+				return lastBatchMs;
+			}
+		});
+
+		writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "TagEntryWriter");
+		writerThread.start();
+		log.info(String.format(
+				"Started write-behind of tag entries; allocating ids after %d",
+				lastId.get()));
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/** Allocates the id of a new tag entry. */
+	public int nextId() {
+		return lastId.incrementAndGet();
+	}
+
+	/**
+	 * Queues the insert of a new, scored tag entry.
+	 * 
+	 * @param onDeadLetter
+	 *            Run by the writer if the tag entry can't be stored.
+	 */
+	public void insert(TagEntry tagEntry, Runnable onDeadLetter) {
+		final Row row = new Row(new Object[] { tagEntry.getId(),
+				tagEntry.getTag(), tagEntry.getNormalizedTag(),
+				tagEntry.getGameTime(), tagEntry.getTypingDuration(),
+				tagEntry.getGame().getId(), tagEntry.getOwner().getId(),
+				new Timestamp(tagEntry.getCreationDate().getTime()),
+				tagEntry.getDictionary(),
+				tagEntry.getMatchingTagEntry() != null ? tagEntry
+						.getMatchingTagEntry().getId() : null,
+				tagEntry.isPioneer(), tagEntry.getScore() }, onDeadLetter);
+		final int gameId = tagEntry.getGame().getId();
+		enqueue(new Write() {
+			@Override
+			public void addTo(Batch batch) {
+				batch.inserts.add(row);
+				batch.gameIds.add(gameId);
+			}
+		});
+	}
+
+	/**
+	 * Queues setting the match and new score of an existing tag entry.
+	 * 
+	 * @param onDeadLetter
+	 *            Run by the writer if the update can't be stored.
+	 */
+	public void updateMatch(int id, int matchingTagEntryId, int score,
+			final int gameId, Runnable onDeadLetter) {
+		final Row row = new Row(new Object[] { matchingTagEntryId, score, id },
+				onDeadLetter);
+		enqueue(new Write() {
+			@Override
+			public void addTo(Batch batch) {
+				batch.matchUpdates.add(row);
+				batch.gameIds.add(gameId);
+			}
+		});
+	}
+
+	/**
+	 * Queues changes to the totals of a user. Changes to the same user within
+	 * a batch are combined into a single update.
+	 */
+	public void addTotals(final int userId, final int scoreDelta,
+			final int tagsDelta, final int matchesDelta,
+			final int newPioneerMatchesDelta) {
+		enqueue(new Write() {
+			@Override
+			public void addTo(Batch batch) {
+				int[] t = batch.getTotals(userId);
+				t[0] += scoreDelta;
+				t[1] += tagsDelta;
+				t[2] += matchesDelta;
+				t[3] += newPioneerMatchesDelta;
+			}
+		});
+	}
+
+	/**
+	 * Waits until everything queued before this call has been written, e.g.
+	 * before tag entries are changed in the database directly.
+	 * 
+	 * @throws IllegalStateException
+	 *             If that takes longer than {@link #FLUSH_TIMEOUT_MS}, e.g.
+	 *             while the database can't be reached.
+	 */
+	public void flush() {
+		if (!enabled) {
+			return;
+		}
+		final CountDownLatch latch = new CountDownLatch(1);
+		enqueue(new Write() {
+			@Override
+			public void addTo(Batch batch) {
+				batch.flushed.add(latch);
+			}
+		});
+		try {
+			if (!latch.await(FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				throw new IllegalStateException(
+						"Timed out waiting for queued tag entry writes");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(
+					"Interrupted while waiting for queued tag entry writes");
+		}
+	}
+
+	private void enqueue(Write write) {
+		if (stopping) {
+			throw new IllegalStateException("Tag entry writer is stopping");
+		}
+		if (queue.offer(write)) {
+			queuedWrites.incrementAndGet();
+			return;
+		}
+		metrics.increment("tagEntryWriter.backpressureWaits");
+		try {
+			if (!queue.offer(write, ENQUEUE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				throw new IllegalStateException("Tag entry write queue is full");
+			}
+			queuedWrites.incrementAndGet();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(
+					"Interrupted while queueing tag entry write");
+		}
+	}
+
+	private void writeLoop() {
+		List<Write> writes = new ArrayList<Write>(batchSize);
+		while (!stopping || !queue.isEmpty()) {
+			try {
+				Write first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				writes.add(first);
+				queue.drainTo(writes, batchSize - 1);
+				Batch batch = new Batch();
+				for (Write write : writes) {
+					write.addTo(batch);
+				}
+				write(batch);
+			} catch (InterruptedException e) {
+				// Stop waiting; the loop ends once the queue is empty.
+			} catch (RuntimeException e) {
+				log.error("Unexpected error in tag entry writer", e);
+			} finally {
+				doneWrites += writes.size();
+				writes.clear();
+			}
+			if (!deadIds.isEmpty()) {
+				pruneDeadIds();
+			}
+		}
+		log.info("Stopped write-behind of tag entries");
+	}
+
+	private void write(final Batch batch) {
+		long start = System.currentTimeMillis();
+		if (!deadIds.isEmpty()) {
+			removeDeadReferences(batch.inserts, true);
+			removeDeadReferences(batch.matchUpdates, false);
+		}
+		long backoffMs = MIN_BACKOFF_MS;
+		for (int attempt = 1;; attempt++) {
+			try {
+				transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+					@Override
+					protected void doInTransactionWithoutResult(
+							TransactionStatus status) {
+						if (!batch.inserts.isEmpty()) {
+							jdbc.batchUpdate(INSERT_SQL, Row.args(batch.inserts));
+						}
+						if (!batch.matchUpdates.isEmpty()) {
+							jdbc.batchUpdate(UPDATE_MATCH_SQL,
+									Row.args(batch.matchUpdates));
+						}
+						if (!batch.totals.isEmpty()) {
+							jdbc.batchUpdate(UPDATE_TOTALS_SQL,
+									batch.getTotalsArgs());
+						}
+					}
+				});
+				break;
+			} catch (RuntimeException e) {
+				if (isTransient(e) && !abandoning) {
+					metrics.increment("tagEntryWriter.retries");
+					log.warn(String.format(
+							"Failed to write batch of %d tag entry writes (attempt %d); "
+									+ "retrying in %d ms",
+							batch.size(), attempt, backoffMs), e);
+					sleep(backoffMs);
+					backoffMs = Math.min(2 * backoffMs, MAX_BACKOFF_MS);
+				} else {
+					metrics.increment("tagEntryWriter.failedBatches");
+					log.error(String.format(
+							"Failed to write batch of %d inserts and %d match updates; "
+									+ "writing them one by one",
+							batch.inserts.size(), batch.matchUpdates.size()), e);
+					writeRows(batch);
+					break;
+				}
+			}
+		}
+
+		lastBatchMs = System.currentTimeMillis() - start;
+		metrics.increment("tagEntryWriter.batches");
+		metrics.counter("tagEntryWriter.inserts").addAndGet(
+				batch.inserts.size());
+		metrics.counter("tagEntryWriter.matchUpdates").addAndGet(
+				batch.matchUpdates.size());
+
+		// Clients re-read the database, so only notify them now.
+		for (Integer gameId : batch.gameIds) {
+			gameEvents.publish(gameId);
+		}
+		for (CountDownLatch latch : batch.flushed) {
+			latch.countDown();
+		}
+	}
+
+	/**
+	 * Writes the rows of a failed batch one at a time, so a bad row only
+	 * affects itself and the rows that refer to it.
+	 */
+	private void writeRows(Batch batch) {
+		for (Row row : batch.inserts) {
+			// an insert may refer to an insert earlier in the batch
+			if (isDeadReference(row, 9) || !writeRow(INSERT_SQL, row.args)) {
+				deadIds.put((Integer) row.args[0], new DeadId());
+				deadLetter(INSERT_SQL, row);
+			}
+		}
+		for (Row row : batch.matchUpdates) {
+			if (isDeadReference(row, 0)
+					|| !writeRow(UPDATE_MATCH_SQL, row.args)) {
+				deadLetter(UPDATE_MATCH_SQL, row);
+			}
+		}
+		for (Object[] args : batch.getTotalsArgs()) {
+			if (!writeRow(UPDATE_TOTALS_SQL, args)) {
+				deadLetter(UPDATE_TOTALS_SQL, new Row(args, null));
+			}
+		}
+	}
+
+	/**
+	 * Writes a single row, retrying while the database can't be reached.
+	 * 
+	 * @return Whether the row was stored.
+	 */
+	private boolean writeRow(final String sql, final Object[] args) {
+		long backoffMs = MIN_BACKOFF_MS;
+		while (true) {
+			try {
+				transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+					@Override
+					protected void doInTransactionWithoutResult(
+							TransactionStatus status) {
+						jdbc.update(sql, args);
+					}
+				});
+				return true;
+			} catch (RuntimeException e) {
+				if (isTransient(e) && !abandoning) {
+					log.warn(String.format("Failed to write %s; retrying in %d ms",
+							Arrays.toString(args), backoffMs), e);
+					sleep(backoffMs);
+					backoffMs = Math.min(2 * backoffMs, MAX_BACKOFF_MS);
+				} else {
+					log.error(String.format("Failed to write %s",
+							Arrays.toString(args)), e);
+					return false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks whether a write failed because the database could not be reached
+	 * or was busy, rather than because it refused the write; retrying the
+	 * former succeeds once the database is back.
+	 */
+	private static boolean isTransient(RuntimeException e) {
+		return e instanceof TransientDataAccessException
+				|| e instanceof RecoverableDataAccessException
+				|| e instanceof DataAccessResourceFailureException
+				|| e instanceof CannotCreateTransactionException;
+	}
+
+	/**
+	 * Dead-letters the inserts or match updates that refer to a tag entry that
+	 * was not stored.
+	 */
+	private void removeDeadReferences(List<Row> rows, boolean inserts) {
+		for (int i = 0; i < rows.size();) {
+			Row row = rows.get(i);
+			if (isDeadReference(row, inserts ? 9 : 0)) {
+				rows.remove(i);
+				if (inserts) {
+					deadIds.put((Integer) row.args[0], new DeadId());
+					deadLetter(INSERT_SQL, row);
+				} else {
+					deadLetter(UPDATE_MATCH_SQL, row);
+				}
+			} else {
+				i++;
+			}
+		}
+	}
+
+	/** The argument at <code>index</code> holds the id of a matching entry. */
+	private boolean isDeadReference(Row row, int index) {
+		return row.args[index] != null && deadIds.containsKey(row.args[index]);
+	}
+
+	/**
+	 * Drops the dead tag entries no write can refer to anymore. Once a tag
+	 * entry is dead-lettered, it is no longer found by tagging requests, and
+	 * those that found it before queue their writes within
+	 * {@link #DEAD_REFERENCE_MS}. The writes queued by then are the last ones
+	 * that may refer to it.
+	 */
+	private void pruneDeadIds() {
+		long now = System.currentTimeMillis();
+		Iterator<DeadId> it = deadIds.values().iterator();
+		while (it.hasNext()) {
+			DeadId dead = it.next();
+			if (dead.lastReference == 0) {
+				if (now - dead.deadSince < DEAD_REFERENCE_MS) {
+					// later ones are more recent
+					break;
+				}
+				dead.lastReference = queuedWrites.get();
+			}
+			if (dead.lastReference <= doneWrites) {
+				it.remove();
+			}
+		}
+	}
+
+	private void deadLetter(String sql, Row row) {
+		metrics.increment("tagEntryWriter.deadLetters");
+		deadLetters.error(String.format("%s -- %s", sql,
+				Arrays.toString(row.args)));
+		if (row.onDeadLetter != null) {
+			try {
+				row.onDeadLetter.run();
+			} catch (RuntimeException e) {
+				log.error("Failed to forget a dead-lettered tag entry write", e);
+			}
+		}
+	}
+
+	private static void sleep(long ms) {
+		try {
+			Thread.sleep(ms);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		if (!enabled) {
+			return;
+		}
+		log.info(String.format("Stopping write-behind of tag entries; %d writes queued",
+				queue.size()));
+		stopping = true;
+		writerThread.join(STOP_TIMEOUT_MS);
+		if (writerThread.isAlive()) {
+			log.error(String.format(
+					"Could not store queued tag entry writes before shutdown; "
+							+ "dead-lettering %d writes", queue.size()));
+			abandoning = true;
+			writerThread.interrupt();
+			writerThread.join();
+		}
+	}
+
+}
@@ -0,0 +1,325 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package nl.waisda.services;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import nl.waisda.domain.TagEntry;
+import nl.waisda.domain.User;
+import nl.waisda.model.IndexedTagEntry;
+import nl.waisda.model.VideoTagIndex;
+import nl.waisda.repositories.TagEntryRepository;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps a resident {@link VideoTagIndex} per video, so the score engine can
+ * find matching tag entries without querying the database. An index is loaded
+ * when a game for its video is created (or on first use) and evicted once no
+ * game for the video has shown activity for {@link #MAX_IDLE_MS}.
+ * <p>
+ * Tag entries stored on this application server are added as they are
+ * stored. With several application servers, every index also reads the tag
+ * entries stored since its last read every {@link #SYNC_INTERVAL_MS}, so
+ * they become match candidates on every server. The entries that are new or
+ * got a match are passed on to the scoreboards, and the clients of their
+ * games are notified.
+ */
+@Service
+public class TagMatchIndexService {
+
+	/** Indexes not used for this long are evicted. */
+	public static final long MAX_IDLE_MS = 30 * 60 * 1000;
+
+	/** Indexes read the tag entries stored by other servers this often. */
+	public static final long SYNC_INTERVAL_MS = 1000;
+
+	/**
+	 * Tag entries are assumed to be stored within this long after they are
+	 * created, including the difference between the clocks of the servers.
+	 */
+	public static final long MAX_STORE_DELAY_MS = 60 * 1000;
+
+	/**
+	 * Fuzzy matching allows one edit per this many characters of a tag (up to
+	 * the configured maximum), so short tags only match exactly.
+	 */
+	public static final int FUZZY_CHARS_PER_EDIT = 4;
+
+	private static final Logger log = Logger
+			.getLogger(TagMatchIndexService.class);
+
+	@Autowired
+	private TagEntryRepository tagEntryRepo;
+
+	@Autowired
+	private TaskExecutor backgroundExecutor;
+
+	@Autowired
+	private GameScoreboardService scoreboards;
+
+	@Autowired
+	private GameEventService gameEvents;
+
+	/** Maximum edit distance of fuzzy matches; 0 disables fuzzy matching. */
+	@Value("${waisda.matcher.fuzzy.maxdistance}")
+	private int fuzzyMaxDistance;
+
+	/** Whether the indexes read the tag entries stored by other servers. */
+	@Value("${waisda.matcher.syncindexes}")
+	private boolean syncIndexes;
+
+	private final ConcurrentMap<Integer, VideoTagIndex> indexes = new ConcurrentHashMap<Integer, VideoTagIndex>();
+
+	/** Maps each normalized tag to the normalized tags it matches with. */
+	private Map<String, Set<String>> matchingTags;
+
+	/**
+	 * Loads the index of a video in the background, so it is ready by the time
+	 * the first tags of a new game come in.
+	 */
+	public void warm(final int videoId) {
+		backgroundExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					getIndex(videoId);
+				} catch (RuntimeException e) {
+					log.error(String.format(
+							"Failed to load tag match index for video %d",
+							videoId), e);
+				}
+			}
+		});
+	}
+
+	/** Returns the index of a video, loading it from the database if needed. */
+	public VideoTagIndex getIndex(int videoId) {
+		VideoTagIndex index = indexes.get(videoId);
+		if (index == null) {
+			VideoTagIndex created = new VideoTagIndex(videoId);
+			index = indexes.putIfAbsent(videoId, created);
+			if (index == null) {
+				index = created;
+			}
+		}
+		index.touch();
+
+		if (!index.isLoaded()) {
+			// Concurrent callers for the same video wait for a single load.
+			synchronized (index) {
+				if (!index.isLoaded()) {
+					long start = System.currentTimeMillis();
+					int syncedId = getSyncedId(start);
+					index.load(tagEntryRepo.getIndexedEntries(videoId),
+							syncedId);
+					log.info(String.format(
+							"Loaded tag match index for video %d with %d entries in %d ms",
+							videoId, index.size(),
+							System.currentTimeMillis() - start));
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Returns an id up to which every tag entry that is stored at all has been
+	 * stored by the time the database is read after <code>now</code>.
+	 */
+	private int getSyncedId(long now) {
+		return tagEntryRepo.getLastIdBefore(new Date(now - MAX_STORE_DELAY_MS));
+	}
+
+	/**
+	 * Adds the tag entries stored since the last read, e.g. by other
+	 * application servers, to the indexes, sets their scores in the
+	 * scoreboards and notifies the clients of their games.
+	 */
+	@Scheduled(fixedDelay = SYNC_INTERVAL_MS)
+	public void syncIndexes() {
+		if (!syncIndexes || indexes.isEmpty()) {
+			return;
+		}
+		int syncedId = getSyncedId(System.currentTimeMillis());
+		for (VideoTagIndex index : indexes.values()) {
+			if (!index.isLoaded()) {
+				continue;
+			}
+			try {
+				List<IndexedTagEntry> changed = index.sync(tagEntryRepo
+						.getIndexedEntries(index.getVideoId(),
+								index.getSyncedId()), syncedId);
+				Set<Integer> gameIds = new HashSet<Integer>();
+				for (IndexedTagEntry entry : changed) {
+					scoreboards.putStored(entry);
+					gameIds.add(entry.getGameId());
+				}
+				for (Integer gameId : gameIds) {
+					gameEvents.publish(gameId);
+				}
+			} catch (RuntimeException e) {
+				log.error(String.format(
+						"Failed to sync tag match index for video %d",
+						index.getVideoId()), e);
+			}
+		}
+	}
+
+	/**
+	 * Returns the candidate matches of a tag entry: all entries for the video
+	 * within <code>MAX_LOOKBACK_TIME</code> whose normalized tag is equal to,
+	 * matches or (with fuzzy matching) is within a few edits of the entry's
+	 * normalized tag, ordered by id.
+	 */
+	public List<IndexedTagEntry> getMatches(int videoId, String normalizedTag,
+			int aroundTime) {
+		VideoTagIndex index = getIndex(videoId);
+		Set<String> tags = getMatchingTags(normalizedTag);
+		int maxEdits = getFuzzyMaxDistance(normalizedTag);
+		if (maxEdits > 0) {
+			tags = new HashSet<String>(tags);
+			tags.addAll(index.getTagsWithin(normalizedTag, maxEdits));
+		}
+		return index.getEntries(tags, aroundTime,
+				ScoringServiceIF.MAX_LOOKBACK_TIME);
+	}
+
+	/** Returns the number of edits a fuzzy match of the tag may have. */
+	public int getFuzzyMaxDistance(String normalizedTag) {
+		return Math.min(fuzzyMaxDistance, normalizedTag.length()
+				/ FUZZY_CHARS_PER_EDIT);
+	}
+
+	public boolean alreadyEntered(int videoId, int gameId,
+			String normalizedTag, int aroundTime, int ownerId) {
+		return getIndex(videoId).contains(gameId, ownerId, normalizedTag,
+				aroundTime, ScoringServiceIF.MAX_LOOKBACK_TIME);
+	}
+
+	/** Adds or updates a stored tag entry in the index of its video. */
+	public void put(TagEntry tagEntry) {
+		VideoTagIndex index = indexes.get(tagEntry.getGame().getVideo().getId());
+		if (index != null) {
+			index.put(IndexedTagEntry.fromTagEntry(tagEntry));
+		}
+	}
+
+	/**
+	 * Adds or updates a tag entry in the index of its video once the current
+	 * transaction commits, so a rollback leaves the index untouched.
+	 */
+	public void putAfterCommit(TagEntry tagEntry) {
+		final int videoId = tagEntry.getGame().getVideo().getId();
+		final IndexedTagEntry entry = IndexedTagEntry.fromTagEntry(tagEntry);
+		TransactionCallbacks.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				VideoTagIndex index = indexes.get(videoId);
+				if (index != null) {
+					index.put(entry);
+				}
+			}
+		});
+	}
+
+	/** Removes a tag entry from the index of its video. */
+	public void remove(int videoId, int id) {
+		VideoTagIndex index = indexes.get(videoId);
+		if (index != null) {
+			index.remove(id);
+		}
+	}
+
+	/** Reflects a move of all tag entries of <code>source</code>. */
+	public void moveOwner(User source, User target) {
+		for (VideoTagIndex index : indexes.values()) {
+			index.moveOwner(source.getId(), target.getId(), target.getName());
+		}
+	}
+
+	/**
+	 * Returns the given normalized tag together with the tags it matches with
+	 * according to the MatchingTag table.
+	 */
+	public Set<String> getMatchingTags(String normalizedTag) {
+		Set<String> matches = getMatchingTags().get(normalizedTag);
+		if (matches == null) {
+			return Collections.singleton(normalizedTag);
+		}
+		Set<String> res = new HashSet<String>(matches);
+		res.add(normalizedTag);
+		return res;
+	}
+
+	private synchronized Map<String, Set<String>> getMatchingTags() {
+		if (matchingTags == null) {
+			Map<String, Set<String>> map = new HashMap<String, Set<String>>();
+			for (String[] pair : tagEntryRepo.getMatchingTags()) {
+				addMatchingTag(map, pair[0], pair[1]);
+				addMatchingTag(map, pair[1], pair[0]);
+			}
+			matchingTags = map;
+			log.info(String.format("Loaded %d matching tags", map.size()));
+		}
+		return matchingTags;
+	}
+
+	private static void addMatchingTag(Map<String, Set<String>> map,
+			String tag, String match) {
+		Set<String> matches = map.get(tag);
+		if (matches == null) {
+			matches = new HashSet<String>(2);
+			map.put(tag, matches);
+		}
+		matches.add(match);
+	}
+
+	@Scheduled(fixedDelay = 60000)
+	public void evictIdleIndexes() {
+		long now = System.currentTimeMillis();
+		Iterator<VideoTagIndex> it = indexes.values().iterator();
+		while (it.hasNext()) {
+			VideoTagIndex index = it.next();
+			if (now - index.getLastAccess() > MAX_IDLE_MS) {
+				it.remove();
+				log.info(String.format(
+						"Evicted tag match index for video %d",
+						index.getVideoId()));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,71 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package nl.waisda.services;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Helpers for keeping in-memory state in step with the database.
+ */
+public final class TransactionCallbacks {
+
+	private TransactionCallbacks() {
+	}
+
+	/**
+	 * Runs <code>task</code> after the current transaction commits, or right
+	 * away if there is no transaction. Tasks are not run on rollback.
+	 */
+	public static void afterCommit(final Runnable task) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager
+					.registerSynchronization(new TransactionSynchronizationAdapter() {
+						@Override
+						public void afterCommit() {
+							task.run();
+						}
+					});
+		} else {
+			task.run();
+		}
+	}
+
+	/**
+	 * Runs <code>task</code> if the current transaction rolls back, to undo
+	 * in-memory changes that were made ahead of the commit. Does nothing if
+	 * there is no transaction.
+	 */
+	public static void afterRollback(final Runnable task) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager
+					.registerSynchronization(new TransactionSynchronizationAdapter() {
+						@Override
+						public void afterCompletion(int status) {
+							if (status == STATUS_ROLLED_BACK) {
+								task.run();
+							}
+						}
+					});
+		}
+	}
+
+}
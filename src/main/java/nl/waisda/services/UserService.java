@@ -34,12 +34,16 @@ import nl.waisda.repositories.TagEntryRepository;
 import nl.waisda.repositories.UserRepository;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 @Service
 public class UserService {
 
+	private static final Logger log = Logger.getLogger(UserService.class);
+
 	@Autowired
 	private UserRepository userRepo;
 
@@ -83,4 +87,16 @@ public class UserService {
 		return reset;
 	}
 
+	/**
+	 * Reconciles the totals stored with each user with their tag entries, in
+	 * case the incremental updates missed something. Runs every night.
+	 */
+	@Scheduled(cron = "0 30 4 * * *")
+	public void rebuildUserTotals() {
+		long start = System.currentTimeMillis();
+		int n = userRepo.rebuildTotals();
+		log.info(String.format("Rebuilt user totals in %d ms; %d users had drifted",
+				System.currentTimeMillis() - start, n));
+	}
+
 }
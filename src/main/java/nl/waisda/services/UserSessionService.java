@@ -32,11 +32,17 @@ import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 
 
 @Service
 public class UserSessionService {
 
+	/** Request attribute caching the current user within a request. */
+	private static final String CURRENT_USER_ATTRIBUTE = UserSessionService.class
+			.getName() + ".currentUser";
+
 	private Logger log = Logger.getLogger(UserSessionService.class);
 
 	@Autowired
@@ -51,13 +57,42 @@ public class UserSessionService {
 	@Autowired
 	private ParticipantRepository participantRepo;
 
+	@Autowired
+	private GameScoreboardService scoreboards;
+
+	@Autowired
+	private LeaderboardService leaderboard;
+
+	@Autowired
+	private TagEntryWriter tagEntryWriter;
+
+	@Autowired
+	private MetricsService metrics;
+
+	/**
+	 * Returns the user of the session. The user is looked up at most once per
+	 * request; interceptors, controllers and views share the same instance.
+	 */
 	public User getCurrentUser(HttpSession session) {
 		Integer userId = (Integer) session.getAttribute("userSession");
 		if (userId != null) {
-			User user = userRepo.getById(userId);
+			RequestAttributes request = RequestContextHolder
+					.getRequestAttributes();
+			User user = request == null ? null : (User) request.getAttribute(
+					CURRENT_USER_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+			if (user != null && user.getId() == userId) {
+				metrics.increment("currentUser.hits");
+				return user;
+			}
+
+			metrics.increment("currentUser.misses");
+			user = userRepo.getById(userId);
 			if (user == null) {
 				// User no longer exists.
 				logout(session);
+			} else if (request != null) {
+				request.setAttribute(CURRENT_USER_ATTRIBUTE, user,
+						RequestAttributes.SCOPE_REQUEST);
 			}
 			return user;
 		} else {
@@ -123,9 +158,14 @@ public class UserSessionService {
 		}
 		log.info(String.format("Merging anonymous user %d "
 				+ "with existing user %d", source.getId(), target.getId()));
+		// The moves below must see all tag entries of the source user.
+		tagEntryWriter.flush();
 		gameRepo.moveGames(source, target);
-		tagEntryRepo.moveTagEntries(source, target);
+		tagEntryRepo.moveTagEntries(source, target);
+		userRepo.moveTotals(source, target);
 		participantRepo.moveParticipants(source, target);
+		scoreboards.evictUser(source);
+		leaderboard.moveUser(source, target);
 	}
 
 }
@@ -0,0 +1,226 @@
+/*  This file is part of Waisda 
+
+    Copyright (c) 2012 Netherlands Institute for Sound and Vision
+    https://github.com/beeldengeluid/waisda
+	
+    Waisda is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Waisda is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with Waisda.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package nl.waisda.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+
+import nl.waisda.domain.Video;
+import nl.waisda.model.Channel;
+import nl.waisda.model.Value;
+import nl.waisda.repositories.VideoRepository;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Keeps all videos in memory, with the number of games played and the
+ * highscore of each, so the channels on the homepage are picked without
+ * touching the database. The catalog is read from the database once at
+ * startup; after that, stored videos, created games and score changes are
+ * applied as they are committed.
+ * <p>
+ * Channels are picked by walking a shuffled ring of the enabled videos, which
+ * is shuffled again whenever the walk wraps around. Every enabled video is
+ * featured once per round, in random order.
+ */
+@Service
+public class VideoCatalog {
+
+	private static final Logger log = Logger.getLogger(VideoCatalog.class);
+
+	private static class Entry {
+		volatile Video video;
+		final AtomicInteger timesPlayed = new AtomicInteger();
+		final AtomicInteger highscore = new AtomicInteger();
+		/** Position in the ring, or -1 if the video is disabled. */
+		int index = -1;
+
+		Entry(Video video) {
+			this.video = video;
+		}
+	}
+
+	@Autowired
+	private VideoRepository videoRepo;
+
+	@Autowired
+	private MetricsService metrics;
+
+	private final ConcurrentMap<Integer, Entry> entries = new ConcurrentHashMap<Integer, Entry>();
+
+	/** The enabled videos, in random order; guarded by this. */
+	private final List<Entry> ring = new ArrayList<Entry>();
+
+	/** Position of the next video to feature in the ring; guarded by this. */
+	private int cursor;
+
+	private final Random random = new Random();
+
+	@PostConstruct
+	public void init() {
+		List<Video> videos = videoRepo.listAll();
+		Map<Integer, Integer> highscores = videoRepo.getHighscores();
+		synchronized (this) {
+			for (Video video : videos) {
+				Entry entry = new Entry(video);
+				entry.timesPlayed.set(video.getTimesPlayed());
+				Integer highscore = highscores.get(video.getId());
+				if (highscore != null) {
+					entry.highscore.set(highscore);
+				}
+				entries.put(video.getId(), entry);
+				if (video.isEnabled()) {
+					entry.index = ring.size();
+					ring.add(entry);
+				}
+			}
+			shuffle();
+		}
+		log.info(String.format("Loaded %d videos, %d enabled", entries.size(),
+				ring.size()));
+		metrics.register("videoCatalog.enabled", new Value<Integer>() {
+			@Override
+			public Integer get() {
+				synchronized (VideoCatalog.this) {
+					return ring.size();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the next <code>n</code> enabled videos of the rotation as
+	 * channels, or all enabled videos if there are fewer. When the round
+	 * ends, the videos left in it are returned first and the rest are taken
+	 * from a new round, in which the videos just returned come last.
+	 */
+	public synchronized List<Channel> getChannels(int n) {
+		n = Math.min(n, ring.size());
+		List<Channel> channels = new ArrayList<Channel>(n);
+		List<Entry> endOfRound = new ArrayList<Entry>(ring.subList(cursor,
+				Math.min(cursor + n, ring.size())));
+		for (Entry entry : endOfRound) {
+			channels.add(toChannel(entry));
+		}
+		cursor += endOfRound.size();
+		if (channels.size() < n) {
+			shuffle();
+			for (int i = 0; i < endOfRound.size(); i++) {
+				swap(endOfRound.get(i).index, ring.size() - 1 - i);
+			}
+			for (; channels.size() < n; cursor++) {
+				channels.add(toChannel(ring.get(cursor)));
+			}
+		}
+		return channels;
+	}
+
+	private static Channel toChannel(Entry entry) {
+		return new Channel(entry.video, entry.timesPlayed.get(),
+				entry.highscore.get());
+	}
+
+	private void shuffle() {
+		Collections.shuffle(ring, random);
+		for (int i = 0; i < ring.size(); i++) {
+			ring.get(i).index = i;
+		}
+		cursor = 0;
+	}
+
+	/** Adds or replaces a video once the current transaction commits. */
+	public void update(final Video video) {
+		TransactionCallbacks.afterCommit(new Runnable() {
+			@Override
+			public void run() {
+				apply(video);
+			}
+		});
+	}
+
+	private synchronized void apply(Video video) {
+		Entry entry = entries.get(video.getId());
+		if (entry == null) {
+			entry = new Entry(video);
+			entries.put(video.getId(), entry);
+		} else {
+			entry.video = video;
+		}
+		// Keep the ring split into the videos featured in this round (before
+		// the cursor) and the ones still to come, so no video is skipped or
+		// featured twice in a round.
+		if (video.isEnabled() && entry.index < 0) {
+			// still to come in this round, at a random position
+			entry.index = ring.size();
+			ring.add(entry);
+			swap(cursor + random.nextInt(ring.size() - cursor), entry.index);
+		} else if (!video.isEnabled() && entry.index >= 0) {
+			if (entry.index < cursor) {
+				cursor--;
+				swap(entry.index, cursor);
+			}
+			swap(entry.index, ring.size() - 1);
+			ring.remove(ring.size() - 1);
+			entry.index = -1;
+		}
+	}
+
+	private void swap(int i, int j) {
+		Entry a = ring.get(i);
+		Entry b = ring.get(j);
+		ring.set(i, b);
+		ring.set(j, a);
+		a.index = j;
+		b.index = i;
+	}
+
+	/** Counts a newly created game of a video. */
+	public void countGame(int videoId) {
+		Entry entry = entries.get(videoId);
+		if (entry != null) {
+			entry.timesPlayed.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Raises the highscore of a video to the total score of one of its games,
+	 * if that is higher.
+	 */
+	public void offerHighscore(int videoId, int gameScore) {
+		Entry entry = entries.get(videoId);
+		if (entry != null) {
+			int highscore = entry.highscore.get();
+			while (gameScore > highscore
+					&& !entry.highscore.compareAndSet(highscore, gameScore)) {
+				highscore = entry.highscore.get();
+			}
+		}
+	}
+
+}
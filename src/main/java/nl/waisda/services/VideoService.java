@@ -19,12 +19,14 @@
 
 package nl.waisda.services;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+
+import javax.annotation.PostConstruct;
 
 import nl.waisda.domain.Video;
-import nl.waisda.model.Cache;
 import nl.waisda.model.Channel;
+import nl.waisda.model.RefreshingCache;
 import nl.waisda.model.Value;
 import nl.waisda.repositories.VideoRepository;
 
@@ -39,26 +41,30 @@ public class VideoService {
 	@Autowired
 	private VideoRepository videoRepo;
 
-	private Value<List<Channel>> channelContent;
+	@Autowired
+	private VideoCatalog catalog;
+
+	@Autowired
+	private MetricsService metrics;
+
+	@Autowired
+	private Executor cacheRefreshExecutor;
+
+	private RefreshingCache<List<Channel>> channelContent;
 
-	{
-		channelContent = new Value<List<Channel>>() {
+	@PostConstruct
+	public void init() {
+		Value<List<Channel>> fetchChannels = new Value<List<Channel>>() {
 
 			@Override
 			public List<Channel> get() {
-				List<Video> videos = videoRepo.getFeaturedVideos();
-				List<Channel> channels = new ArrayList<Channel>(videos.size());
-				for (Video video : videos) {
-
-					int highscore = videoRepo.getHighscore(video.getId());
-					channels.add(new Channel(video, highscore));
-				}
-				return channels;
+				return catalog.getChannels(VideoRepository.NCHANNELS);
 			}
 
 		};
-		channelContent = new Cache<List<Channel>>(channelContent,
-				MAX_CHANNEL_AGE);
+		channelContent = new RefreshingCache<List<Channel>>(fetchChannels,
+				MAX_CHANNEL_AGE, cacheRefreshExecutor);
+		metrics.registerCache("cache.channels", channelContent);
 	}
 
 	public Video getVideoById(int videoId) {
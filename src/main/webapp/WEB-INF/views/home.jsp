@@ -40,7 +40,7 @@
 					<div class="overlay trigger"></div>
 				</div>
 				<h3 class="h5">${channel.video.title}</h3>
-				<p class="small">games: ${channel.video.timesPlayed}<br/>high score: <nf:format number="${channel.highscore}" /></p>
+				<p class="small">games: ${channel.timesPlayed}<br/>high score: <nf:format number="${channel.highscore}" /></p>
 			</a>
 		</li>
 		</c:forEach>		
@@ -7,6 +7,7 @@ var Game = base2.Base.extend({
 	history: null,
 	scoreboard: null,
 	updateIntervalId: null,
+	updateVersion: null,
 	beenPlaying: false,
 	lastKnownUserId: CurrentUser.id,
 	
@@ -111,6 +112,10 @@ var Game = base2.Base.extend({
 				elapsed = 0;
 			}
 			var url = "/game/" + this.gameId + "/update/" + elapsed;
+			if (this.updateVersion != null) {
+				// Long poll: the server responds as soon as the game changes.
+				url += "?version=" + this.updateVersion;
+			}
 			jQuery.ajax(url, {
 				success: jQuery.proxy(function(responseJSON) {
 					if (!responseJSON) {
@@ -118,7 +123,11 @@ var Game = base2.Base.extend({
 					}
 					if (responseJSON.state == "ENDED") {
 						this.endGame();
+					} else if (!responseJSON.modified) {
+						// Nothing happened while waiting, ask again right away.
+						this.updateIntervalId = setTimeout(jQuery.proxy(this.update, this), 0);
 					} else {
+						this.updateVersion = responseJSON.version;
 						this.history.update(responseJSON.tagEntries, this.videoplayer.getElapsed());
 						if (jQuery('#playerSessionScore')) {
 							jQuery('#playerSessionScore').html(responseJSON.gameScore);
@@ -127,8 +136,13 @@ var Game = base2.Base.extend({
 						this.lastKnownUserId = responseJSON.ownId;
 						this.scoreboard.update(responseJSON.students, responseJSON.ownId);
 
+						// Wait a little before the next request, so bursts of
+						// changes are coalesced into a single update.
 						this.updateIntervalId = setTimeout(jQuery.proxy(this.update, this), 1000);
 					}
+				}, this),
+				error: jQuery.proxy(function() {
+					this.updateIntervalId = setTimeout(jQuery.proxy(this.update, this), 5000);
 				}, this)
 			});
 		}
@@ -0,0 +1,278 @@
+package nl.waisda.controllers.api;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.waisda.domain.Video;
+import nl.waisda.repositories.TagEntryRepository;
+
+/**
+ * Runs bulk exports against a stub repository: the response, the interleaving of the videos, and how the workers
+ * stop when a video fails or the client stops reading.
+ */
+public class BulkTagExportTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private ExecutorService executor;
+
+    /**
+     * Serves the tags of every video: video v has tags v * 1000 + 1 up to v * 1000 + tagsPerVideo.
+     */
+    private static class StubRepository extends TagEntryRepository {
+
+        final int tagsPerVideo;
+        final AtomicInteger pages = new AtomicInteger();
+
+        StubRepository(int tagsPerVideo) {
+            this.tagsPerVideo = tagsPerVideo;
+        }
+
+        @Override
+        public List<Object[]> getExportPage(int videoId, Date since, int afterId, int maxResults) {
+            pages.incrementAndGet();
+            List<Object[]> rows = new ArrayList<Object[]>();
+            int first = Math.max(afterId + 1, videoId * 1000 + 1);
+            for (int id = first; id <= videoId * 1000 + tagsPerVideo && rows.size() < maxResults; id++) {
+                rows.add(new Object[] { id, "tag" + id, id % 1000 * 100, 7 });
+            }
+            return rows;
+        }
+    }
+
+    @Before
+    public void startExecutor() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void stopExecutor() {
+        executor.shutdownNow();
+    }
+
+    private static List<Video> videos(int... ids) {
+        List<Video> videos = new ArrayList<Video>();
+        for (int id : ids) {
+            Video video = new Video();
+            video.setId(id);
+            video.setFragmentID("fragment" + id);
+            videos.add(video);
+        }
+        return videos;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> lines(String response) throws IOException {
+        List<Map<String, Object>> lines = new ArrayList<Map<String, Object>>();
+        for (String line : response.split("\n")) {
+            lines.add(mapper.readValue(line, Map.class));
+        }
+        return lines;
+    }
+
+    /** @return the tag ids of every fragment, in the order they were written */
+    @SuppressWarnings("unchecked")
+    private static Map<String, List<Integer>> tagIds(List<Map<String, Object>> lines) {
+        Map<String, List<Integer>> ids = new LinkedHashMap<String, List<Integer>>();
+        for (Map<String, Object> line : lines) {
+            String fragmentID = (String) line.get("fragmentID");
+            if (!ids.containsKey(fragmentID)) {
+                ids.put(fragmentID, new ArrayList<Integer>());
+            }
+            if (line.containsKey("tags")) {
+                Assert.assertFalse("page after the end of " + fragmentID, ids.get(fragmentID).contains(-1));
+                for (Map<String, Object> tag : (List<Map<String, Object>>) line.get("tags")) {
+                    ids.get(fragmentID).add((Integer) tag.get("tag_id"));
+                }
+            } else {
+                // marks the end of the fragment
+                ids.get(fragmentID).add(-1);
+            }
+        }
+        return ids;
+    }
+
+    private static List<Integer> expectedIds(int videoId, int count) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int i = 1; i <= count; i++) {
+            ids.add(videoId * 1000 + i);
+        }
+        ids.add(-1);
+        return ids;
+    }
+
+    @Test(timeout = 10000)
+    @SuppressWarnings("unchecked")
+    public void testExportsEveryVideo() throws Exception {
+        StubRepository repository = new StubRepository(5);
+        StringWriter writer = new StringWriter();
+        new BulkTagExport(repository, videos(1, 2, 3), null, 2, 2).run(executor, mapper, writer);
+
+        List<Map<String, Object>> lines = lines(writer.toString());
+        Map<String, List<Integer>> ids = tagIds(lines);
+        Assert.assertEquals(3, ids.size());
+        for (int videoId = 1; videoId <= 3; videoId++) {
+            Assert.assertEquals(expectedIds(videoId, 5), ids.get("fragment" + videoId));
+        }
+        // three pages of two tags per video, the last one short
+        Assert.assertEquals(9, repository.pages.get());
+        Assert.assertEquals(12, lines.size());
+
+        for (Map<String, Object> line : lines) {
+            if (line.containsKey("continuation")) {
+                String fragmentID = (String) line.get("fragmentID");
+                int videoId = Integer.parseInt(fragmentID.substring("fragment".length()));
+                Assert.assertEquals(Integer.toString(videoId * 1000 + 5), line.get("continuation"));
+                Assert.assertEquals(Boolean.TRUE, line.get("complete"));
+            }
+        }
+        Map<String, Object> tag = (Map<String, Object>) ((List<?>) lines.get(0).get("tags")).get(0);
+        Assert.assertEquals(4, tag.size());
+        Assert.assertEquals(7, tag.get("player_id"));
+    }
+
+    @Test(timeout = 10000)
+    public void testPagesOfVideosAreInterleaved() throws Exception {
+        // both workers fetch their next page together, so neither can finish its video before the other starts
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        StubRepository repository = new StubRepository(6) {
+            @Override
+            public List<Object[]> getExportPage(int videoId, Date since, int afterId, int maxResults) {
+                try {
+                    barrier.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                } catch (BrokenBarrierException e) {
+                    throw new IllegalStateException(e);
+                } catch (TimeoutException e) {
+                    throw new IllegalStateException("the workers didn't run in parallel", e);
+                }
+                return super.getExportPage(videoId, since, afterId, maxResults);
+            }
+        };
+        StringWriter writer = new StringWriter();
+        new BulkTagExport(repository, videos(1, 2), null, 2, 2).run(executor, mapper, writer);
+
+        List<Map<String, Object>> lines = lines(writer.toString());
+        Map<String, List<Integer>> ids = tagIds(lines);
+        Assert.assertEquals(expectedIds(1, 6), ids.get("fragment1"));
+        Assert.assertEquals(expectedIds(2, 6), ids.get("fragment2"));
+
+        List<String> order = new ArrayList<String>();
+        for (Map<String, Object> line : lines) {
+            order.add((String) line.get("fragmentID"));
+        }
+        Assert.assertTrue(order.toString(), order.indexOf("fragment2") < order.lastIndexOf("fragment1"));
+        Assert.assertTrue(order.toString(), order.indexOf("fragment1") < order.lastIndexOf("fragment2"));
+    }
+
+    @Test(timeout = 10000)
+    public void testFailedVideoDoesNotStopTheExport() throws Exception {
+        StubRepository repository = new StubRepository(3) {
+            @Override
+            public List<Object[]> getExportPage(int videoId, Date since, int afterId, int maxResults) {
+                if (videoId == 2) {
+                    throw new IllegalStateException("database gone");
+                }
+                return super.getExportPage(videoId, since, afterId, maxResults);
+            }
+        };
+        StringWriter writer = new StringWriter();
+        new BulkTagExport(repository, videos(1, 2, 3), null, 10, 3).run(executor, mapper, writer);
+
+        List<Map<String, Object>> lines = lines(writer.toString());
+        Assert.assertEquals(5, lines.size());
+        Map<String, List<Integer>> ids = tagIds(lines);
+        Assert.assertEquals(expectedIds(1, 3), ids.get("fragment1"));
+        Assert.assertEquals(expectedIds(3, 3), ids.get("fragment3"));
+        for (Map<String, Object> line : lines) {
+            if ("fragment2".equals(line.get("fragmentID"))) {
+                Assert.assertTrue((String) line.get("error"), ((String) line.get("error")).contains("database gone"));
+                Assert.assertNull(line.get("continuation"));
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testWorkerDoneIsDeliveredWhenAWorkerDies() throws Exception {
+        StubRepository repository = new StubRepository(3) {
+            @Override
+            public List<Object[]> getExportPage(int videoId, Date since, int afterId, int maxResults) {
+                if (videoId == 1) {
+                    throw new AssertionError("not a RuntimeException");
+                }
+                return super.getExportPage(videoId, since, afterId, maxResults);
+            }
+        };
+        StringWriter writer = new StringWriter();
+        // the run only returns once both workers reported they are done
+        new BulkTagExport(repository, videos(1, 2), null, 10, 2).run(executor, mapper, writer);
+        Map<String, List<Integer>> ids = tagIds(lines(writer.toString()));
+        Assert.assertNull(ids.get("fragment1"));
+    }
+
+    @Test(timeout = 10000)
+    public void testNoVideos() throws Exception {
+        StringWriter writer = new StringWriter();
+        new BulkTagExport(new StubRepository(3), Collections.<Video> emptyList(), null, 10, 4).run(executor,
+                mapper, writer);
+        Assert.assertEquals("", writer.toString());
+    }
+
+    @Test(timeout = 20000)
+    public void testWorkersStopWhenTheClientStopsReading() throws Exception {
+        StubRepository repository = new StubRepository(999);
+        Writer writer = new Writer() {
+            private int written;
+
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                written += len;
+                if (written > 2000) {
+                    throw new IOException("Broken pipe");
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        try {
+            new BulkTagExport(repository, videos(1, 2, 3, 4), null, 5, 4).run(executor, mapper, writer);
+            Assert.fail("the client stopped reading");
+        } catch (IOException e) {
+            Assert.assertEquals("Broken pipe", e.getMessage());
+        }
+
+        // no worker is left waiting to hand over a page
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        // and they stopped fetching pages
+        Assert.assertTrue(repository.pages.toString(), repository.pages.get() < 4 * 200);
+    }
+
+}
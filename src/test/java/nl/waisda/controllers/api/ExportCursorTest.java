@@ -0,0 +1,44 @@
+package nl.waisda.controllers.api;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the continuation tokens of the tag export.
+ */
+public class ExportCursorTest {
+
+    @Test
+    public void testNoToken() {
+        Assert.assertNull(ExportCursor.parse(null));
+        Assert.assertNull(ExportCursor.parse(""));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        ExportCursor cursor = ExportCursor.after(new Object[] { 1234, "kat", 5000, 7 });
+        Assert.assertEquals(1234, cursor.getId());
+        Assert.assertEquals("1234", cursor.toString());
+        Assert.assertEquals(1234, ExportCursor.parse(cursor.toString()).getId());
+        Assert.assertEquals(0, ExportCursor.parse("0").getId());
+        Assert.assertEquals(Integer.MAX_VALUE, ExportCursor.parse(Integer.toString(Integer.MAX_VALUE)).getId());
+    }
+
+    @Test
+    public void testAfterLongId() {
+        Assert.assertEquals(42, ExportCursor.after(new Object[] { 42L, "kat", 5000, 7 }).getId());
+    }
+
+    @Test
+    public void testMalformedTokens() {
+        for (String token : new String[] { "-1", "abc", "12a", " 12", "1.5", "99999999999", "1234|2012-01-01" }) {
+            try {
+                ExportCursor.parse(token);
+                Assert.fail(token);
+            } catch (IllegalArgumentException e) {
+                Assert.assertTrue(e.getMessage(), e.getMessage().contains(token));
+            }
+        }
+    }
+
+}
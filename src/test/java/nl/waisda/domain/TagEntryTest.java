@@ -0,0 +1,83 @@
+package nl.waisda.domain;
+
+import java.text.Normalizer;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Compares TagEntry.normalize with the regular expression based
+ * implementation it replaced, which defines the expected output.
+ */
+public class TagEntryTest {
+
+    /** The original implementation of TagEntry.normalize. */
+    private static String referenceNormalize(String name) {
+        name = name.toLowerCase();
+        name = name.replaceAll("\\([^\\)]*\\)", "");
+        name = Normalizer.normalize(name, Normalizer.Form.NFD).replaceAll(
+                "[^a-z0-9]+", "");
+        return name;
+    }
+
+    private static void assertNormalizesAsBefore(String tag) {
+        Assert.assertEquals("normalize(\"" + tag + "\")",
+                referenceNormalize(tag), TagEntry.normalize(tag));
+    }
+
+    @Test
+    public void testExamples() {
+        Assert.assertEquals("laren", TagEntry.normalize("Laren (Gelderland)"));
+        Assert.assertEquals("curacao", TagEntry.normalize("Curaçao"));
+        Assert.assertEquals("sgravenhage", TagEntry.normalize("'s-Gravenhage"));
+        Assert.assertEquals("tweedewereldoorlog",
+                TagEntry.normalize(" Tweede\tWereldoorlog "));
+        Assert.assertEquals("", TagEntry.normalize(""));
+    }
+
+    @Test
+    public void testNormalizedTagIsReturnedAsIs() {
+        String tag = "amsterdam1953";
+        Assert.assertSame(tag, TagEntry.normalize(tag));
+    }
+
+    @Test
+    public void testParentheses() {
+        String[] tags = { "(", ")", "()", "a(b", "a)b", "a(b)c", "(a(b)c)",
+                "a(b)c(d", "a(b(c", "((a))b", ")(a)(", "a()b()c",
+                "Rotterdam (Zuid-Holland) (1953)", "(((", ")))" };
+        for (String tag : tags) {
+            assertNormalizesAsBefore(tag);
+        }
+    }
+
+    @Test
+    public void testEveryCharacter() {
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            assertNormalizesAsBefore(String.valueOf((char) c));
+            assertNormalizesAsBefore("a" + (char) c + "B");
+        }
+        for (int cp = Character.MIN_SUPPLEMENTARY_CODE_POINT; cp <= Character.MAX_CODE_POINT; cp += 7) {
+            assertNormalizesAsBefore("x" + new String(Character.toChars(cp)));
+        }
+    }
+
+    @Test
+    public void testRandomTags() {
+        String alphabet = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ"
+                + "0123456789 \t-'.,!?()()" + "àáâãäåçèéêëìíîïñòóôõöùúûüýÿ"
+                + "ÀÁÂÄÇÈÉÊËÏÖÜŸĳĲßæøœ" + "İıŞşĞğ" + "́̈KÅ"
+                + "Σσς€©½²" + "𐐀";
+        Random random = new Random(20130314L);
+        for (int i = 0; i < 200000; i++) {
+            int length = random.nextInt(30);
+            StringBuilder tag = new StringBuilder(length);
+            for (int j = 0; j < length; j++) {
+                tag.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertNormalizesAsBefore(tag.toString());
+        }
+    }
+
+}
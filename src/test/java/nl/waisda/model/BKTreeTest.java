@@ -0,0 +1,100 @@
+package nl.waisda.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Compares searches in a BKTree with comparing the query to every word.
+ */
+public class BKTreeTest {
+
+    private static List<String> sorted(List<String> words) {
+        List<String> res = new ArrayList<String>(words);
+        Collections.sort(res);
+        return res;
+    }
+
+    @Test
+    public void testEmptyTree() {
+        BKTree tree = new BKTree();
+        Assert.assertEquals(0, tree.size());
+        Assert.assertTrue(tree.search("fiets", 2).isEmpty());
+        Assert.assertTrue(tree.search("", 0).isEmpty());
+    }
+
+    @Test
+    public void testAddIgnoresDuplicates() {
+        BKTree tree = new BKTree();
+        Assert.assertTrue(tree.add("fiets"));
+        Assert.assertTrue(tree.add("fietsen"));
+        Assert.assertFalse(tree.add("fiets"));
+        Assert.assertEquals(2, tree.size());
+    }
+
+    @Test
+    public void testDistanceCutOff() {
+        BKTree tree = new BKTree();
+        for (String word : Arrays.asList("fiets", "fietsen", "fietser", "riets", "feest", "boot")) {
+            tree.add(word);
+        }
+        Assert.assertEquals(Arrays.asList("fiets"), tree.search("fiets", 0));
+        Assert.assertEquals(Arrays.asList("fiets", "riets"), sorted(tree.search("fiets", 1)));
+        Assert.assertEquals(Arrays.asList("fiets", "fietsen", "fietser", "riets"),
+                sorted(tree.search("fiets", 2)));
+        Assert.assertEquals(Arrays.asList("feest", "fiets", "fietsen", "fietser", "riets"),
+                sorted(tree.search("fiets", 3)));
+        Assert.assertTrue(tree.search("auto", 1).isEmpty());
+    }
+
+    @Test
+    public void testEmptyAndShortWords() {
+        BKTree tree = new BKTree();
+        for (String word : Arrays.asList("", "a", "b", "ab", "abc")) {
+            tree.add(word);
+        }
+        Assert.assertEquals(Arrays.asList(""), tree.search("", 0));
+        Assert.assertEquals(Arrays.asList("", "a", "b"), sorted(tree.search("", 1)));
+        Assert.assertEquals(Arrays.asList("", "a", "ab", "b"), sorted(tree.search("a", 1)));
+    }
+
+    @Test
+    public void testRandomWordsMatchLinearSearch() {
+        Random random = new Random(13);
+        BKTree tree = new BKTree();
+        List<String> words = new ArrayList<String>();
+        for (int i = 0; i < 2000; i++) {
+            String word = randomWord(random);
+            if (tree.add(word)) {
+                words.add(word);
+            }
+        }
+        Assert.assertEquals(words.size(), tree.size());
+        for (int i = 0; i < 200; i++) {
+            String query = randomWord(random);
+            int maxDistance = random.nextInt(4);
+            List<String> expected = new ArrayList<String>();
+            for (String word : words) {
+                if (Levenshtein.distance(query, word) <= maxDistance) {
+                    expected.add(word);
+                }
+            }
+            Assert.assertEquals(query + " within " + maxDistance, sorted(expected),
+                    sorted(tree.search(query, maxDistance)));
+        }
+    }
+
+    private static String randomWord(Random random) {
+        char[] chars = new char[random.nextInt(9)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(4));
+        }
+        return new String(chars);
+    }
+
+}
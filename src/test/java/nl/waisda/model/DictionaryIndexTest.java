@@ -0,0 +1,94 @@
+package nl.waisda.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks lookups in a DictionaryIndex against the (tag, dictionary) pairs it was built from.
+ */
+public class DictionaryIndexTest {
+
+    private static DictionaryIndex cities() {
+        return new DictionaryIndex.Builder()
+                .add("rotterdam", "GeografischeNamen")
+                .add("amsterdam", "GeografischeNamen")
+                .add("utrecht", "GeografischeNamen")
+                .add("ams", "Afkortingen")
+                .build();
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        DictionaryIndex index = cities();
+        Assert.assertEquals(4, index.size());
+        for (String tag : Arrays.asList("ams", "amsterdam", "rotterdam", "utrecht")) {
+            Assert.assertTrue(tag, index.contains(tag));
+        }
+        // before the first, between and after the last tag
+        for (String tag : Arrays.asList("", "aaa", "den haag", "zwolle", "zzz")) {
+            Assert.assertFalse(tag, index.contains(tag));
+            Assert.assertTrue(tag, index.getDictionaries(tag).isEmpty());
+        }
+        Assert.assertEquals(Collections.singletonList("GeografischeNamen"), index.getDictionaries("utrecht"));
+    }
+
+    @Test
+    public void testPrefixTags() {
+        DictionaryIndex index = cities();
+        Assert.assertEquals(Collections.singletonList("Afkortingen"), index.getDictionaries("ams"));
+        Assert.assertEquals(Collections.singletonList("GeografischeNamen"), index.getDictionaries("amsterdam"));
+        Assert.assertFalse(index.contains("am"));
+        Assert.assertFalse(index.contains("amster"));
+        Assert.assertFalse(index.contains("amsterdammer"));
+    }
+
+    @Test
+    public void testSeveralDictionariesPerTag() {
+        DictionaryIndex index = new DictionaryIndex.Builder()
+                .add("willem", "Voornamen")
+                .add("willem", "Persoonsnamen")
+                .add("willem", "Achternamen")
+                .add("willem", "Persoonsnamen")
+                .add("oranje", "Kleuren")
+                .build();
+        Assert.assertEquals(Arrays.asList("Achternamen", "Persoonsnamen", "Voornamen"),
+                index.getDictionaries("willem"));
+        Assert.assertEquals(Collections.singletonList("Kleuren"), index.getDictionaries("oranje"));
+        Assert.assertEquals(Arrays.asList("Achternamen", "Kleuren", "Persoonsnamen", "Voornamen"),
+                index.getDictionaryNames());
+    }
+
+    @Test
+    public void testEmptyIndex() {
+        DictionaryIndex index = DictionaryIndex.EMPTY;
+        Assert.assertEquals(0, index.size());
+        Assert.assertFalse(index.contains(""));
+        Assert.assertFalse(index.contains("amsterdam"));
+        Assert.assertTrue(index.getDictionaries("amsterdam").isEmpty());
+        Assert.assertTrue(index.getDictionaryNames().isEmpty());
+    }
+
+    @Test
+    public void testMaxDictionaries() {
+        DictionaryIndex.Builder builder = new DictionaryIndex.Builder();
+        for (int i = 0; i < DictionaryIndex.MAX_DICTIONARIES; i++) {
+            builder.add("tag", String.format("dictionary%02d", i));
+        }
+        DictionaryIndex index = builder.build();
+        Assert.assertEquals(DictionaryIndex.MAX_DICTIONARIES, index.getDictionaries("tag").size());
+        Assert.assertEquals("dictionary63", index.getDictionaries("tag").get(63));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTooManyDictionaries() {
+        DictionaryIndex.Builder builder = new DictionaryIndex.Builder();
+        for (int i = 0; i <= DictionaryIndex.MAX_DICTIONARIES; i++) {
+            builder.add("tag" + i, "dictionary" + i);
+        }
+        builder.build();
+    }
+
+}
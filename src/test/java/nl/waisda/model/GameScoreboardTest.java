@@ -0,0 +1,102 @@
+package nl.waisda.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import nl.waisda.domain.User;
+import nl.waisda.domain.UserScore;
+
+/**
+ * Checks that the scoreboard counts every tag entry once, however often and in whatever order its changes arrive.
+ */
+public class GameScoreboardTest {
+
+    private static User user(int id) {
+        User user = new User();
+        user.setId(id);
+        user.setName("player" + id);
+        return user;
+    }
+
+    private static UserScore scoreOf(GameScoreboard scoreboard, int userId) {
+        for (UserScore score : scoreboard.getScores()) {
+            if (score.getUser().getId() == userId) {
+                return score;
+            }
+        }
+        throw new AssertionError("user " + userId + " not in the scoreboard");
+    }
+
+    private static void assertScore(GameScoreboard scoreboard, int userId, int score, int tags, int matches) {
+        UserScore userScore = scoreOf(scoreboard, userId);
+        Assert.assertEquals(score, userScore.getScore());
+        Assert.assertEquals(tags, userScore.getCountTags());
+        Assert.assertEquals(matches, userScore.getCountMatches());
+    }
+
+    @Test
+    public void testRepeatedChangesCountOnce() {
+        GameScoreboard scoreboard = new GameScoreboard(1, 1);
+        scoreboard.put(10, user(1), 5, false);
+        scoreboard.put(10, user(1), 5, false);
+        Assert.assertEquals(5, scoreboard.put(11, user(2), 0, false));
+        // the first entry is matched later
+        Assert.assertEquals(50, scoreboard.put(10, user(1), 50, true));
+        scoreboard.put(10, user(1), 50, true);
+        assertScore(scoreboard, 1, 50, 1, 1);
+        assertScore(scoreboard, 2, 0, 1, 0);
+        Assert.assertEquals(50, scoreboard.getTotalScore());
+    }
+
+    @Test
+    public void testOlderChangeWithoutMatchIsIgnored() {
+        GameScoreboard scoreboard = new GameScoreboard(1, 1);
+        scoreboard.put(10, user(1), 50, true);
+        // the insert of the entry is applied after its match
+        scoreboard.put(10, user(1), 5, false);
+        assertScore(scoreboard, 1, 50, 1, 1);
+
+        // a match that could not be stored is taken back explicitly
+        scoreboard.unmatch(10, 5);
+        assertScore(scoreboard, 1, 5, 1, 0);
+        Assert.assertEquals(5, scoreboard.getTotalScore());
+    }
+
+    @Test
+    public void testLoadKeepsChangesMadeWhileReading() {
+        GameScoreboard scoreboard = new GameScoreboard(1, 1);
+        Assert.assertFalse(scoreboard.isLoaded());
+        // committed while the database was being read
+        scoreboard.put(10, user(1), 50, true);
+        scoreboard.put(12, user(2), 5, false);
+
+        List<int[]> read = Arrays.asList(new int[] { 10, 1, 5, 0 }, new int[] { 11, 1, 5, 0 },
+                new int[] { 12, 2, 5, 0 });
+        scoreboard.load(Arrays.asList(user(1), user(2), user(3)), read);
+        Assert.assertTrue(scoreboard.isLoaded());
+        assertScore(scoreboard, 1, 55, 2, 1);
+        assertScore(scoreboard, 2, 5, 1, 0);
+        assertScore(scoreboard, 3, 0, 0, 0);
+        Assert.assertEquals(60, scoreboard.getTotalScore());
+        Assert.assertEquals(3, scoreboard.getScores().size());
+        Assert.assertEquals(1, scoreboard.getScores().get(0).getUser().getId());
+    }
+
+    @Test
+    public void testRemove() {
+        GameScoreboard scoreboard = new GameScoreboard(1, 1);
+        scoreboard.load(Collections.singletonList(user(1)), Collections.<int[]> emptyList());
+        scoreboard.put(10, user(1), 50, true);
+        scoreboard.put(11, user(1), 5, false);
+        scoreboard.remove(10);
+        scoreboard.remove(10);
+        scoreboard.remove(12);
+        assertScore(scoreboard, 1, 5, 1, 0);
+        Assert.assertEquals(5, scoreboard.getTotalScore());
+    }
+
+}
@@ -0,0 +1,85 @@
+package nl.waisda.model;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the bounded edit distance against the plain dynamic programming
+ * definition, around its cut-off and for empty and short strings.
+ */
+public class LevenshteinTest {
+
+    /** Full distance matrix, without any cut-off. */
+    private static int referenceDistance(String s, String t) {
+        int[][] d = new int[s.length() + 1][t.length() + 1];
+        for (int i = 0; i <= s.length(); i++) {
+            d[i][0] = i;
+        }
+        for (int j = 0; j <= t.length(); j++) {
+            d[0][j] = j;
+        }
+        for (int i = 1; i <= s.length(); i++) {
+            for (int j = 1; j <= t.length(); j++) {
+                int cost = s.charAt(i - 1) == t.charAt(j - 1) ? 0 : 1;
+                d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1),
+                        d[i - 1][j - 1] + cost);
+            }
+        }
+        return d[s.length()][t.length()];
+    }
+
+    @Test
+    public void testExamples() {
+        Assert.assertEquals(3, Levenshtein.distance("kitten", "sitting"));
+        Assert.assertEquals(0, Levenshtein.distance("fiets", "fiets"));
+        Assert.assertEquals(2, Levenshtein.distance("fiets", "fietsen", 3));
+        Assert.assertEquals(2, Levenshtein.distance("fiets", "fietsen", 2));
+    }
+
+    @Test
+    public void testEmptyAndShortStrings() {
+        Assert.assertEquals(0, Levenshtein.distance("", ""));
+        Assert.assertEquals(3, Levenshtein.distance("", "abc"));
+        Assert.assertEquals(3, Levenshtein.distance("abc", ""));
+        Assert.assertEquals(1, Levenshtein.distance("a", "b"));
+        Assert.assertEquals(1, Levenshtein.distance("a", ""));
+        // beyond the cut-off on length alone
+        Assert.assertEquals(2, Levenshtein.distance("", "abc", 1));
+        Assert.assertEquals(1, Levenshtein.distance("a", "b", 0));
+        Assert.assertEquals(0, Levenshtein.distance("", "", 0));
+    }
+
+    @Test
+    public void testCutOff() {
+        // exactly at the cut-off the distance is exact, beyond it max + 1
+        Assert.assertEquals(3, Levenshtein.distance("kitten", "sitting", 3));
+        Assert.assertEquals(3, Levenshtein.distance("kitten", "sitting", 2));
+        Assert.assertEquals(1, Levenshtein.distance("kitten", "sitting", 0));
+        Assert.assertEquals(5, Levenshtein.distance("abcdef", "uvwxyz", 4));
+    }
+
+    @Test
+    public void testRandomStringsMatchReference() {
+        Random random = new Random(13);
+        for (int i = 0; i < 5000; i++) {
+            String s = randomString(random);
+            String t = randomString(random);
+            int expected = referenceDistance(s, t);
+            Assert.assertEquals(expected, Levenshtein.distance(s, t));
+            int max = random.nextInt(5);
+            Assert.assertEquals(s + " / " + t + " within " + max,
+                    Math.min(expected, max + 1), Levenshtein.distance(s, t, max));
+        }
+    }
+
+    private static String randomString(Random random) {
+        char[] chars = new char[random.nextInt(8)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(3));
+        }
+        return new String(chars);
+    }
+
+}
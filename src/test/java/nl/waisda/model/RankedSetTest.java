@@ -0,0 +1,99 @@
+package nl.waisda.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Compares the ranks and elements of a RankedSet with those of a sorted list.
+ */
+public class RankedSetTest {
+
+    private static final Comparator<Integer> NATURAL = new Comparator<Integer>() {
+        @Override
+        public int compare(Integer i1, Integer i2) {
+            return i1.compareTo(i2);
+        }
+    };
+
+    private static void assertSameOrder(List<Integer> expected, RankedSet<Integer> set) {
+        List<Integer> sorted = new ArrayList<Integer>(expected);
+        Collections.sort(sorted);
+        Assert.assertEquals(sorted.size(), set.size());
+        for (int i = 0; i < sorted.size(); i++) {
+            Assert.assertEquals(sorted.get(i), set.get(i));
+            Assert.assertEquals(i, set.rank(sorted.get(i)));
+        }
+    }
+
+    @Test
+    public void testEmptySet() {
+        RankedSet<Integer> set = new RankedSet<Integer>(NATURAL);
+        Assert.assertEquals(0, set.size());
+        set.remove(1);
+        Assert.assertEquals(0, set.size());
+    }
+
+    @Test
+    public void testRankAndGet() {
+        RankedSet<Integer> set = new RankedSet<Integer>(NATURAL);
+        set.add(30);
+        set.add(10);
+        set.add(20);
+        Assert.assertEquals(0, set.rank(10));
+        Assert.assertEquals(1, set.rank(20));
+        Assert.assertEquals(2, set.rank(30));
+        Assert.assertEquals(Integer.valueOf(10), set.get(0));
+        Assert.assertEquals(Integer.valueOf(30), set.get(2));
+    }
+
+    @Test
+    public void testRandomInsertsAndRemoves() {
+        Random random = new Random(1);
+        RankedSet<Integer> set = new RankedSet<Integer>(NATURAL);
+        List<Integer> values = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            values.add(i * 3);
+        }
+        Collections.shuffle(values, random);
+        for (Integer value : values) {
+            set.add(value);
+        }
+        assertSameOrder(values, set);
+
+        List<Integer> removed = new ArrayList<Integer>(values.subList(0, 400));
+        List<Integer> kept = new ArrayList<Integer>(values.subList(400, values.size()));
+        for (Integer value : removed) {
+            set.remove(value);
+        }
+        // removing what isn't there changes nothing
+        set.remove(1);
+        set.remove(removed.get(0));
+        assertSameOrder(kept, set);
+
+        for (Integer value : removed) {
+            set.add(value);
+        }
+        assertSameOrder(values, set);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRankOfMissingElement() {
+        RankedSet<Integer> set = new RankedSet<Integer>(NATURAL);
+        set.add(1);
+        set.rank(2);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetOutOfRange() {
+        RankedSet<Integer> set = new RankedSet<Integer>(NATURAL);
+        set.add(1);
+        set.get(1);
+    }
+
+}
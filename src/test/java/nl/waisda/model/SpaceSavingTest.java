@@ -0,0 +1,127 @@
+package nl.waisda.model;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the evictions of a SpaceSaving summary and compares its counts with the exact counts of a stream.
+ */
+public class SpaceSavingTest {
+
+    private static Map<String, Long> counts(SpaceSaving<String> summary) {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        summary.addTo(counts);
+        return counts;
+    }
+
+    @Test
+    public void testExactBelowCapacity() {
+        SpaceSaving<String> summary = new SpaceSaving<String>(5);
+        summary.add("kat", 3);
+        summary.add("hond", 1);
+        summary.add("kat", 2);
+        Assert.assertFalse(summary.isFull());
+        Assert.assertEquals(0, summary.getMinCount());
+        Map<String, Long> counts = counts(summary);
+        Assert.assertEquals(2, counts.size());
+        Assert.assertEquals(Long.valueOf(5), counts.get("kat"));
+        Assert.assertEquals(Long.valueOf(1), counts.get("hond"));
+    }
+
+    @Test
+    public void testEvictsTheLowestCount() {
+        SpaceSaving<String> summary = new SpaceSaving<String>(3);
+        summary.add("kat", 5);
+        summary.add("hond", 3);
+        summary.add("vis", 1);
+        Assert.assertTrue(summary.isFull());
+        Assert.assertEquals(1, summary.getMinCount());
+
+        // takes the place of vis and inherits its count
+        summary.add("paard", 1);
+        Map<String, Long> counts = counts(summary);
+        Assert.assertEquals(3, counts.size());
+        Assert.assertNull(counts.get("vis"));
+        Assert.assertEquals(Long.valueOf(2), counts.get("paard"));
+        Assert.assertEquals(2, summary.getMinCount());
+
+        // existing items are counted in place
+        summary.add("hond", 4);
+        Assert.assertEquals(Long.valueOf(7), counts(summary).get("hond"));
+        Assert.assertEquals(3, summary.size());
+    }
+
+    @Test
+    public void testRemove() {
+        SpaceSaving<String> summary = new SpaceSaving<String>(3);
+        summary.add("kat", 5);
+        summary.add("hond", 3);
+        summary.add("vis", 2);
+        summary.remove("kat", 4);
+        summary.remove("hond", 10);
+        summary.remove("paard", 1);
+        Map<String, Long> counts = counts(summary);
+        Assert.assertEquals(Long.valueOf(1), counts.get("kat"));
+        Assert.assertEquals(Long.valueOf(0), counts.get("hond"));
+        Assert.assertEquals(0, summary.getMinCount());
+
+        // the lowest count is evicted first, also after a remove
+        summary.add("paard", 1);
+        counts = counts(summary);
+        Assert.assertNull(counts.get("hond"));
+        Assert.assertEquals(Long.valueOf(1), counts.get("paard"));
+    }
+
+    @Test
+    public void testClear() {
+        SpaceSaving<String> summary = new SpaceSaving<String>(2);
+        summary.add("kat", 5);
+        summary.add("hond", 3);
+        summary.clear();
+        Assert.assertEquals(0, summary.size());
+        Assert.assertEquals(0, summary.getMinCount());
+        Assert.assertTrue(counts(summary).isEmpty());
+        summary.add("vis", 1);
+        Assert.assertEquals(Long.valueOf(1), counts(summary).get("vis"));
+    }
+
+    @Test
+    public void testErrorBound() {
+        Random random = new Random(1);
+        SpaceSaving<String> summary = new SpaceSaving<String>(50);
+        Map<String, Long> exact = new HashMap<String, Long>();
+        long total = 0;
+        for (int i = 0; i < 20000; i++) {
+            // a skewed stream: a few frequent items and a long tail
+            String item = "tag" + (int) (Math.pow(random.nextDouble(), 3) * 500);
+            long weight = 1 + random.nextInt(3);
+            summary.add(item, weight);
+            Long count = exact.get(item);
+            exact.put(item, count == null ? weight : count + weight);
+            total += weight;
+        }
+        Assert.assertTrue(summary.isFull());
+
+        long min = summary.getMinCount();
+        Map<String, Long> counts = counts(summary);
+        long sum = 0;
+        for (Map.Entry<String, Long> e : counts.entrySet()) {
+            long trueCount = exact.get(e.getKey());
+            Assert.assertTrue(e.getKey(), e.getValue() >= trueCount);
+            Assert.assertTrue(e.getKey(), e.getValue() - trueCount <= min);
+            sum += e.getValue();
+        }
+        // every occurrence is counted once, by the item it was added as or the one that took its place
+        Assert.assertEquals(total, sum);
+        for (Map.Entry<String, Long> e : exact.entrySet()) {
+            if (e.getValue() > min) {
+                Assert.assertTrue(e.getKey(), counts.containsKey(e.getKey()));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+package nl.waisda.model;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import nl.waisda.domain.User;
+import nl.waisda.domain.UserScore;
+
+/**
+ * Tests the ranking of TopScores and how scores leave its window of TopScores.DAYS days.
+ */
+public class TopScoresTest {
+
+    private static final long TODAY = 15000;
+
+    private static User user(int id, String email) {
+        User user = new User();
+        user.setId(id);
+        user.setName("player" + id);
+        if (email != null) {
+            user.setEmail(email);
+        }
+        return user;
+    }
+
+    private static User user(int id) {
+        return user(id, "player" + id + "@host.com");
+    }
+
+    private static int score(TopScores scores, User user) {
+        Integer position = scores.getPosition(user);
+        Assert.assertNotNull(position);
+        List<UserScore> context = scores.getContext(user);
+        for (UserScore score : context) {
+            if (score.getUser().getId() == user.getId()) {
+                Assert.assertEquals(position.intValue(), score.getPosition());
+                return score.getScore();
+            }
+        }
+        throw new AssertionError("user not in its own context");
+    }
+
+    @Test
+    public void testRanking() {
+        TopScores scores = new TopScores(TODAY);
+        scores.add(user(1), TODAY, 10);
+        scores.add(user(2), TODAY, 30);
+        scores.add(user(3), TODAY - 1, 20);
+        scores.add(user(1), TODAY - 2, 20);
+        // ties are ordered by id
+        scores.add(user(4), TODAY, 30);
+
+        List<UserScore> top = scores.getTopTen();
+        Assert.assertEquals(4, top.size());
+        int[] ids = { 1, 2, 4, 3 };
+        for (int i = 0; i < ids.length; i++) {
+            Assert.assertEquals(ids[i], top.get(i).getUser().getId());
+            Assert.assertEquals(i, top.get(i).getPosition());
+        }
+        Assert.assertEquals(30, score(scores, user(1)));
+        Assert.assertEquals(20, score(scores, user(3)));
+        Assert.assertEquals(Integer.valueOf(3), scores.getPosition(user(3)));
+    }
+
+    @Test
+    public void testOnlyPositiveScoresWithEmailAreRanked() {
+        TopScores scores = new TopScores(TODAY);
+        scores.add(user(1, null), TODAY, 10);
+        scores.add(user(2), TODAY, 0);
+        scores.add(user(3), TODAY, 5);
+        scores.add(user(3), TODAY, -5);
+        Assert.assertEquals(0, scores.size());
+        Assert.assertNull(scores.getPosition(user(1)));
+        Assert.assertNull(scores.getContext(user(2)));
+
+        // the anonymous player registered
+        scores.updateUser(user(1));
+        Assert.assertEquals(1, scores.size());
+        Assert.assertEquals(10, score(scores, user(1)));
+    }
+
+    @Test
+    public void testTopTenAndContext() {
+        TopScores scores = new TopScores(TODAY);
+        for (int id = 1; id <= 20; id++) {
+            scores.add(user(id), TODAY, 100 - id);
+        }
+        Assert.assertEquals(10, scores.getTopTen().size());
+        // four players before and after, fewer at the top
+        List<UserScore> context = scores.getContext(user(10));
+        Assert.assertEquals(9, context.size());
+        Assert.assertEquals(6, context.get(0).getUser().getId());
+        Assert.assertEquals(14, context.get(8).getUser().getId());
+        Assert.assertEquals(5, scores.getContext(user(1)).size());
+    }
+
+    @Test
+    public void testWindowBoundary() {
+        TopScores scores = new TopScores(TODAY);
+        User first = user(1);
+        User last = user(2);
+        scores.add(first, TODAY - TopScores.DAYS + 1, 10);
+        scores.add(last, TODAY, 20);
+        // before the window
+        scores.add(last, TODAY - TopScores.DAYS, 100);
+        Assert.assertEquals(10, score(scores, first));
+        Assert.assertEquals(20, score(scores, last));
+
+        // the first day of the window drops out
+        scores.advance(TODAY + 1);
+        Assert.assertNull(scores.getPosition(first));
+        Assert.assertEquals(20, score(scores, last));
+        Assert.assertEquals(1, scores.size());
+
+        // moving back doesn't bring it back
+        scores.advance(TODAY);
+        Assert.assertNull(scores.getPosition(first));
+
+        // the last day stays until the window ends after it
+        scores.advance(TODAY + TopScores.DAYS - 1);
+        Assert.assertEquals(20, score(scores, last));
+        scores.advance(TODAY + TopScores.DAYS);
+        Assert.assertEquals(0, scores.size());
+    }
+
+    @Test
+    public void testAddAdvancesTheWindow() {
+        TopScores scores = new TopScores(TODAY);
+        scores.add(user(1), TODAY, 10);
+        scores.add(user(2), TODAY + 2 * TopScores.DAYS, 5);
+        Assert.assertNull(scores.getPosition(user(1)));
+        Assert.assertEquals(1, scores.size());
+        // a score of a day now before the window is ignored
+        scores.add(user(1), TODAY, 10);
+        Assert.assertNull(scores.getPosition(user(1)));
+    }
+
+    @Test
+    public void testMoveUser() {
+        TopScores scores = new TopScores(TODAY);
+        User source = user(1, null);
+        User target = user(2);
+        scores.add(source, TODAY - 3, 10);
+        scores.add(source, TODAY, 5);
+        scores.add(target, TODAY, 20);
+        scores.add(user(3), TODAY, 30);
+
+        scores.moveUser(source.getId(), target);
+        Assert.assertNull(scores.getPosition(source));
+        Assert.assertEquals(35, score(scores, target));
+        Assert.assertEquals(Integer.valueOf(0), scores.getPosition(target));
+
+        // the moved scores leave the window on their own days
+        scores.advance(TODAY + TopScores.DAYS - 3);
+        Assert.assertEquals(25, score(scores, target));
+        scores.advance(TODAY + TopScores.DAYS);
+        Assert.assertNull(scores.getPosition(target));
+
+        // moving a user without scores changes nothing
+        scores.moveUser(4, target);
+        Assert.assertEquals(0, scores.size());
+    }
+
+}
@@ -0,0 +1,85 @@
+package nl.waisda.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks how an index takes in the tag entries read from the database, e.g. those stored by other servers.
+ */
+public class VideoTagIndexTest {
+
+    private static IndexedTagEntry entry(int id, int gameId, String tag, int gameTime, int matchId, int score) {
+        return new IndexedTagEntry(id, gameId, 1, "player1", tag, tag, gameTime, false, false, matchId, score);
+    }
+
+    private static IndexedTagEntry get(VideoTagIndex index, int id, String tag, int gameTime) {
+        for (IndexedTagEntry entry : index.getEntries(Collections.singleton(tag), gameTime, 0)) {
+            if (entry.getId() == id) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testLoadKeepsEntriesAddedWhileReading() {
+        VideoTagIndex index = new VideoTagIndex(1);
+        Assert.assertFalse(index.isLoaded());
+        index.put(entry(2, 1, "kat", 1000, 3, 50));
+        index.load(Arrays.asList(entry(1, 1, "hond", 500, 0, 5), entry(2, 1, "kat", 1000, 0, 5)), 1);
+        Assert.assertTrue(index.isLoaded());
+        Assert.assertEquals(1, index.getSyncedId());
+        Assert.assertEquals(2, index.size());
+        Assert.assertEquals(50, get(index, 2, "kat", 1000).getScore());
+    }
+
+    @Test
+    public void testSyncAddsNewEntries() {
+        VideoTagIndex index = new VideoTagIndex(1);
+        index.load(Collections.singletonList(entry(1, 1, "kat", 1000, 0, 5)), 1);
+
+        List<IndexedTagEntry> changed = index.sync(
+                Arrays.asList(entry(1, 1, "kat", 1000, 0, 5), entry(2, 2, "kat", 1500, 0, 5)), 2);
+        Assert.assertEquals(1, changed.size());
+        Assert.assertEquals(2, changed.get(0).getId());
+        Assert.assertEquals(2, changed.get(0).getGameId());
+        Assert.assertEquals(2, index.getEntries(Collections.singleton("kat"), 1000, 1000).size());
+        Assert.assertEquals(2, index.getSyncedId());
+
+        // reading the same entries again changes nothing
+        Assert.assertTrue(index.sync(Collections.singletonList(entry(2, 2, "kat", 1500, 0, 5)), 2).isEmpty());
+        Assert.assertEquals(2, index.size());
+    }
+
+    @Test
+    public void testSyncTakesMatchesButKeepsNewerState() {
+        VideoTagIndex index = new VideoTagIndex(1);
+        index.load(Arrays.asList(entry(1, 1, "kat", 1000, 0, 5), entry(2, 1, "hond", 1000, 0, 5)), 0);
+        // claimed on this server, not stored yet
+        index.claimUnmatched(Collections.singleton(2), 4);
+
+        List<IndexedTagEntry> changed = index.sync(
+                Arrays.asList(entry(1, 1, "kat", 1000, 3, 50), entry(2, 1, "hond", 1000, 0, 5)), 0);
+        Assert.assertEquals(1, changed.size());
+        Assert.assertEquals(3, changed.get(0).getMatchingTagEntryId());
+        Assert.assertEquals(50, get(index, 1, "kat", 1000).getScore());
+        Assert.assertEquals(4, get(index, 2, "hond", 1000).getMatchingTagEntryId());
+
+        // a read older than a match doesn't take the match back
+        Assert.assertTrue(index.sync(Collections.singletonList(entry(1, 1, "kat", 1000, 0, 5)), 0).isEmpty());
+        Assert.assertEquals(3, get(index, 1, "kat", 1000).getMatchingTagEntryId());
+    }
+
+    @Test
+    public void testSyncedIdOnlyMovesForward() {
+        VideoTagIndex index = new VideoTagIndex(1);
+        index.load(Collections.<IndexedTagEntry> emptyList(), 10);
+        index.sync(Collections.<IndexedTagEntry> emptyList(), 5);
+        Assert.assertEquals(10, index.getSyncedId());
+    }
+
+}
@@ -0,0 +1,208 @@
+package nl.waisda.services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import nl.waisda.domain.Video;
+import nl.waisda.repositories.EuropeanaImportJobRepository;
+import nl.waisda.repositories.VideoRepository;
+
+/**
+ * Imports from a stub of the Europeana API on a local port, through the pooled HttpClient of the integration test
+ * context, so the parallel fetches and the release of pooled connections are exercised without the real API.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = "classpath:/nl/waisda/services/europeanaImportService-stubtest.xml")
+public class EuropeanaImportServiceStubTest {
+
+    private static final String BASE_URL_PROPERTY = "waisda.import.europeana.baseurl";
+
+    /** Search results served by the stub; more than the connections per route, so leaked connections would hang */
+    private static final int TOTAL_RESULTS = 30;
+
+    private static final Pattern START = Pattern.compile("[?&]start=(\\d+)");
+    private static final Pattern ROWS = Pattern.compile("[?&]rows=(\\d+)");
+    private static final Pattern RECORD = Pattern.compile("/record/(\\d+)\\.json");
+
+    private static HttpServer server;
+    private static ExecutorService serverThreads;
+    private static String host;
+    /** Prefixes of the video URLs and Europeana ids of a test, so what other tests imported doesn't count */
+    private static volatile String videoUrlPrefix;
+    private static volatile String idPrefix;
+    /** Number of Europeana ids served; fewer ids than results makes pages share ids */
+    private static volatile int ids;
+
+    private static final AtomicInteger detailRequests = new AtomicInteger();
+    private static final AtomicInteger detailsInFlight = new AtomicInteger();
+    private static final AtomicInteger maxDetailsInFlight = new AtomicInteger();
+
+    @Autowired
+    private EuropeanaImportServiceIF service;
+
+    @Autowired
+    private VideoRepository videoRepository;
+
+    @Autowired
+    private EuropeanaImportJobRepository jobRepository;
+
+    @Value("${waisda.import.europeana.detailthreads}")
+    private int detailThreads;
+
+    @BeforeClass
+    public static void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/api/v2/search.json", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String query = exchange.getRequestURI().getRawQuery();
+                int start = group(START, "?" + query) - 1;
+                int rows = group(ROWS, "?" + query);
+                StringBuilder json = new StringBuilder("{\"success\":true,\"totalResults\":" + TOTAL_RESULTS
+                        + ",\"items\":[");
+                for (int i = start; i < Math.min(start + rows, TOTAL_RESULTS); i++) {
+                    if (i > start) {
+                        json.append(',');
+                    }
+                    json.append("{\"id\":\"").append(idPrefix).append(i % ids).append("\",\"type\":\"VIDEO\",")
+                            .append("\"title\":[\"Stub video ").append(i).append("\"],")
+                            .append("\"edmPreview\":[\"http://stub.test/").append(i).append(".png\"],")
+                            .append("\"link\":\"").append(host).append("/record/").append(i).append(".json\"}");
+                }
+                respond(exchange, json.append("]}").toString());
+            }
+        });
+        server.createContext("/record/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                int id = group(RECORD, exchange.getRequestURI().getPath());
+                detailRequests.incrementAndGet();
+                int inFlight = detailsInFlight.incrementAndGet();
+                try {
+                    int max;
+                    while (inFlight > (max = maxDetailsInFlight.get())
+                            && !maxDetailsInFlight.compareAndSet(max, inFlight)) {
+                        // retry
+                    }
+                    // slow enough for the fetches to overlap
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    detailsInFlight.decrementAndGet();
+                }
+                respond(exchange, "{\"success\":true,\"object\":{\"type\":\"VIDEO\","
+                        + "\"title\":[\"Stub video " + id + "\"],"
+                        + "\"proxies\":[{\"dctermsExtent\":{\"def\":[\"PT1M30S\"]}}],"
+                        + "\"aggregations\":[{\"edmIsShownBy\":\"" + videoUrlPrefix + id + ".mp4\"}]}}");
+            }
+        });
+        serverThreads = Executors.newCachedThreadPool();
+        server.setExecutor(serverThreads);
+        server.start();
+
+        host = "http://localhost:" + server.getAddress().getPort();
+        System.setProperty(BASE_URL_PROPERTY, host + "/api/v2/search.json");
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        System.clearProperty(BASE_URL_PROPERTY);
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    private static int group(Pattern pattern, String s) {
+        Matcher matcher = pattern.matcher(s);
+        Assert.assertTrue(s, matcher.find());
+        return Integer.parseInt(matcher.group(1));
+    }
+
+    private static void respond(HttpExchange exchange, String json) throws IOException {
+        byte[] body = json.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json;charset=UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    /**
+     * Makes the stub serve new records.
+     * @return a query for importing them
+     */
+    private static String newRecords(String name, int distinctIds) {
+        String run = name + "/" + System.nanoTime() + "/";
+        videoUrlPrefix = "http://stub.test/" + run;
+        idPrefix = "/stub/" + run;
+        ids = distinctIds;
+        return "stub " + run;
+    }
+
+    private Map<String, Video> getImportedVideos() {
+        Set<String> urls = new HashSet<String>();
+        for (int i = 0; i < TOTAL_RESULTS; i++) {
+            urls.add(videoUrlPrefix + i + ".mp4");
+        }
+        return videoRepository.getBySourceUrls(urls);
+    }
+
+    @Test(timeout = 60000)
+    public void testImportFromStub() throws Exception {
+        String query = newRecords("import", TOTAL_RESULTS);
+        int detailRequestsBefore = detailRequests.get();
+        service.importEuropeanaData(query);
+
+        Map<String, Video> videos = getImportedVideos();
+        Assert.assertEquals(TOTAL_RESULTS, videos.size());
+        Video video = videos.get(videoUrlPrefix + "7.mp4");
+        Assert.assertEquals("Stub video 7", video.getTitle());
+        Assert.assertEquals("http://stub.test/7.png", video.getImageUrl());
+        Assert.assertEquals(90000, video.getDuration());
+
+        Assert.assertEquals(TOTAL_RESULTS, detailRequests.get() - detailRequestsBefore);
+        Assert.assertTrue("details fetched in parallel", maxDetailsInFlight.get() > 1);
+        Assert.assertTrue("at most one fetch per thread", maxDetailsInFlight.get() <= detailThreads);
+
+        // the records are unchanged, so importing again doesn't fetch their details
+        service.importEuropeanaData(query);
+        Assert.assertEquals(TOTAL_RESULTS, detailRequests.get() - detailRequestsBefore);
+        Assert.assertEquals(TOTAL_RESULTS, getImportedVideos().size());
+    }
+
+    /**
+     * The next page is looked up while the previous one is stored; records of the previous page appearing again must
+     * be updated rather than inserted a second time.
+     */
+    @Test(timeout = 60000)
+    public void testIdsRepeatedOnLaterPages() throws Exception {
+        String query = newRecords("repeated", 5);
+        service.importEuropeanaData(query);
+
+        Assert.assertNull("all pages stored, so the job finished", jobRepository.getUnfinished(query));
+        Assert.assertEquals(TOTAL_RESULTS, getImportedVideos().size());
+    }
+
+}
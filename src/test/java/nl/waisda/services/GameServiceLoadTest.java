@@ -0,0 +1,210 @@
+package nl.waisda.services;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import nl.waisda.domain.Game;
+import nl.waisda.domain.PlayerType;
+import nl.waisda.domain.User;
+import nl.waisda.domain.Video;
+
+/**
+ * Starts games for a handful of videos from many threads at once and checks
+ * that every video gets exactly one game, both through the in-memory queues
+ * and through the unique queue slot in the database. Logs how often and how
+ * long starts waited for a video lock.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = {"classpath:/nl/waisda/services/gameService-test.xml"})
+public class GameServiceLoadTest {
+
+    private static final Logger LOG = Logger.getLogger(GameServiceLoadTest.class);
+
+    private static final int THREADS = 16;
+    private static final int STARTS_PER_THREAD = 200;
+    private static final int VIDEOS = 8;
+
+    @Autowired
+    private GameService gameService;
+
+    @Autowired
+    private MetricsService metrics;
+
+    @Autowired
+    private GameQueueRegistry queues;
+
+    @Autowired
+    private GameEventService gameEvents;
+
+    @Autowired
+    private TransactionServiceIF transactionService;
+
+    @PersistenceContext(name = "nl.waisda")
+    private EntityManager entityManager;
+
+    private User user;
+    private List<Video> videos;
+
+    @Before
+    public void setup() {
+        transactionService.runInNewTransaction(new Callable<Void>() {
+            @Override
+            public Void call() {
+                user = new User();
+                user.setName("player");
+                user.setCreationDate(new Date());
+                entityManager.persist(user);
+
+                videos = new ArrayList<Video>();
+                for (int i = 0; i < VIDEOS; i++) {
+                    Video video = new Video();
+                    video.setTitle("video " + i);
+                    video.setDuration(60000);
+                    video.setEnabled(true);
+                    video.setPlayerType(PlayerType.JW);
+                    video.setImageUrl("http://www.host.com/" + i + ".png");
+                    video.setSourceUrl("http://www.host.com/" + i + ".mp4");
+                    entityManager.persist(video);
+                    videos.add(video);
+                }
+                return null;
+            }
+        });
+    }
+
+    @After
+    public void cleanup() {
+        transactionService.runInNewTransaction(new Callable<Void>() {
+            @Override
+            public Void call() {
+                entityManager.createQuery("delete from Game").executeUpdate();
+                entityManager.createQuery("delete from Video").executeUpdate();
+                entityManager.createQuery("delete from User").executeUpdate();
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void testConcurrentStartsCreateOneGamePerVideo() throws Exception {
+        final CountDownLatch go = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<Map<Integer, Set<Integer>>>> results = new ArrayList<Future<Map<Integer, Set<Integer>>>>();
+        for (int t = 0; t < THREADS; t++) {
+            final Random random = new Random(t);
+            results.add(pool.submit(new Callable<Map<Integer, Set<Integer>>>() {
+                @Override
+                public Map<Integer, Set<Integer>> call() throws Exception {
+                    Map<Integer, Set<Integer>> gamesByVideo = new HashMap<Integer, Set<Integer>>();
+                    go.await();
+                    for (int i = 0; i < STARTS_PER_THREAD; i++) {
+                        Video video = videos.get(random.nextInt(VIDEOS));
+                        Game game = gameService.createGame(user, video);
+                        Assert.assertEquals(video.getId(), game.getVideo().getId());
+                        if (!gamesByVideo.containsKey(video.getId())) {
+                            gamesByVideo.put(video.getId(), new HashSet<Integer>());
+                        }
+                        gamesByVideo.get(video.getId()).add(game.getId());
+                    }
+                    return gamesByVideo;
+                }
+            }));
+        }
+
+        long waits = metrics.counter("gameQueues.lockWaits").get();
+        long waitMicros = metrics.counter("gameQueues.lockWaitMicros").get();
+        long t0 = System.currentTimeMillis();
+        go.countDown();
+        Map<Integer, Set<Integer>> gamesByVideo = new HashMap<Integer, Set<Integer>>();
+        for (Future<Map<Integer, Set<Integer>>> result : results) {
+            for (Map.Entry<Integer, Set<Integer>> e : result.get().entrySet()) {
+                if (!gamesByVideo.containsKey(e.getKey())) {
+                    gamesByVideo.put(e.getKey(), new HashSet<Integer>());
+                }
+                gamesByVideo.get(e.getKey()).addAll(e.getValue());
+            }
+        }
+        long elapsed = System.currentTimeMillis() - t0;
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.SECONDS);
+
+        waits = metrics.counter("gameQueues.lockWaits").get() - waits;
+        waitMicros = metrics.counter("gameQueues.lockWaitMicros").get() - waitMicros;
+        LOG.info(String.format("%d starts of %d videos on %d threads took %d ms; %d waited for a lock, %d us in total",
+                THREADS * STARTS_PER_THREAD, VIDEOS, THREADS, elapsed, waits, waitMicros));
+
+        for (Map.Entry<Integer, Set<Integer>> e : gamesByVideo.entrySet()) {
+            Assert.assertEquals("games of video " + e.getKey(), 1, e.getValue().size());
+        }
+        Number stored = (Number) entityManager.createQuery("select count(g) from Game g").getSingleResult();
+        Assert.assertEquals(gamesByVideo.size(), stored.intValue());
+        // the queue is served from memory; only the creations waited
+        Assert.assertTrue(waits <= THREADS * VIDEOS);
+    }
+
+    @Test
+    public void testGameStoredByAnotherNodeIsJoined() throws Exception {
+        final Video video = videos.get(0);
+        // queued a while ago, so createGame would store its game in a later slot
+        final Date start = new Date(System.currentTimeMillis() + Game.QUEUE_TIME_MS / 2);
+        Game stored = transactionService.runInNewTransaction(new Callable<Game>() {
+            @Override
+            public Game call() {
+                Game game = new Game();
+                game.setVideo(video);
+                game.setStart(start);
+                game.setQueueSlot(Game.queueSlotOf(start));
+                entityManager.persist(game);
+                return game;
+            }
+        });
+
+        // this node's queues don't know the game; it is found in the database
+        Game game = gameService.createGame(user, video);
+        Assert.assertEquals(stored.getId(), game.getId());
+        Assert.assertEquals(game.getId(), gameService.createGame(user, video).getId());
+    }
+
+    @Test
+    public void testEndedGameIsPublished() {
+        Video video = new Video();
+        video.setId(-1);
+        video.setDuration(100);
+        Game game = new Game();
+        game.setId(-1);
+        game.setVideo(video);
+        game.setStart(new Date(System.currentTimeMillis() - 1000));
+        long version = gameEvents.getVersion(game.getId());
+
+        queues.register(game);
+        queues.expire();
+        Assert.assertNull(queues.getQueue(video.getId(), System.currentTimeMillis()));
+        Assert.assertTrue(gameEvents.getVersion(game.getId()) > version);
+    }
+
+}
@@ -0,0 +1,36 @@
+package nl.waisda.services;
+
+import org.mockito.Mockito;
+import org.springframework.beans.factory.FactoryBean;
+
+/**
+ * Defines a Mockito mock as a bean. Unlike a mock created with a factory
+ * method, the mock is known by type up front and Spring doesn't try to
+ * autowire the fields of mocked classes.
+ */
+public class MockFactoryBean<T> implements FactoryBean<T> {
+
+    private final Class<T> type;
+    private final T mock;
+
+    public MockFactoryBean(Class<T> type) {
+        this.type = type;
+        this.mock = Mockito.mock(type);
+    }
+
+    @Override
+    public T getObject() {
+        return mock;
+    }
+
+    @Override
+    public Class<T> getObjectType() {
+        return type;
+    }
+
+    @Override
+    public boolean isSingleton() {
+        return true;
+    }
+
+}
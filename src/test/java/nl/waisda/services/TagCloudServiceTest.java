@@ -0,0 +1,106 @@
+package nl.waisda.services;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import nl.waisda.model.TagCloudItem;
+import nl.waisda.model.Util;
+
+/**
+ * Checks how the tag cloud moves along with the days. Outside a transaction, tags are counted right away.
+ */
+public class TagCloudServiceTest {
+
+    private static final long DAY = Util.getDay(new Date());
+
+    private static TagCloudService startingAt(long day) {
+        TagCloudService service = new TagCloudService();
+        ReflectionTestUtils.setField(service, "today", day);
+        return service;
+    }
+
+    /** @return noon of the day, clear of any daylight saving change */
+    private static Date on(long day) {
+        return new Date(Util.getStartOfDay(day).getTime() + 12 * 60 * 60 * 1000);
+    }
+
+    /** @return the relative size of each tag of the cloud */
+    private static Map<String, Integer> cloud(TagCloudService service) {
+        Map<String, Integer> cloud = new HashMap<String, Integer>();
+        for (TagCloudItem item : service.getTagCloud()) {
+            cloud.put(item.getNormalizedTag(), item.getRelativeSize());
+        }
+        return cloud;
+    }
+
+    @Test
+    public void testCloudSumsTheWeek() {
+        TagCloudService service = startingAt(DAY);
+        service.count("kat", on(DAY));
+        service.count("kat", on(DAY - 6));
+        service.count("hond", on(DAY - 1));
+        // before the week
+        service.count("vis", on(DAY - 7));
+        service.count("vis", on(DAY - 7));
+        service.count("vis", on(DAY - 7));
+
+        Map<String, Integer> cloud = cloud(service);
+        Assert.assertEquals(2, cloud.size());
+        Assert.assertTrue(cloud.get("kat") > cloud.get("hond"));
+    }
+
+    @Test
+    public void testTagOfANewDayMovesTheWeek() {
+        TagCloudService service = startingAt(DAY);
+        service.count("kat", on(DAY - 6));
+        service.count("hond", on(DAY));
+
+        service.count("vis", on(DAY + 1));
+        Map<String, Integer> cloud = cloud(service);
+        Assert.assertNull(cloud.get("kat"));
+        Assert.assertNotNull(cloud.get("hond"));
+        Assert.assertNotNull(cloud.get("vis"));
+
+        // a week later; the bucket of DAY is reused for this day
+        service.count("paard", on(DAY + 7));
+        cloud = cloud(service);
+        Assert.assertNull(cloud.get("hond"));
+        Assert.assertNotNull(cloud.get("vis"));
+        Assert.assertNotNull(cloud.get("paard"));
+
+        // tags of days now before the week are ignored
+        service.count("hond", on(DAY));
+        Assert.assertNull(cloud(service).get("hond"));
+    }
+
+    @Test
+    public void testScheduledAdvance() {
+        TagCloudService service = startingAt(DAY - 6);
+        service.count("kat", on(DAY - 6));
+        service.count("hond", on(DAY - 7));
+        service.advance();
+        Map<String, Integer> cloud = cloud(service);
+        Assert.assertNotNull(cloud.get("kat"));
+        Assert.assertNull(cloud.get("hond"));
+
+        // advancing again on the same day changes nothing
+        service.advance();
+        Assert.assertEquals(cloud, cloud(service));
+    }
+
+    @Test
+    public void testWeekLongGap() {
+        TagCloudService service = startingAt(DAY - 20);
+        service.count("kat", on(DAY - 20));
+        service.advance();
+        Assert.assertTrue(cloud(service).isEmpty());
+        service.count("hond", on(DAY));
+        Assert.assertEquals(1, cloud(service).size());
+    }
+
+}
@@ -0,0 +1,185 @@
+package nl.waisda.services;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.simple.SimpleJdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import nl.waisda.domain.Game;
+import nl.waisda.domain.PlayerType;
+import nl.waisda.domain.TagEntry;
+import nl.waisda.domain.User;
+import nl.waisda.domain.Video;
+
+/**
+ * Checks that a write the database refuses doesn't take the rest of its batch
+ * down with it, and that the writes referring to it are dead-lettered too,
+ * while writes are retried as long as the database can't be reached.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = {"classpath:/nl/waisda/services/tagEntryWriter-test.xml"})
+public class TagEntryWriterTest {
+
+    @Autowired
+    private TagEntryWriter writer;
+
+    @Autowired
+    private MetricsService metrics;
+
+    @Autowired
+    private TransactionServiceIF transactionService;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @PersistenceContext(name = "nl.waisda")
+    private EntityManager entityManager;
+
+    private User user;
+    private Game game;
+
+    @Before
+    public void setup() {
+        transactionService.runInNewTransaction(new Callable<Void>() {
+            @Override
+            public Void call() {
+                user = new User();
+                user.setName("player");
+                user.setCreationDate(new Date());
+                entityManager.persist(user);
+
+                Video video = new Video();
+                video.setTitle("video");
+                video.setDuration(60000);
+                video.setEnabled(true);
+                video.setPlayerType(PlayerType.JW);
+                video.setImageUrl("http://www.host.com/0.png");
+                video.setSourceUrl("http://www.host.com/0.mp4");
+                entityManager.persist(video);
+
+                game = new Game();
+                game.setVideo(video);
+                game.setStart(new Date());
+                entityManager.persist(game);
+                return null;
+            }
+        });
+    }
+
+    @After
+    public void cleanup() {
+        transactionService.runInNewTransaction(new Callable<Void>() {
+            @Override
+            public Void call() {
+                entityManager.createQuery("update TagEntry set matchingTagEntry = null").executeUpdate();
+                entityManager.createQuery("delete from TagEntry").executeUpdate();
+                entityManager.createQuery("delete from Game").executeUpdate();
+                entityManager.createQuery("delete from Video").executeUpdate();
+                entityManager.createQuery("delete from User").executeUpdate();
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void testFailedRowIsDeadLetteredWithoutItsBatch() {
+        AtomicInteger forgotten = new AtomicInteger();
+        long deadLetters = metrics.counter("tagEntryWriter.deadLetters").get();
+
+        Game unknownGame = new Game();
+        unknownGame.setId(-1);
+        unknownGame.setVideo(game.getVideo());
+        TagEntry good = createTagEntry(game, null);
+        TagEntry bad = createTagEntry(unknownGame, null);
+        TagEntry matchOfBad = createTagEntry(game, bad);
+
+        writer.insert(good, forget(forgotten));
+        writer.insert(bad, forget(forgotten));
+        writer.insert(matchOfBad, forget(forgotten));
+        writer.updateMatch(good.getId(), bad.getId(), 10, game.getId(), forget(forgotten));
+        writer.flush();
+
+        Assert.assertNotNull(find(good.getId()));
+        Assert.assertNull(find(bad.getId()));
+        Assert.assertNull(find(matchOfBad.getId()));
+        Assert.assertNull(find(good.getId()).getMatchingTagEntry());
+        Assert.assertEquals(3, forgotten.get());
+        Assert.assertEquals(3, metrics.counter("tagEntryWriter.deadLetters").get() - deadLetters);
+    }
+
+    @Test(timeout = 30000)
+    public void testWriteIsRetriedUntilTheDatabaseIsBack() {
+        final AtomicInteger failures = new AtomicInteger(2);
+        SimpleJdbcTemplate jdbc = (SimpleJdbcTemplate) ReflectionTestUtils.getField(writer, "jdbc");
+        DataSource unreachable = new DelegatingDataSource(dataSource) {
+            @Override
+            public Connection getConnection() throws SQLException {
+                if (failures.getAndDecrement() > 0) {
+                    throw new SQLException("Connection refused", "08001");
+                }
+                return super.getConnection();
+            }
+        };
+        long retries = metrics.counter("tagEntryWriter.retries").get();
+        long deadLetters = metrics.counter("tagEntryWriter.deadLetters").get();
+        ReflectionTestUtils.setField(writer, "jdbc", new SimpleJdbcTemplate(unreachable));
+        try {
+            TagEntry tagEntry = createTagEntry(game, null);
+            writer.insert(tagEntry, null);
+            writer.flush();
+            Assert.assertNotNull(find(tagEntry.getId()));
+        } finally {
+            ReflectionTestUtils.setField(writer, "jdbc", jdbc);
+        }
+        Assert.assertEquals(2, metrics.counter("tagEntryWriter.retries").get() - retries);
+        Assert.assertEquals(0, metrics.counter("tagEntryWriter.deadLetters").get() - deadLetters);
+    }
+
+    private TagEntry createTagEntry(Game game, TagEntry match) {
+        TagEntry tagEntry = new TagEntry();
+        tagEntry.setId(writer.nextId());
+        tagEntry.setTag("tag");
+        tagEntry.setNormalizedTag("tag");
+        tagEntry.setGame(game);
+        tagEntry.setOwner(user);
+        tagEntry.setMatchingTagEntry(match);
+        tagEntry.setScore(match != null ? 50 : 0);
+        return tagEntry;
+    }
+
+    private TagEntry find(final int id) {
+        return transactionService.runInNewTransaction(new Callable<TagEntry>() {
+            @Override
+            public TagEntry call() {
+                return entityManager.find(TagEntry.class, id);
+            }
+        });
+    }
+
+    private static Runnable forget(final AtomicInteger forgotten) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                forgotten.incrementAndGet();
+            }
+        };
+    }
+
+}
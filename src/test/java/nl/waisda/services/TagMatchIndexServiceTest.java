@@ -0,0 +1,40 @@
+package nl.waisda.services;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Checks how many edits fuzzy matching allows for tags of various lengths.
+ */
+public class TagMatchIndexServiceTest {
+
+    private static TagMatchIndexService withMaxDistance(int fuzzyMaxDistance) {
+        TagMatchIndexService service = new TagMatchIndexService();
+        ReflectionTestUtils.setField(service, "fuzzyMaxDistance", fuzzyMaxDistance);
+        return service;
+    }
+
+    @Test
+    public void testShortTagsOnlyMatchExactly() {
+        TagMatchIndexService service = withMaxDistance(2);
+        Assert.assertEquals(0, service.getFuzzyMaxDistance(""));
+        Assert.assertEquals(0, service.getFuzzyMaxDistance("a"));
+        Assert.assertEquals(0, service.getFuzzyMaxDistance("abc"));
+    }
+
+    @Test
+    public void testOneEditPerFourCharacters() {
+        TagMatchIndexService service = withMaxDistance(2);
+        Assert.assertEquals(1, service.getFuzzyMaxDistance("abcd"));
+        Assert.assertEquals(1, service.getFuzzyMaxDistance("abcdefg"));
+        Assert.assertEquals(2, service.getFuzzyMaxDistance("abcdefgh"));
+    }
+
+    @Test
+    public void testConfiguredMaximum() {
+        Assert.assertEquals(2, withMaxDistance(2).getFuzzyMaxDistance("tweedewereldoorlog"));
+        Assert.assertEquals(0, withMaxDistance(0).getFuzzyMaxDistance("tweedewereldoorlog"));
+    }
+
+}
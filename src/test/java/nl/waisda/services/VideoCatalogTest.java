@@ -0,0 +1,166 @@
+package nl.waisda.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import nl.waisda.domain.Video;
+import nl.waisda.model.Channel;
+import nl.waisda.repositories.VideoRepository;
+
+/**
+ * Checks the rotation of the channels: every enabled video once per round, also across the end of a round and while
+ * videos are enabled and disabled. Outside a transaction, stored videos are applied right away.
+ */
+public class VideoCatalogTest {
+
+    private static Video video(int id, boolean enabled) {
+        Video video = new Video();
+        video.setId(id);
+        video.setEnabled(enabled);
+        return video;
+    }
+
+    private static VideoCatalog catalog(int enabledVideos) {
+        final List<Video> videos = new ArrayList<Video>();
+        for (int id = 1; id <= enabledVideos; id++) {
+            videos.add(video(id, true));
+        }
+        VideoCatalog catalog = new VideoCatalog();
+        ReflectionTestUtils.setField(catalog, "videoRepo", new VideoRepository() {
+            @Override
+            public List<Video> listAll() {
+                return videos;
+            }
+
+            @Override
+            public Map<Integer, Integer> getHighscores() {
+                return Collections.emptyMap();
+            }
+        });
+        ReflectionTestUtils.setField(catalog, "metrics", new MetricsService());
+        catalog.init();
+        return catalog;
+    }
+
+    private static List<Integer> next(VideoCatalog catalog, int n) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Channel channel : catalog.getChannels(n)) {
+            ids.add(channel.getVideo().getId());
+        }
+        return ids;
+    }
+
+    private static Set<Integer> ids(int... ids) {
+        Set<Integer> set = new HashSet<Integer>();
+        for (int id : ids) {
+            set.add(id);
+        }
+        return set;
+    }
+
+    private static void assertDistinct(List<Integer> ids) {
+        Assert.assertEquals(ids.toString(), ids.size(), new HashSet<Integer>(ids).size());
+    }
+
+    @Test
+    public void testNoRepeatsWithinARound() {
+        VideoCatalog catalog = catalog(7);
+        for (int round = 0; round < 20; round++) {
+            List<Integer> featured = new ArrayList<Integer>();
+            for (int i = 0; i < 7; i++) {
+                featured.addAll(next(catalog, 1));
+            }
+            assertDistinct(featured);
+            Assert.assertEquals(ids(1, 2, 3, 4, 5, 6, 7), new HashSet<Integer>(featured));
+        }
+    }
+
+    @Test
+    public void testWrapAround() {
+        for (int attempt = 0; attempt < 20; attempt++) {
+            VideoCatalog catalog = catalog(5);
+            List<Integer> first = next(catalog, 3);
+            assertDistinct(first);
+
+            // two videos left in the round, one taken from the next
+            List<Integer> wrapped = next(catalog, 3);
+            assertDistinct(wrapped);
+            Set<Integer> endOfRound = new HashSet<Integer>(wrapped.subList(0, 2));
+            Set<Integer> round = new HashSet<Integer>(first);
+            round.addAll(endOfRound);
+            Assert.assertEquals(ids(1, 2, 3, 4, 5), round);
+
+            // the videos at the end of the old round come last in the new one
+            List<Integer> newRound = new ArrayList<Integer>(wrapped.subList(2, 3));
+            newRound.addAll(next(catalog, 4));
+            assertDistinct(newRound);
+            Assert.assertEquals(endOfRound, new HashSet<Integer>(newRound.subList(3, 5)));
+        }
+    }
+
+    @Test
+    public void testMoreThanEnabled() {
+        VideoCatalog catalog = catalog(3);
+        next(catalog, 2);
+        List<Integer> all = next(catalog, 10);
+        Assert.assertEquals(3, all.size());
+        Assert.assertEquals(ids(1, 2, 3), new HashSet<Integer>(all));
+        Assert.assertTrue(catalog(0).getChannels(4).isEmpty());
+    }
+
+    @Test
+    public void testDisableBeforeAndAfterTheCursor() {
+        VideoCatalog catalog = catalog(6);
+        List<Integer> featured = next(catalog, 3);
+        Set<Integer> toCome = ids(1, 2, 3, 4, 5, 6);
+        toCome.removeAll(featured);
+        int disabledBefore = featured.get(0);
+        int disabledAfter = toCome.iterator().next();
+        toCome.remove(disabledAfter);
+
+        catalog.update(video(disabledBefore, false));
+        catalog.update(video(disabledAfter, false));
+        // the rest of the round is exactly the videos not featured yet
+        Assert.assertEquals(toCome, new HashSet<Integer>(next(catalog, 2)));
+
+        // the next round skips both disabled videos
+        List<Integer> round = next(catalog, 4);
+        Set<Integer> enabled = ids(1, 2, 3, 4, 5, 6);
+        enabled.remove(disabledBefore);
+        enabled.remove(disabledAfter);
+        Assert.assertEquals(enabled, new HashSet<Integer>(round));
+    }
+
+    @Test
+    public void testEnableDuringARound() {
+        VideoCatalog catalog = catalog(4);
+        List<Integer> featured = next(catalog, 2);
+        Set<Integer> toCome = ids(1, 2, 3, 4);
+        toCome.removeAll(featured);
+
+        // a new video and one that was disabled before it was featured
+        catalog.update(video(5, true));
+        int reenabled = toCome.iterator().next();
+        catalog.update(video(reenabled, false));
+        catalog.update(video(reenabled, true));
+        toCome.add(5);
+        Assert.assertEquals(toCome, new HashSet<Integer>(next(catalog, 3)));
+
+        // a featured video that is disabled and enabled again comes back like a new one
+        catalog.update(video(featured.get(0), false));
+        catalog.update(video(featured.get(0), true));
+        Assert.assertEquals(featured.subList(0, 1), next(catalog, 1));
+        List<Integer> round = next(catalog, 5);
+        assertDistinct(round);
+        Assert.assertEquals(ids(1, 2, 3, 4, 5), new HashSet<Integer>(round));
+    }
+
+}